@@ -0,0 +1,348 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.text.StrFormatter;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import com.fasterxml.jackson.annotation.JsonClassDescription;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import com.openai.client.OpenAIClient;
+import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import telegram.files.repository.ClassificationRecord;
+import telegram.files.repository.ClassificationRepository;
+import telegram.files.repository.FileRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Classification of files by AI for the transfers grouped by AI.
+ * Results are cached by the fingerprint of the normalized prompt, in memory and in the database until they expire,
+ * and the files of an album share the classification of the first one classified.
+ * A classification reused for another file only gives its directory, a path with a file name belongs to the file it was made for.
+ * Files waiting for a classification at the same time are classified in one request.
+ * <p>
+ * Blocking, called on the transfer workers.
+ */
+public class AIClassifier {
+    private static final Log log = LogFactory.get();
+
+    private static final int MAX_CACHED = 1000;
+
+    // milliseconds a request waits for other files to classify with
+    private static final int BATCH_LINGER = 200;
+
+    private static AIClassifier instance;
+
+    private final OpenAIClient client;
+
+    private final String model;
+
+    private final Supplier<ClassificationRepository> repository;
+
+    // milliseconds, 0 to not cache
+    private final long ttl;
+
+    private final int batchSize;
+
+    private final Map<String, ClassificationRecord> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    // classifications requested and not answered yet, by the fingerprint they are cached by
+    private final Map<String, CompletableFuture<ClassificationRecord>> classifying = new ConcurrentHashMap<>();
+
+    private final List<Request> pending = new ArrayList<>();
+
+    private record Request(String prompt, CompletableFuture<Transfer.AIClassificationResult> result) {
+    }
+
+    public AIClassifier(OpenAIClient client, String model, Supplier<ClassificationRepository> repository, long ttl, int batchSize) {
+        this.client = client;
+        this.model = model;
+        this.repository = repository;
+        this.ttl = ttl;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Shared by all transfers, created on first use as the client requires the OpenAI configuration.
+     */
+    public static synchronized AIClassifier get() {
+        if (instance == null) {
+            instance = new AIClassifier(OpenAIOkHttpClient.fromEnv(),
+                    Config.OPENAI_MODEL,
+                    () -> DataVerticle.classificationRepository,
+                    TimeUnit.DAYS.toMillis(Config.AI_CLASSIFICATION_CACHE_DAYS),
+                    Config.AI_CLASSIFICATION_BATCH_SIZE);
+            instance.deleteExpired();
+        }
+        return instance;
+    }
+
+    public Transfer.AIClassificationResult classify(FileRecord fileRecord, String promptTemplate) {
+        String prompt = StrFormatter.format(promptTemplate, FileRecord.toMap(fileRecord), false);
+        String promptFingerprint = fingerprint(normalize(prompt));
+        String albumFingerprint = fileRecord.mediaAlbumId() == 0 ? null :
+                fingerprint("album:%d:%d:%s".formatted(fileRecord.chatId(), fileRecord.mediaAlbumId(), promptTemplate));
+        String key = albumFingerprint == null ? promptFingerprint : albumFingerprint;
+
+        ClassificationRecord record = getCached(key);
+        if (record != null) {
+            Metrics.AI_CLASSIFICATIONS.labels(albumFingerprint == null ? "cache" : "album").inc();
+            return result(record, true);
+        }
+        if (albumFingerprint != null && (record = getCached(promptFingerprint)) != null) {
+            Metrics.AI_CLASSIFICATIONS.labels("cache").inc();
+            return result(record, true);
+        }
+
+        CompletableFuture<ClassificationRecord> future = new CompletableFuture<>();
+        CompletableFuture<ClassificationRecord> exist = classifying.putIfAbsent(key, future);
+        if (exist != null) {
+            // same prompt or album, being classified for another file
+            Metrics.AI_CLASSIFICATIONS.labels(albumFingerprint == null ? "cache" : "album").inc();
+            return result(exist.join(), true);
+        }
+        try {
+            Transfer.AIClassificationResult result = submit(prompt).join();
+            log.debug("File {} classified to {} by AI, reason: {}", fileRecord.id(), result.path, result.reason);
+            Metrics.AI_CLASSIFICATIONS.labels("request").inc();
+            record = new ClassificationRecord(promptFingerprint, result.path, result.reason, System.currentTimeMillis());
+            put(record);
+            if (albumFingerprint != null) {
+                put(new ClassificationRecord(albumFingerprint, record.path(), record.reason(), record.createdAt()));
+            }
+            future.complete(record);
+            return result;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            classifying.remove(key, future);
+        }
+    }
+
+    /**
+     * Whitespace collapsed, prompts that differ only by it get the same classification.
+     * The case is kept, file names and captions differing by case are different files.
+     */
+    static String normalize(String prompt) {
+        return StrUtil.trim(prompt).replaceAll("\\s+", " ");
+    }
+
+    private String fingerprint(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest((model + "\n" + value).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param shared whether the classification was made for another file,
+     *               a path of a file is then taken as its directory
+     */
+    private static Transfer.AIClassificationResult result(ClassificationRecord record, boolean shared) {
+        Transfer.AIClassificationResult result = new Transfer.AIClassificationResult();
+        result.path = record.path();
+        result.reason = record.reason();
+        if (shared && StrUtil.isNotBlank(FileUtil.extName(result.path))) {
+            Path parent = Path.of(result.path).getParent();
+            result.path = parent == null ? "" : parent.toString();
+        }
+        return result;
+    }
+
+    private ClassificationRecord getCached(String fingerprint) {
+        if (ttl <= 0) {
+            return null;
+        }
+        long since = System.currentTimeMillis() - ttl;
+        synchronized (cache) {
+            ClassificationRecord record = cache.get(fingerprint);
+            if (record != null && record.createdAt() >= since) {
+                return record;
+            }
+            cache.remove(fingerprint);
+        }
+        ClassificationRepository classificationRepository = repository.get();
+        if (classificationRepository == null) {
+            return null;
+        }
+        try {
+            ClassificationRecord record = MessyUtils.await(classificationRepository.getByFingerprint(fingerprint, since));
+            if (record != null) {
+                putMemory(record);
+            }
+            return record;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void put(ClassificationRecord record) {
+        if (ttl <= 0) {
+            return;
+        }
+        putMemory(record);
+        ClassificationRepository classificationRepository = repository.get();
+        if (classificationRepository != null) {
+            try {
+                MessyUtils.await(classificationRepository.createOrUpdate(record));
+            } catch (Exception ignore) {
+                // logged by the repository, the classification is still cached in memory
+            }
+        }
+    }
+
+    private void putMemory(ClassificationRecord record) {
+        synchronized (cache) {
+            cache.put(record.fingerprint(), record);
+            if (cache.size() > MAX_CACHED) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    private void deleteExpired() {
+        ClassificationRepository classificationRepository = repository.get();
+        if (classificationRepository != null) {
+            classificationRepository.deleteBefore(System.currentTimeMillis() - ttl);
+        }
+    }
+
+    /**
+     * Queue the prompt to be sent with the other prompts queued until the batch is full or the linger has passed.
+     */
+    private CompletableFuture<Transfer.AIClassificationResult> submit(String prompt) {
+        Request request = new Request(prompt, new CompletableFuture<>());
+        List<Request> batch = null;
+        boolean first;
+        synchronized (pending) {
+            pending.add(request);
+            first = pending.size() == 1;
+            if (pending.size() >= batchSize) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        } else if (first) {
+            Thread.ofVirtual().name("ai-classifier").start(() -> {
+                ThreadUtil.sleep(BATCH_LINGER);
+                List<Request> lingered;
+                synchronized (pending) {
+                    lingered = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                if (!lingered.isEmpty()) {
+                    send(lingered);
+                }
+            });
+        }
+        return request.result();
+    }
+
+    private void send(List<Request> batch) {
+        List<Request> unanswered = batch;
+        try {
+            if (batch.size() > 1) {
+                unanswered = sendBatch(batch);
+            }
+            // files left out of the batch answer are classified one by one
+            for (Request request : unanswered) {
+                request.result().complete(classifyOne(request.prompt()));
+            }
+        } catch (Exception e) {
+            log.error(e, "AI classification failed");
+            batch.forEach(request -> request.result().completeExceptionally(e));
+        }
+    }
+
+    private Transfer.AIClassificationResult classifyOne(String prompt) {
+        Transfer.AIClassificationResult result = client.chat().completions().create(ChatCompletionCreateParams.builder()
+                        .model(model)
+                        .addUserMessage(prompt)
+                        .responseFormat(Transfer.AIClassificationResult.class)
+                        .build())
+                .choices().stream()
+                .flatMap(choice -> choice.message().content().stream())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No classification result from AI"));
+        if (StrUtil.isBlank(result.path)) {
+            throw new IllegalStateException("Invalid classification result from AI: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the requests without a valid result in the answer
+     */
+    private List<Request> sendBatch(List<Request> batch) {
+        StringBuilder prompt = new StringBuilder("""
+                Classify each of the following %d files on its own, as asked for the file.
+                Answer with one result for each file, with the index of the file.
+                """.formatted(batch.size()));
+        for (int i = 0; i < batch.size(); i++) {
+            prompt.append("\nFile ").append(i + 1).append(":\n").append(batch.get(i).prompt()).append('\n');
+        }
+        AIBatchClassificationResult batchResult = client.chat().completions().create(ChatCompletionCreateParams.builder()
+                        .model(model)
+                        .addUserMessage(prompt.toString())
+                        .responseFormat(AIBatchClassificationResult.class)
+                        .build())
+                .choices().stream()
+                .flatMap(choice -> choice.message().content().stream())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No classification result from AI"));
+        log.debug("{} files classified by AI in one request", batch.size());
+
+        List<Request> unanswered = new ArrayList<>(batch);
+        for (AIBatchClassificationItem item : Objects.requireNonNullElse(batchResult.results, List.<AIBatchClassificationItem>of())) {
+            if (item == null || item.index < 1 || item.index > batch.size() || StrUtil.isBlank(item.path)) {
+                continue;
+            }
+            Request request = batch.get(item.index - 1);
+            if (unanswered.remove(request)) {
+                Transfer.AIClassificationResult result = new Transfer.AIClassificationResult();
+                result.path = item.path;
+                result.reason = item.reason;
+                request.result().complete(result);
+            }
+        }
+        return unanswered;
+    }
+
+    @JsonClassDescription("AI Classification Results of several files")
+    static class AIBatchClassificationResult {
+        @JsonProperty
+        @JsonPropertyDescription("One classification result for each file")
+        public List<AIBatchClassificationItem> results;
+    }
+
+    static class AIBatchClassificationItem {
+        @JsonProperty
+        @JsonPropertyDescription("Index of the file, starting from 1")
+        public int index;
+
+        @JsonProperty
+        @JsonPropertyDescription("A relative path for classification, e.g., images/nature, documents/work/example.pdf")
+        public String path;
+
+        @JsonProperty
+        @JsonPropertyDescription("Reason for classification or can't classify")
+        public String reason;
+    }
+}
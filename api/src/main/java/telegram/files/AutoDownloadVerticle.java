@@ -14,18 +14,21 @@ import org.drinkless.tdlib.TdApi;
 import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
+import telegram.files.repository.SettingDownloadAllocation;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.SettingTimeLimitedDownload;
 
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class AutoDownloadVerticle extends AbstractVerticle {
@@ -40,12 +43,18 @@ public class AutoDownloadVerticle extends AbstractVerticle {
 
     private static final int MAX_WAITING_LENGTH = 30;
 
+    // Freed slots are filled on DOWNLOAD_SLOT_RELEASED, the interval only catches up on missed events
     private static final int DOWNLOAD_INTERVAL = 10 * 1000;
 
+    private static final int SLOT_SAMPLE_INTERVAL = 5 * 1000;
+
+    // A started download that TDLib hasn't reported active within this time gives its slot back
+    private static final int SLOT_ACTIVATION_TIMEOUT = 60 * 1000;
+
     private static final List<String> DEFAULT_FILE_TYPE_ORDER = List.of("photo", "video", "audio", "file");
 
     // telegramId -> messages
-    private final Map<Long, LinkedList<MessageWrapper>> waitingDownloadMessages = new ConcurrentHashMap<>();
+    private final Map<Long, DownloadQueue> waitingDownloadMessages = new ConcurrentHashMap<>();
 
     // telegramId -> waiting scan threads
     private final Map<Long, LinkedList<WaitingScanThread>> waitingScanThreads = new ConcurrentHashMap<>();
@@ -56,15 +65,21 @@ public class AutoDownloadVerticle extends AbstractVerticle {
 
     private SettingTimeLimitedDownload timeLimited;
 
+    private SettingDownloadAllocation allocation;
+
     public AutoDownloadVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
-        AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item ->
-                waitingDownloadMessages.getOrDefault(item.telegramId, new LinkedList<>())
-                        .removeIf(m -> m.message.chatId == item.chatId)));
+        AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item -> {
+            DownloadQueue downloadQueue = waitingDownloadMessages.get(item.telegramId);
+            if (downloadQueue != null) {
+                downloadQueue.removeChat(item.chatId);
+            }
+        }));
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
+        registerMetrics();
         initAutoDownload()
                 .compose(_ -> this.initEventConsumer())
                 .onSuccess(_ -> {
@@ -87,9 +102,8 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                                 if (auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE)) {
                                                     addHistoryMessage(auto);
                                                 } else {
-                                                    LinkedList<MessageWrapper> messageWrappers = waitingDownloadMessages.get(auto.telegramId);
-                                                    if (CollUtil.isEmpty(messageWrappers) ||
-                                                        messageWrappers.stream().noneMatch(w -> w.isHistorical)) {
+                                                    DownloadQueue downloadQueue = waitingDownloadMessages.get(auto.telegramId);
+                                                    if (downloadQueue == null || downloadQueue.historicalSize(auto.chatId) == 0) {
                                                         auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE);
                                                     }
                                                 }
@@ -102,7 +116,14 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                     log.debug("Auto download time limited! Skip download.");
                                     return;
                                 }
-                                waitingDownloadMessages.keySet().forEach(this::download);
+                                waitingDownloadMessages.keySet().forEach(telegramId -> download(telegramId, true));
+                            });
+                    vertx.setPeriodic(SLOT_SAMPLE_INTERVAL,
+                            _ -> {
+                                long now = System.currentTimeMillis();
+                                TelegramVerticles.getAll().stream()
+                                        .filter(telegramVerticle -> telegramVerticle.authorized)
+                                        .forEach(telegramVerticle -> telegramVerticle.downloadSlots.sample(limit, now));
                             });
 
                     log.info("""
@@ -111,11 +132,13 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                             |Download interval: %s ms
                             |Download limit: %s per telegram account!
                             |Time limit: %s
+                            |Allocation: %s
                             |Auto chats: %s
                             """.formatted(HISTORY_SCAN_INTERVAL,
                             DOWNLOAD_INTERVAL,
                             limit,
                             timeLimited == null ? "" : Json.encode(timeLimited),
+                            allocation == null ? "" : Json.encode(allocation),
                             autoRecords.getDownloadEnabledItems().size()));
 
                     startPromise.complete();
@@ -128,16 +151,34 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         log.info("Auto download verticle stopped!");
     }
 
+    private void registerMetrics() {
+        Metrics.gauge("telegram_files_auto_download_queue_size", "Messages waiting for the auto download", "telegram_id",
+                () -> {
+                    Map<String, Integer> sizes = new HashMap<>();
+                    waitingDownloadMessages.forEach((telegramId, queue) -> sizes.put(telegramId.toString(), queue.size()));
+                    return sizes;
+                });
+        Metrics.gauge("telegram_files_auto_download_slots_used", "Auto download slots in use", "telegram_id",
+                () -> {
+                    Map<String, Integer> used = new HashMap<>();
+                    TelegramVerticles.getAll().forEach(telegramVerticle ->
+                            used.put(Convert.toStr(telegramVerticle.getId()), telegramVerticle.downloadSlots.used()));
+                    return used;
+                });
+    }
+
     private Future<Void> initAutoDownload() {
         return Future.all(
                         DataVerticle.settingRepository.<Integer>getByKey(SettingKey.autoDownloadLimit),
-                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited)
+                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited),
+                        DataVerticle.settingRepository.<SettingDownloadAllocation>getByKey(SettingKey.autoDownloadAllocation)
                 )
                 .onSuccess(results -> {
                     if (results.resultAt(0) != null) {
                         this.limit = results.resultAt(0);
                     }
                     this.timeLimited = results.resultAt(1);
+                    this.allocation = results.resultAt(2);
                 })
                 .onFailure(e -> log.error("Get Auto download limit failed!", e))
                 .mapEmpty();
@@ -152,10 +193,24 @@ public class AutoDownloadVerticle extends AbstractVerticle {
             log.debug("Auto download time limit update: %s".formatted(message.body()));
             this.timeLimited = (SettingTimeLimitedDownload) SettingKey.autoDownloadTimeLimited.converter.apply((String) message.body());
         });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadAllocation.name()), message -> {
+            log.debug("Auto download allocation update: %s".formatted(message.body()));
+            this.allocation = (SettingDownloadAllocation) SettingKey.autoDownloadAllocation.converter.apply((String) message.body());
+        });
         vertx.eventBus().consumer(EventEnum.MESSAGE_RECEIVED.address(), message -> {
             log.trace("Auto download message received: %s".formatted(message.body()));
             this.onNewMessage((JsonObject) message.body());
         });
+        vertx.eventBus().consumer(EventEnum.AUTO_DOWNLOAD_QUEUE.address(), message -> {
+            message.reply(getDownloadQueue((Long) message.body()).getStats());
+        });
+        vertx.eventBus().consumer(EventEnum.DOWNLOAD_SLOT_RELEASED.address(), message -> {
+            long telegramId = (Long) message.body();
+            log.trace("Auto download slot released: %d".formatted(telegramId));
+            if (isDownloadTime()) {
+                download(telegramId, false);
+            }
+        });
         return Future.succeededFuture();
     }
 
@@ -223,7 +278,7 @@ public class AutoDownloadVerticle extends AbstractVerticle {
             callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
             return;
         }
-        if (isExceedLimit(telegramId)) {
+        if (isExceedLimit(telegramId, chatId)) {
             log.debug("Scan history exceed per telegram account limit! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
             callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
             return;
@@ -290,7 +345,7 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                         if (CollUtil.isEmpty(messages)) {
                             params.nextFromMessageId = foundChatMessages.nextFromMessageId;
                             addHistoryMessage(params, callback, currentTimeMillis);
-                        } else if (addWaitingDownloadMessages(telegramId, messages, false, true)) {
+                        } else if (addWaitingDownloadMessages(telegramId, messages, true)) {
                             params.nextFromMessageId = foundChatMessages.nextFromMessageId;
                             addHistoryMessage(params, callback, currentTimeMillis);
                         }
@@ -335,14 +390,26 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         }
     }
 
-    private boolean isExceedLimit(long telegramId) {
-        List<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        return getSurplusSize(telegramId) <= 0 || (waitingMessages != null && waitingMessages.size() > limit);
+    private boolean isExceedLimit(long telegramId, long chatId) {
+        DownloadQueue downloadQueue = this.waitingDownloadMessages.get(telegramId);
+        return getSurplusSize(telegramId) <= 0 || (downloadQueue != null && downloadQueue.historicalSize(chatId) > limit);
     }
 
+    /**
+     * Free slots by the stored downloading count, which includes downloads started by hand, and by the slots in use.
+     */
     private int getSurplusSize(long telegramId) {
         Integer downloading = Future.await(DataVerticle.fileRepository.countByStatus(telegramId, FileRecord.DownloadStatus.downloading));
-        return downloading == null ? limit : Math.max(0, limit - downloading);
+        return Math.min(getSlotSurplusSize(telegramId), Math.max(0, limit - (downloading == null ? 0 : downloading)));
+    }
+
+    /**
+     * Free slots by the slots in use and the downloads TDLib reports outside of them, without a query.
+     */
+    private int getSlotSurplusSize(long telegramId) {
+        return TelegramVerticles.get(telegramId)
+                .map(telegramVerticle -> telegramVerticle.downloadSlots.surplus(limit, telegramVerticle.getActiveDownloads()))
+                .orElse(limit);
     }
 
     private boolean isDownloadCommentEnabled(SettingAutoRecords.Automation auto) {
@@ -356,37 +423,58 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                 .orElse(false);
     }
 
+    private DownloadQueue getDownloadQueue(long telegramId) {
+        return waitingDownloadMessages.computeIfAbsent(telegramId, _ -> new DownloadQueue(Config.AUTO_DOWNLOAD_QUEUE_CAPACITY,
+                chatId -> {
+                    SettingAutoRecords.Automation automation = autoRecords.getItem(telegramId, chatId);
+                    return automation == null || automation.download == null ? 1 : automation.download.weight;
+                }));
+    }
+
+    /**
+     * Live messages are always queued. Historical messages of a chat are queued all or none,
+     * so a scan that is turned away resumes from the same messages.
+     */
     private boolean addWaitingDownloadMessages(long telegramId,
                                                List<TdApi.Message> messages,
-                                               boolean force,
                                                boolean isHistorical) {
         if (CollUtil.isEmpty(messages)) {
             return false;
         }
-        LinkedList<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        if (waitingMessages == null) {
-            waitingMessages = new LinkedList<>();
+        DownloadQueue downloadQueue = getDownloadQueue(telegramId);
+        List<TdApi.Message> uniqueMessages = TdApiHelp.filterUniqueMessages(messages);
+        if (uniqueMessages.isEmpty()) {
+            return true;
+        }
+        if (!isHistorical) {
+            uniqueMessages.forEach(message -> {
+                if (!downloadQueue.addLive(message)) {
+                    log.warn("Download queue is full, drop message! TelegramId: %d ChatId: %d MessageId: %d"
+                            .formatted(telegramId, message.chatId, message.id));
+                }
+            });
+            return true;
         }
-        if (!force && waitingMessages.size() > MAX_WAITING_LENGTH) {
+        long chatId = uniqueMessages.getFirst().chatId;
+        if (downloadQueue.historicalSize(chatId) > MAX_WAITING_LENGTH
+            || downloadQueue.remainingCapacity() < uniqueMessages.size()) {
             return false;
-        } else {
-            log.debug("Add waiting download messages: %d".formatted(messages.size()));
-            waitingMessages.addAll(TdApiHelp.filterUniqueMessages(messages)
-                    .stream()
-                    .map(message -> new MessageWrapper(message, isHistorical))
-                    .toList()
-            );
         }
-        this.waitingDownloadMessages.put(telegramId, waitingMessages);
+        log.debug("Add waiting download messages: %d".formatted(uniqueMessages.size()));
+        downloadQueue.addHistorical(uniqueMessages);
         return true;
     }
 
-    private void download(long telegramId) {
+    /**
+     * @param reconcile check the stored downloading count as well, otherwise only the in memory slots
+     *                  and the downloads TDLib reports are used, so a released slot is filled without a query
+     */
+    private void download(long telegramId, boolean reconcile) {
         if (CollUtil.isEmpty(waitingDownloadMessages)) {
             return;
         }
-        LinkedList<MessageWrapper> messages = waitingDownloadMessages.get(telegramId);
-        if (CollUtil.isEmpty(messages)) {
+        DownloadQueue messages = waitingDownloadMessages.get(telegramId);
+        if (messages == null || messages.isEmpty()) {
             return;
         }
         log.debug("Download start! TelegramId: %d size: %d".formatted(telegramId, messages.size()));
@@ -394,22 +482,50 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         if (!telegramVerticle.authorized) {
             return;
         }
-        int surplusSize = getSurplusSize(telegramId);
+        if (telegramVerticle.isThrottled()) {
+            log.debug("Download bandwidth limited! TelegramId: %d".formatted(telegramId));
+            return;
+        }
+        DownloadSlots downloadSlots = telegramVerticle.downloadSlots;
+        if (reconcile) {
+            int pruned = downloadSlots.prune(SLOT_ACTIVATION_TIMEOUT);
+            if (pruned > 0) {
+                log.debug("Released %d inactive download slots! TelegramId: %d".formatted(pruned, telegramId));
+            }
+        }
+        // No await between the surplus and taking the slots, a concurrent call can't take the same slots
+        int surplusSize = reconcile ? getSurplusSize(telegramId) : getSlotSurplusSize(telegramId);
         if (surplusSize <= 0) {
             return;
         }
 
-        List<MessageWrapper> downloadMessages = IntStream.range(0, Math.min(surplusSize, messages.size()))
-                .mapToObj(_ -> messages.poll())
-                .toList();
-        downloadMessages.forEach(messageWrapper -> {
-            TdApi.Message message = messageWrapper.message;
+        SettingDownloadAllocation allocation = this.allocation;
+        List<TdApi.Message> downloadMessages = new ArrayList<>();
+        while (downloadMessages.size() < surplusSize) {
+            // by size, large files that don't fit now are skipped and keep their place in the queue
+            TdApi.Message message = allocation != null && allocation.isSizeMode()
+                    ? messages.poll(m -> downloadSlots.canAcquire(TdApiHelp.getFileSize(m), limit, allocation))
+                    : messages.poll();
+            if (message == null) {
+                break;
+            }
+            Integer fileId = TdApiHelp.getFileId(message);
+            if (!downloadSlots.acquire(fileId, TdApiHelp.getFileSize(message))) {
+                log.debug("File is already in a download slot: %s".formatted(fileId));
+                continue;
+            }
+            downloadMessages.add(message);
+        }
+        downloadMessages.forEach(message -> {
             Integer fileId = TdApiHelp.getFileId(message);
             log.debug("Start download file: %s".formatted(fileId));
             telegramVerticle.startDownload(message.chatId, message.id, fileId)
                     .onSuccess(fileRecord -> {
                         log.info("Start download file success! ChatId: %d MessageId:%d FileId:%d"
                                 .formatted(message.chatId, message.id, fileId));
+                        if (fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)) {
+                            downloadSlots.release(fileId);
+                        }
                         if (fileRecord.threadChatId() != 0
                             && fileRecord.messageThreadId() != 0
                             && fileRecord.threadChatId() != fileRecord.chatId()) {
@@ -417,8 +533,11 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                     .add(new WaitingScanThread(telegramId, fileRecord.threadChatId(), fileRecord.messageThreadId()));
                         }
                     })
-                    .onFailure(e -> log.error("Download file failed! ChatId: %d MessageId:%d FileId:%d"
-                            .formatted(message.chatId, message.id, fileId), e));
+                    .onFailure(e -> {
+                        downloadSlots.release(fileId);
+                        log.error("Download file failed! ChatId: %d MessageId:%d FileId:%d"
+                                .formatted(message.chatId, message.id, fileId), e);
+                    });
         });
         log.debug("Remaining download messages: %d".formatted(messages.size()));
     }
@@ -427,14 +546,12 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         long telegramId = jsonObject.getLong("telegramId");
         long chatId = jsonObject.getLong("chatId");
         long messageId = jsonObject.getLong("messageId");
-        autoRecords.getDownloadEnabledItems().stream()
-                .filter(item -> item.telegramId == telegramId && item.chatId == chatId)
-                .findFirst()
+        Optional.ofNullable(autoRecords.getDownloadEnabledItem(telegramId, chatId))
                 .flatMap(_ -> TelegramVerticles.get(telegramId))
                 .ifPresent(telegramVerticle -> {
                     if (telegramVerticle.authorized) {
                         telegramVerticle.client.execute(new TdApi.GetMessage(chatId, messageId))
-                                .onSuccess(message -> addWaitingDownloadMessages(telegramId, List.of(message), true, false))
+                                .onSuccess(message -> addWaitingDownloadMessages(telegramId, List.of(message), false))
                                 .onFailure(e -> log.error("Auto download fail. Get message failed: %s".formatted(e.getMessage())));
                     }
                 });
@@ -503,7 +620,4 @@ public class AutoDownloadVerticle extends AbstractVerticle {
             this.messageThreadId = messageThreadId;
         }
     }
-
-    private record MessageWrapper(TdApi.Message message, boolean isHistorical) {
-    }
 }
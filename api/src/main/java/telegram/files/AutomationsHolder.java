@@ -52,7 +52,7 @@ public class AutomationsHolder {
                 .mapEmpty();
     }
 
-    public void onAutoRecordsUpdate(SettingAutoRecords records) {
+    public synchronized void onAutoRecordsUpdate(SettingAutoRecords records) {
         for (SettingAutoRecords.Automation automation : records.automations) {
             if (!AUTO_RECORDS.exists(automation.telegramId, automation.chatId)) {
                 // new enabled
@@ -74,9 +74,9 @@ public class AutomationsHolder {
                 log.info("Update auto records success: %s".formatted(automation.uniqueKey()));
             }
         }
-        // remove disabled
+        // remove disabled, also reindexes the fields updated above
         List<SettingAutoRecords.Automation> removedItems = new ArrayList<>();
-        AUTO_RECORDS.automations.removeIf(item -> {
+        AUTO_RECORDS.removeIf(item -> {
             if (records.exists(item.telegramId, item.chatId)) {
                 return false;
             }
@@ -1,23 +1,46 @@
 package telegram.files;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
-
+/**
+ * Download speed of the last interval, updated on every file download progress.
+ * Points are kept in a primitive ring buffer, so an update doesn't allocate once the buffer has grown to the update rate.
+ * The max and min speed of the window are tracked by monotonic queues, the median is only computed when it is read.
+ */
 public class AvgSpeed {
-    private final int interval;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Points kept at most, if updates come faster the oldest points leave before the interval is over.
+     */
+    static final int MAX_CAPACITY = 1 << 13;
 
-    private final TreeMap<Long, SpeedPoint> speedPoints;
+    private final int interval;
 
     private final int smoothingWindowSize;
 
+    // Points in timestamp order, the oldest at head
+    private long[] downloadedSizes;
+
     /**
-     * @param speed Speed since last point
+     * Speed since last point
      */
-    record SpeedPoint(long downloadedSize, long speed, long timestamp) {
-    }
+    private long[] speeds;
+
+    private long[] timestamps;
+
+    private int head;
+
+    private int count;
+
+    // Sequence number of the point at head, points keep their number while the ring wraps or grows
+    private long headSeq;
+
+    // Points that can still become the max speed of the window, speeds decreasing
+    private final SeqQueue maxQueue = new SeqQueue(INITIAL_CAPACITY);
+
+    // Points with a positive speed that can still become the min speed of the window, speeds increasing
+    private final SeqQueue minQueue = new SeqQueue(INITIAL_CAPACITY);
+
+    private long[] medianScratch = new long[0];
 
     public AvgSpeed() {
         this(5 * 60); // Default interval is 5 minutes
@@ -29,15 +52,17 @@ public class AvgSpeed {
 
     public AvgSpeed(int interval, int smoothingWindowSize) {
         this.interval = interval;
-        this.speedPoints = new TreeMap<>();
         this.smoothingWindowSize = smoothingWindowSize;
+        this.downloadedSizes = new long[INITIAL_CAPACITY];
+        this.speeds = new long[INITIAL_CAPACITY];
+        this.timestamps = new long[INITIAL_CAPACITY];
     }
 
     /**
-     * Update download progress
+     * Update download progress, a point at the timestamp of the last point replaces it, older points are ignored.
      */
-    public void update(long downloadedSize, long timestamp) {
-        if (downloadedSize <= 0) {
+    public synchronized void update(long downloadedSize, long timestamp) {
+        if (downloadedSize <= 0 || (count > 0 && timestamp < timestampAt(count - 1))) {
             removeOldPoints(timestamp);
             return;
         }
@@ -45,40 +70,40 @@ public class AvgSpeed {
         long speed = calculateInstantSpeed(downloadedSize, timestamp);
 
         // Apply smoothing if we have enough points
-        if (speedPoints.size() >= smoothingWindowSize) {
+        if (count >= smoothingWindowSize) {
             speed = smoothSpeed(speed);
         }
 
-        // Add new speed point
-        speedPoints.put(timestamp, new SpeedPoint(downloadedSize, speed, timestamp));
+        if (count > 0 && timestampAt(count - 1) == timestamp) {
+            removeLast();
+        }
+        addLast(downloadedSize, speed, timestamp);
 
         removeOldPoints(timestamp);
     }
 
     private void removeOldPoints(long timestamp) {
         long cutoffTime = timestamp - interval * 1000L; // Convert interval to milliseconds
-        speedPoints.headMap(cutoffTime).clear();
+        while (count > 0 && timestamps[head] < cutoffTime) {
+            removeFirst();
+        }
     }
 
     private long calculateInstantSpeed(long currentSize, long currentTime) {
-        if (speedPoints.isEmpty()) {
+        if (count == 0) {
             return 0;
         }
 
         // Find the earliest point within our smoothing window
-        int pointsToConsider = Math.min(smoothingWindowSize, speedPoints.size());
-        List<SpeedPoint> recentPoints = speedPoints.values().stream()
-                .skip(speedPoints.size() - pointsToConsider)
-                .toList();
-
-        SpeedPoint earliestPoint = recentPoints.getFirst();
+        int pointsToConsider = Math.max(1, Math.min(smoothingWindowSize, count));
+        int earliest = count - pointsToConsider;
 
-        long timeDiff = currentTime - earliestPoint.timestamp;
+        long timeDiff = currentTime - timestampAt(earliest);
         if (timeDiff <= 0) {
             return 0;
         }
 
-        long bytesDiff = currentSize - earliestPoint.downloadedSize;
+        long bytesDiff = currentSize - downloadedSizeAt(earliest);
         if (bytesDiff < 0) {
             // Handle download restart
             bytesDiff = currentSize;
@@ -87,79 +112,86 @@ public class AvgSpeed {
         return (bytesDiff * 1000L) / timeDiff; // Speed in bytes per second
     }
 
+    /**
+     * Weighted average of the recent speeds and the current one, newer speeds weigh more and outliers beyond 3 standard deviations are left out.
+     */
     private long smoothSpeed(long currentSpeed) {
-        if (speedPoints.isEmpty()) {
+        if (count == 0) {
             return currentSpeed;
         }
 
-        List<Long> recentSpeeds = speedPoints.values().stream()
-                .skip(Math.max(0, speedPoints.size() - smoothingWindowSize))
-                .map(point -> point.speed)
-                .collect(Collectors.toList());
-        recentSpeeds.add(currentSpeed);
-
-        if (recentSpeeds.size() < 2) {
+        int from = Math.max(0, count - smoothingWindowSize);
+        int n = count - from + 1;
+        if (n < 2) {
             return currentSpeed;
         }
 
-        double mean = recentSpeeds.stream()
-                .mapToLong(Long::longValue)
-                .average()
-                .orElse(currentSpeed);
+        long sum = currentSpeed;
+        for (int i = from; i < count; i++) {
+            sum += speedAt(i);
+        }
+        double mean = (double) sum / n;
 
-        double standardDeviation = Math.sqrt(
-                recentSpeeds.stream()
-                        .mapToDouble(speed -> {
-                            double diff = speed - mean;
-                            return diff * diff;
-                        })
-                        .average()
-                        .orElse(0.0)
-        );
+        double squaredDiffs = square(currentSpeed - mean);
+        for (int i = from; i < count; i++) {
+            squaredDiffs += square(speedAt(i) - mean);
+        }
+        double standardDeviation = Math.sqrt(squaredDiffs / n);
 
         double upperThreshold = mean + (3 * standardDeviation);
         double lowerThreshold = mean - (3 * standardDeviation);
 
-        List<Long> filteredSpeeds = recentSpeeds.stream()
-                .filter(speed -> speed >= lowerThreshold && speed <= upperThreshold)
-                .toList();
-
-        if (filteredSpeeds.isEmpty()) {
+        int size = inRange(currentSpeed, lowerThreshold, upperThreshold) ? 1 : 0;
+        for (int i = from; i < count; i++) {
+            if (inRange(speedAt(i), lowerThreshold, upperThreshold)) {
+                size++;
+            }
+        }
+        if (size == 0) {
             return currentSpeed;
         }
 
         double totalWeight = 0;
         double weightedSum = 0;
-        int size = filteredSpeeds.size();
-
-        for (int i = 0; i < size; i++) {
-            double weight = (i + 1.0) / size;
-            weightedSum += filteredSpeeds.get(i) * weight;
+        int index = 0;
+        for (int i = from; i <= count; i++) {
+            long speed = i == count ? currentSpeed : speedAt(i);
+            if (!inRange(speed, lowerThreshold, upperThreshold)) {
+                continue;
+            }
+            double weight = (index + 1.0) / size;
+            weightedSum += speed * weight;
             totalWeight += weight;
+            index++;
         }
 
         return (long) (weightedSum / totalWeight);
     }
 
+    private static double square(double value) {
+        return value * value;
+    }
+
+    private static boolean inRange(long speed, double lower, double upper) {
+        return speed >= lower && speed <= upper;
+    }
+
     /**
      * Get average speed in bytes per second for last interval
      */
-    public long getSpeed() {
-        if (speedPoints.size() < 2) {
+    public synchronized long getSpeed() {
+        if (count < 2) {
             return 0;
         }
 
-        Map.Entry<Long, SpeedPoint> firstEntry = speedPoints.firstEntry();
-        Map.Entry<Long, SpeedPoint> lastEntry = speedPoints.lastEntry();
-
-        long timeDiff = lastEntry.getKey() - firstEntry.getKey();
+        long timeDiff = timestampAt(count - 1) - timestampAt(0);
         if (timeDiff <= 0) {
             return 0;
         }
 
-        long bytesDownloaded = lastEntry.getValue().downloadedSize - firstEntry.getValue().downloadedSize;
+        long bytesDownloaded = downloadedSizeAt(count - 1) - downloadedSizeAt(0);
         if (bytesDownloaded < 0) {
-            bytesDownloaded = lastEntry.getValue().downloadedSize;
+            bytesDownloaded = downloadedSizeAt(count - 1);
         }
 
         return (bytesDownloaded * 1000L) / timeDiff;
@@ -168,49 +200,47 @@ public class AvgSpeed {
     /**
      * Get median speed from all recorded points
      */
-    public long getMedianSpeed() {
-        if (speedPoints.size() < 2) {
+    public synchronized long getMedianSpeed() {
+        if (count < 2) {
             return 0;
         }
 
-        List<Long> speeds = new ArrayList<>(speedPoints.values()).stream()
-                .map(point -> point.speed)
-                .filter(speed -> speed > 0)
-                .sorted()
-                .toList();
+        if (medianScratch.length < count) {
+            medianScratch = new long[downloadedSizes.length];
+        }
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            long speed = speedAt(i);
+            if (speed > 0) {
+                medianScratch[size++] = speed;
+            }
+        }
 
-        if (speeds.isEmpty()) {
+        if (size == 0) {
             return 0;
         }
 
-        return speeds.get(speeds.size() / 2);
+        return select(medianScratch, size, size / 2);
     }
 
     /**
      * Get maximum recorded speed
      */
-    public long getMaxSpeed() {
-        return speedPoints.values().stream()
-                .map(point -> point.speed)
-                .max(Long::compare)
-                .orElse(0L);
+    public synchronized long getMaxSpeed() {
+        return maxQueue.isEmpty() ? 0 : speedOf(maxQueue.peekFirst());
     }
 
     /**
      * Get minimum recorded speed
      */
-    public long getMinSpeed() {
-        return speedPoints.values().stream()
-                .map(point -> point.speed)
-                .filter(speed -> speed > 0)
-                .min(Long::compare)
-                .orElse(0L);
+    public synchronized long getMinSpeed() {
+        return minQueue.isEmpty() ? 0 : speedOf(minQueue.peekFirst());
     }
 
     /**
      * Get speed statistics summary
      */
-    public SpeedStats getSpeedStats() {
+    public synchronized SpeedStats getSpeedStats() {
         return new SpeedStats(
                 interval,
                 getSpeed(),
@@ -222,4 +252,181 @@ public class AvgSpeed {
 
     public record SpeedStats(int interval, long avgSpeed, long medianSpeed, long maxSpeed, long minSpeed) {
     }
+
+    private void addLast(long downloadedSize, long speed, long timestamp) {
+        if (count == downloadedSizes.length) {
+            if (count < MAX_CAPACITY) {
+                grow();
+            } else {
+                removeFirst();
+            }
+        }
+        int index = physical(count);
+        downloadedSizes[index] = downloadedSize;
+        speeds[index] = speed;
+        timestamps[index] = timestamp;
+        long seq = headSeq + count;
+        count++;
+        offer(seq, speed);
+    }
+
+    private void offer(long seq, long speed) {
+        while (!maxQueue.isEmpty() && speedOf(maxQueue.peekLast()) <= speed) {
+            maxQueue.pollLast();
+        }
+        maxQueue.addLast(seq);
+        if (speed > 0) {
+            while (!minQueue.isEmpty() && speedOf(minQueue.peekLast()) >= speed) {
+                minQueue.pollLast();
+            }
+            minQueue.addLast(seq);
+        }
+    }
+
+    private void removeFirst() {
+        if (!maxQueue.isEmpty() && maxQueue.peekFirst() == headSeq) {
+            maxQueue.pollFirst();
+        }
+        if (!minQueue.isEmpty() && minQueue.peekFirst() == headSeq) {
+            minQueue.pollFirst();
+        }
+        head = physical(1);
+        headSeq++;
+        count--;
+    }
+
+    private void removeLast() {
+        count--;
+        // The last point may have evicted candidates that are max or min again without it
+        maxQueue.clear();
+        minQueue.clear();
+        for (int i = 0; i < count; i++) {
+            offer(headSeq + i, speedAt(i));
+        }
+    }
+
+    private void grow() {
+        int capacity = downloadedSizes.length * 2;
+        downloadedSizes = unwrap(downloadedSizes, capacity);
+        speeds = unwrap(speeds, capacity);
+        timestamps = unwrap(timestamps, capacity);
+        head = 0;
+        maxQueue.grow(capacity);
+        minQueue.grow(capacity);
+    }
+
+    private long[] unwrap(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        int tail = Math.min(count, values.length - head);
+        System.arraycopy(values, head, copy, 0, tail);
+        System.arraycopy(values, 0, copy, tail, count - tail);
+        return copy;
+    }
+
+    private int physical(int position) {
+        return (head + position) & (downloadedSizes.length - 1);
+    }
+
+    private long downloadedSizeAt(int position) {
+        return downloadedSizes[physical(position)];
+    }
+
+    private long speedAt(int position) {
+        return speeds[physical(position)];
+    }
+
+    private long timestampAt(int position) {
+        return timestamps[physical(position)];
+    }
+
+    private long speedOf(long seq) {
+        return speedAt((int) (seq - headSeq));
+    }
+
+    /**
+     * The k-th smallest of the first size values, the values are reordered.
+     */
+    private static long select(long[] values, int size, int k) {
+        int left = 0;
+        int right = size - 1;
+        while (left < right) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    long tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    /**
+     * Double-ended queue of point sequence numbers, at most as long as the ring.
+     */
+    private static class SeqQueue {
+        private long[] seqs;
+
+        private int head;
+
+        private int count;
+
+        SeqQueue(int capacity) {
+            this.seqs = new long[capacity];
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        long peekFirst() {
+            return seqs[head];
+        }
+
+        long peekLast() {
+            return seqs[(head + count - 1) & (seqs.length - 1)];
+        }
+
+        void addLast(long seq) {
+            seqs[(head + count) & (seqs.length - 1)] = seq;
+            count++;
+        }
+
+        void pollFirst() {
+            head = (head + 1) & (seqs.length - 1);
+            count--;
+        }
+
+        void pollLast() {
+            count--;
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+        }
+
+        void grow(int capacity) {
+            long[] copy = new long[capacity];
+            for (int i = 0; i < count; i++) {
+                copy[i] = seqs[(head + i) & (seqs.length - 1)];
+            }
+            seqs = copy;
+            head = 0;
+        }
+    }
 }
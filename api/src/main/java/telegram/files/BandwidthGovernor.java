@@ -0,0 +1,96 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.SettingBandwidthLimit;
+import telegram.files.repository.SettingKey;
+
+import java.time.LocalTime;
+
+/**
+ * Holds the downloads of one account to the bandwidth limits, with a token bucket for the account and one for all accounts.
+ * The downloaded bytes come from the counters of UpdateFileDownloads,
+ * the verticle pauses its downloads when the governor says so and resumes them once the buckets have refilled.
+ */
+public class BandwidthGovernor {
+    private static final Log log = LogFactory.get();
+
+    public enum Action {
+        NONE,
+        PAUSE,
+        RESUME
+    }
+
+    private static final TokenBucket GLOBAL = new TokenBucket();
+
+    private static volatile SettingBandwidthLimit setting;
+
+    private final TokenBucket bucket = new TokenBucket();
+
+    private long lastDownloadedSize = -1;
+
+    private boolean paused;
+
+    private long pauseCount;
+
+    public static Future<Void> init(Vertx vertx) {
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.downloadBandwidthLimit.name()), message -> {
+            log.debug("Download bandwidth limit update: %s".formatted(message.body()));
+            setting = (SettingBandwidthLimit) SettingKey.downloadBandwidthLimit.converter.apply((String) message.body());
+        });
+        return DataVerticle.settingRepository.<SettingBandwidthLimit>getByKey(SettingKey.downloadBandwidthLimit)
+                .onSuccess(value -> setting = value)
+                .onFailure(e -> log.error("Get download bandwidth limit failed!", e))
+                .<Void>mapEmpty()
+                .otherwiseEmpty();
+    }
+
+    public static JsonObject getGlobalStats() {
+        return GLOBAL.getStats();
+    }
+
+    /**
+     * @param downloadedSize total downloaded size of the file download list
+     */
+    public synchronized void onDownloaded(long downloadedSize, long now) {
+        // the total drops when files leave the download list
+        long bytes = lastDownloadedSize < 0 || downloadedSize < lastDownloadedSize ? 0 : downloadedSize - lastDownloadedSize;
+        lastDownloadedSize = downloadedSize;
+        bucket.consume(bytes, now);
+        GLOBAL.consume(bytes, now);
+    }
+
+    public synchronized Action tick(long now) {
+        SettingBandwidthLimit setting = BandwidthGovernor.setting;
+        LocalTime time = LocalTime.now();
+        bucket.setRate(setting == null ? 0 : setting.getAccountRate(time));
+        GLOBAL.setRate(setting == null ? 0 : setting.getGlobalRate(time));
+        bucket.refill(now);
+        GLOBAL.refill(now);
+
+        if (!paused && (bucket.isExhausted() || GLOBAL.isExhausted())) {
+            paused = true;
+            pauseCount++;
+            return Action.PAUSE;
+        }
+        if (paused && bucket.canResume() && GLOBAL.canResume()) {
+            paused = false;
+            return Action.RESUME;
+        }
+        return Action.NONE;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized JsonObject getStats() {
+        return bucket.getStats()
+                .put("paused", paused)
+                .put("pauseCount", pauseCount)
+                .put("global", GLOBAL.getStats());
+    }
+}
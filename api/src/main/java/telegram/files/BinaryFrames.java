@@ -0,0 +1,73 @@
+package telegram.files;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+
+/**
+ * Binary websocket frames of the progress events, for clients that connect with {@code /ws?frames=binary}.
+ * Big-endian, every frame starts with the event type and the timestamp in milliseconds:
+ * <pre>
+ * TYPE_FILE_PROGRESS: u8 type | i64 timestamp | u16 count | count * (i32 fileId | i64 size | i64 downloadedSize | u8 flags)
+ * TYPE_FILE_DOWNLOAD: u8 type | i64 timestamp | i64 totalSize | i32 totalCount | i64 downloadedSize
+ * </pre>
+ * The size of a file is its expected size while the exact size is unknown,
+ * flags: bit 0 downloading active, bit 1 downloading completed.
+ */
+public class BinaryFrames {
+
+    static final int HEADER_SIZE = 1 + 8;
+
+    static final int FILE_SIZE = 4 + 8 + 8 + 1;
+
+    static final int MAX_FILES = 0xFFFF;
+
+    public static final int FLAG_ACTIVE = 1;
+
+    public static final int FLAG_COMPLETED = 1 << 1;
+
+    /**
+     * @param files {@link org.drinkless.tdlib.TdApi.File} as json, at most {@link #MAX_FILES} are encoded
+     */
+    public static Buffer fileProgress(long timestamp, Collection<JsonObject> files) {
+        int count = Math.min(files.size(), MAX_FILES);
+        Buffer buffer = Buffer.buffer(HEADER_SIZE + 2 + count * FILE_SIZE)
+                .appendByte((byte) EventPayload.TYPE_FILE_PROGRESS)
+                .appendLong(timestamp)
+                .appendUnsignedShort(count);
+        int i = 0;
+        for (JsonObject file : files) {
+            if (i++ == count) {
+                break;
+            }
+            long size = file.getLong("size", 0L);
+            JsonObject local = file.getJsonObject("local");
+            int flags = 0;
+            long downloadedSize = 0;
+            if (local != null) {
+                downloadedSize = local.getLong("downloadedSize", 0L);
+                flags |= local.getBoolean("isDownloadingActive", false) ? FLAG_ACTIVE : 0;
+                flags |= local.getBoolean("isDownloadingCompleted", false) ? FLAG_COMPLETED : 0;
+            }
+            buffer.appendInt(file.getInteger("id"))
+                    .appendLong(size == 0 ? file.getLong("expectedSize", 0L) : size)
+                    .appendLong(downloadedSize)
+                    .appendUnsignedByte((short) flags);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param payload {@link EventPayload} of {@link org.drinkless.tdlib.TdApi.UpdateFileDownloads} as json
+     */
+    public static Buffer fileDownload(JsonObject payload) {
+        JsonObject data = payload.getJsonObject("data", JsonObject.of());
+        return Buffer.buffer(HEADER_SIZE + 8 + 4 + 8)
+                .appendByte((byte) EventPayload.TYPE_FILE_DOWNLOAD)
+                .appendLong(payload.getLong("timestamp", 0L))
+                .appendLong(data.getLong("totalSize", 0L))
+                .appendInt(data.getInteger("totalCount", 0))
+                .appendLong(data.getLong("downloadedSize", 0L));
+    }
+}
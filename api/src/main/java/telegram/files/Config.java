@@ -47,8 +47,48 @@ public class Config {
 
     public static final int TELEGRAM_LOG_LEVEL = Convert.toInt(System.getenv("TELEGRAM_LOG_LEVEL"), 0);
 
+    public static final int TELEGRAM_PIPELINE_WINDOW = Convert.toInt(System.getenv("TELEGRAM_PIPELINE_WINDOW"), 16);
+
+    /**
+     * Messages, threads and files cached per account, 0 to not cache TDLib responses
+     */
+    public static final int TELEGRAM_CACHE_SIZE = Convert.toInt(System.getenv("TELEGRAM_CACHE_SIZE"), 10000);
+
+    public static final int AUTO_DOWNLOAD_QUEUE_CAPACITY = Convert.toInt(System.getenv("AUTO_DOWNLOAD_QUEUE_CAPACITY"), 10000);
+
+    public static final int TRANSFER_WORKERS = Convert.toInt(System.getenv("TRANSFER_WORKERS"), 4);
+
+    public static final int TRANSFER_DESTINATION_CONCURRENCY = Convert.toInt(System.getenv("TRANSFER_DESTINATION_CONCURRENCY"), 2);
+
+    /**
+     * Compare a file copied to another file system with its source before it replaces the transfer path
+     */
+    public static final boolean TRANSFER_VERIFY = Convert.toBool(System.getenv("TRANSFER_VERIFY"), true);
+
+    /**
+     * MD5, SHA256 or XXH64, used to compare files and index their content
+     */
+    public static final FileHasher.Algorithm HASH_ALGORITHM = Convert.toEnum(FileHasher.Algorithm.class, System.getenv("HASH_ALGORITHM"), FileHasher.Algorithm.XXH64);
+
+    /**
+     * off, index or link, link replaces a copy of already stored content by a hard link, so it has to be enabled explicitly
+     */
+    public static final ContentStore.Mode CONTENT_DEDUP = Convert.toEnum(ContentStore.Mode.class, System.getenv("CONTENT_DEDUP"), ContentStore.Mode.off);
+
+    public static final int WEBSOCKET_PUSH_INTERVAL = Convert.toInt(System.getenv("WEBSOCKET_PUSH_INTERVAL"), 500);
+
     public static final String OPENAI_MODEL = StrUtil.blankToDefault(System.getenv("OPENAI_MODEL"), ChatModel.GPT_4O_MINI.asString());
 
+    /**
+     * Days an AI classification is reused for files with the same prompt or in the same album, 0 to not cache
+     */
+    public static final int AI_CLASSIFICATION_CACHE_DAYS = Convert.toInt(System.getenv("AI_CLASSIFICATION_CACHE_DAYS"), 30);
+
+    /**
+     * Files classified together in one request at most
+     */
+    public static final int AI_CLASSIFICATION_BATCH_SIZE = Convert.toInt(System.getenv("AI_CLASSIFICATION_BATCH_SIZE"), 8);
+
     public static final DeploymentOptions VIRTUAL_THREAD_DEPLOYMENT_OPTIONS = new DeploymentOptions()
             .setThreadingModel(ThreadingModel.VIRTUAL_THREAD);
 
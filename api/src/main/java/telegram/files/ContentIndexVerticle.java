@@ -0,0 +1,70 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.FileRecord;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Index the content of every completed download, one file at a time so hashing doesn't compete with the downloads.
+ *
+ * @see ContentStore
+ */
+public class ContentIndexVerticle extends AbstractVerticle {
+    private static final Log log = LogFactory.get();
+
+    private final ContentStore contentStore = ContentStore.INSTANCE;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("content-index").factory());
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        if (!contentStore.isEnabled()) {
+            log.info("Content index is disabled");
+            startPromise.complete();
+            return;
+        }
+        vertx.eventBus().consumer(EventEnum.TELEGRAM_EVENT.address(), message -> {
+            JsonObject payload = ((JsonObject) message.body()).getJsonObject("payload");
+            if (payload == null
+                || !Objects.equals(payload.getInteger("type"), EventPayload.TYPE_FILE_STATUS)
+                || !(payload.getValue("data") instanceof JsonObject data)
+                || !FileRecord.DownloadStatus.completed.name().equals(data.getString("downloadStatus"))
+                || StrUtil.isBlank(data.getString("uniqueId"))) {
+                return;
+            }
+            String uniqueId = data.getString("uniqueId");
+            executor.execute(() -> index(uniqueId));
+        });
+        log.info("Content index verticle started! Mode: %s".formatted(Config.CONTENT_DEDUP));
+        startPromise.complete();
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+        log.info("Content index verticle stopped!");
+    }
+
+    private void index(String uniqueId) {
+        try {
+            FileRecord fileRecord = DataVerticle.fileRepository.getByUniqueId(uniqueId)
+                    .toCompletionStage().toCompletableFuture().join();
+            if (fileRecord == null
+                || Objects.equals(fileRecord.type(), "thumbnail")
+                || !fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)) {
+                return;
+            }
+            contentStore.index(fileRecord);
+        } catch (Exception e) {
+            log.error(e, "Index content of file %s error".formatted(uniqueId));
+        }
+    }
+}
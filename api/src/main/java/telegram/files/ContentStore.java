@@ -0,0 +1,222 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import telegram.files.repository.ContentRecord;
+import telegram.files.repository.ContentRepository;
+import telegram.files.repository.FileRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed index of the downloaded files, by hash and size.
+ * A file whose content is already stored on the same file system is kept as a hard link to the stored copy,
+ * both when it is downloaded and when it is transferred.
+ * <p>
+ * Blocking, called on the transfer and index workers, never on a vert.x context.
+ */
+public class ContentStore {
+    private static final Log log = LogFactory.get();
+
+    private static final int LOCK_STRIPES = 64;
+
+    public static final ContentStore INSTANCE = new ContentStore(() -> DataVerticle.contentRepository, Config.CONTENT_DEDUP,
+            Config.HASH_ALGORITHM);
+
+    public enum Mode {
+        /**
+         * Don't index the files
+         */
+        off,
+        /**
+         * Index the files and report the duplicate content, files are kept as they are
+         */
+        index,
+        /**
+         * Index the files and replace the copies of stored content by hard links
+         */
+        link,
+    }
+
+    private final Supplier<ContentRepository> repository;
+
+    private final Mode mode;
+
+    private final FileHasher.Algorithm algorithm;
+
+    // a file is indexed once, by whichever of the index and the transfer gets to it first
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public ContentStore(Supplier<ContentRepository> repository, Mode mode, FileHasher.Algorithm algorithm) {
+        this.repository = repository;
+        this.mode = mode;
+        this.algorithm = algorithm;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.off && repository.get() != null;
+    }
+
+    /**
+     * Index a downloaded file, linking it to an earlier copy of its content if there is one.
+     *
+     * @return the content of the file, null if it can't be indexed
+     */
+    public ContentRecord index(FileRecord fileRecord) {
+        if (!isEnabled() || StrUtil.isBlank(fileRecord.localPath())) {
+            return null;
+        }
+        ReentrantLock lock = lock(fileRecord.uniqueId());
+        lock.lock();
+        try {
+            return indexLocked(fileRecord);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ContentRecord indexLocked(FileRecord fileRecord) {
+        ContentRecord exist = MessyUtils.await(repository.get().getByUniqueId(fileRecord.uniqueId()));
+        if (exist != null) {
+            return exist;
+        }
+        File file = new File(fileRecord.localPath());
+        if (!file.isFile()) {
+            return null;
+        }
+        String hash;
+        try {
+            // prefixed, records hashed by another algorithm never match
+            hash = algorithm.name().toLowerCase() + ":" + FileHasher.INSTANCE.hash(file, algorithm);
+        } catch (IOException e) {
+            log.debug("Can't hash file %s: %s".formatted(fileRecord.uniqueId(), e.getMessage()));
+            return null;
+        }
+        ContentRecord record = new ContentRecord(fileRecord.uniqueId(), hash, file.length(), fileRecord.localPath(),
+                false, System.currentTimeMillis());
+        if (mode == Mode.link) {
+            for (ContentRecord copy : copies(record, file.toPath())) {
+                if (replaceWithLink(file.toPath(), Path.of(copy.path()))) {
+                    log.debug("File %s is linked to the copy of %s: %s".formatted(record.uniqueId(), copy.uniqueId(), copy.path()));
+                    record = record.withLinked(record.path());
+                    Metrics.DEDUP_SAVED_BYTES.labels("download").add(record.size());
+                    break;
+                }
+            }
+        }
+        MessyUtils.await(repository.get().createIfNotExist(record));
+        return record;
+    }
+
+    /**
+     * Create the transfer path as a hard link to a stored copy of the file's content, instead of copying the file.
+     * The file is indexed first if it isn't yet.
+     *
+     * @return true if the transfer path is linked, the source file is left to the caller
+     */
+    public boolean link(FileRecord fileRecord, Path target) {
+        if (!isEnabled() || StrUtil.isBlank(fileRecord.localPath())) {
+            return false;
+        }
+        ReentrantLock lock = lock(fileRecord.uniqueId());
+        lock.lock();
+        try {
+            ContentRecord record = indexLocked(fileRecord);
+            if (record == null || mode != Mode.link || Files.exists(target)) {
+                return false;
+            }
+            for (ContentRecord copy : copies(record, Path.of(fileRecord.localPath()))) {
+                try {
+                    Files.createDirectories(target.getParent());
+                    Files.createLink(target, Path.of(copy.path()));
+                } catch (IOException | UnsupportedOperationException e) {
+                    // e.g. another file system
+                    log.trace("Can't link %s to %s: %s".formatted(target, copy.path(), e.getMessage()));
+                    continue;
+                }
+                log.debug("Transfer of %s is linked to the copy of %s: %s".formatted(record.uniqueId(), copy.uniqueId(), copy.path()));
+                MessyUtils.await(repository.get().updatePath(record.uniqueId(), target.toString(), true));
+                Metrics.DEDUP_SAVED_BYTES.labels("transfer").add(record.size());
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Follow the file to its transfer path, so later copies are linked to it there.
+     */
+    public void moved(FileRecord fileRecord, String path) {
+        if (!isEnabled() || StrUtil.isBlank(path)) {
+            return;
+        }
+        ContentRecord record = MessyUtils.await(repository.get().getByUniqueId(fileRecord.uniqueId()));
+        if (record != null && !Objects.equals(record.path(), path)) {
+            MessyUtils.await(repository.get().updatePath(record.uniqueId(), path, record.linked()));
+        }
+    }
+
+    /**
+     * Other files with the same content as the source whose copy is still where it was stored.
+     */
+    private List<ContentRecord> copies(ContentRecord record, Path source) {
+        return MessyUtils.await(repository.get().getByHash(record.hash(), record.size())).stream()
+                .filter(copy -> !copy.uniqueId().equals(record.uniqueId()))
+                .filter(copy -> StrUtil.isNotBlank(copy.path()))
+                .filter(copy -> isSameContent(source, Path.of(copy.path()), record.size()))
+                .toList();
+    }
+
+    /**
+     * The copy may have changed since it was indexed, and a hash that isn't collision resistant only tells the content apart
+     */
+    private boolean isSameContent(Path path, Path copy, long size) {
+        File file = copy.toFile();
+        if (!file.isFile() || file.length() != size) {
+            return false;
+        }
+        try {
+            return algorithm.collisionResistant || FileHasher.INSTANCE.contentEquals(path, copy);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean replaceWithLink(Path path, Path existing) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".link");
+        try {
+            if (Files.isSameFile(path, existing)) {
+                return false;
+            }
+            Files.deleteIfExists(tmp);
+            Files.createLink(tmp, existing);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.trace("Can't link %s to %s: %s".formatted(path, existing, e.getMessage()));
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignore) {
+            }
+            return false;
+        }
+    }
+
+    private ReentrantLock lock(String uniqueId) {
+        return locks[Math.floorMod(uniqueId.hashCode(), LOCK_STRIPES)];
+    }
+}
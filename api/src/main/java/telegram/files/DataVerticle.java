@@ -17,6 +17,8 @@ import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.SqlConnectOptions;
 import org.jooq.lambda.tuple.Tuple;
 import telegram.files.repository.*;
+import telegram.files.repository.impl.ClassificationRepositoryImpl;
+import telegram.files.repository.impl.ContentRepositoryImpl;
 import telegram.files.repository.impl.FileRepositoryImpl;
 import telegram.files.repository.impl.SettingRepositoryImpl;
 import telegram.files.repository.impl.StatisticRepositoryImpl;
@@ -39,6 +41,10 @@ public class DataVerticle extends AbstractVerticle {
 
     public static StatisticRepository statisticRepository;
 
+    public static ContentRepository contentRepository;
+
+    public static ClassificationRepository classificationRepository;
+
     private static SqlConnectOptions sqlConnectOptions;
 
     public static final List<Definition> definitions;
@@ -58,7 +64,10 @@ public class DataVerticle extends AbstractVerticle {
                 new SettingRecord.SettingRecordDefinition(),
                 new TelegramRecord.TelegramRecordDefinition(),
                 new FileRecord.FileRecordDefinition(),
-                new StatisticRecord.StatisticRecordDefinition()
+                new FileTagRecord.FileTagRecordDefinition(),
+                new StatisticRecord.StatisticRecordDefinition(),
+                new ContentRecord.ContentRecordDefinition(),
+                new ClassificationRecord.ClassificationRecordDefinition()
         );
     }
 
@@ -66,8 +75,10 @@ public class DataVerticle extends AbstractVerticle {
         pool = buildSqlClient();
         settingRepository = new SettingRepositoryImpl(pool);
         telegramRepository = new TelegramRepositoryImpl(pool);
-        fileRepository = new FileRepositoryImpl(pool);
+        fileRepository = Metrics.timed(FileRepository.class, new FileRepositoryImpl(pool), Metrics.FILE_REPOSITORY);
         statisticRepository = new StatisticRepositoryImpl(pool);
+        contentRepository = new ContentRepositoryImpl(pool);
+        classificationRepository = new ClassificationRepositoryImpl(pool);
         isCompletelyNewInitialization()
                 .compose(isNew -> Future.all(definitions.stream().map(d -> d.createTable(pool)).toList()).map(isNew))
                 .compose(isNew -> settingRepository.<Version>getByKey(SettingKey.version).map(version -> Tuple.tuple(isNew, version)))
@@ -77,6 +88,7 @@ public class DataVerticle extends AbstractVerticle {
                     Version version = tuple.v2 == null ? new Version("0.0.0") : tuple.v2;
                     return Future.all(definitions.stream().map(d -> d.migrate(pool, version, new Version(Start.VERSION))).toList());
                 })
+                .compose(r -> Future.all(definitions.stream().map(d -> d.createIndexes(pool)).toList()))
                 .compose(r ->
                         settingRepository.createOrUpdate(SettingKey.version.name(), Start.VERSION))
                 .onSuccess(r -> {
@@ -0,0 +1,228 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.*;
+import java.util.function.LongToIntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Waiting messages of the auto download of one telegram account.
+ * Messages are queued per chat and the chats are served by deficit round-robin, a chat gets as many messages
+ * per round as its weight. Live messages are always served before historical ones,
+ * so the history backlog of one chat can't hold back new messages of the other chats.
+ */
+public class DownloadQueue {
+
+    private final int capacity;
+
+    private final LongToIntFunction weights;
+
+    private final Ring live = new Ring();
+
+    private final Ring history = new Ring();
+
+    private long dropped;
+
+    /**
+     * @param capacity max queued messages, live and historical together
+     * @param weights  chatId -> weight, values below 1 count as 1
+     */
+    public DownloadQueue(int capacity, LongToIntFunction weights) {
+        this.capacity = capacity;
+        this.weights = weights;
+    }
+
+    /**
+     * Add a live message, the oldest historical message of the longest history queue makes room if the queue is full.
+     *
+     * @return false if the queue is full of live messages
+     */
+    public synchronized boolean addLive(TdApi.Message message) {
+        if (size() >= capacity) {
+            if (history.isEmpty()) {
+                dropped++;
+                return false;
+            }
+            history.pollLongest();
+            dropped++;
+        }
+        live.add(message);
+        return true;
+    }
+
+    /**
+     * Add historical messages as long as there is room for them.
+     *
+     * @return the number of added messages
+     */
+    public synchronized int addHistorical(List<TdApi.Message> messages) {
+        int count = Math.min(messages.size(), capacity - size());
+        for (int i = 0; i < count; i++) {
+            history.add(messages.get(i));
+        }
+        return Math.max(0, count);
+    }
+
+    public synchronized TdApi.Message poll() {
+        TdApi.Message message = live.poll(weights);
+        return message != null ? message : history.poll(weights);
+    }
+
+    /**
+     * Poll the first message in service order that is admissible, the skipped messages keep their place.
+     */
+    public synchronized TdApi.Message poll(Predicate<TdApi.Message> admissible) {
+        TdApi.Message message = live.poll(weights, admissible);
+        return message != null ? message : history.poll(weights, admissible);
+    }
+
+    public synchronized void removeChat(long chatId) {
+        live.remove(chatId);
+        history.remove(chatId);
+    }
+
+    public synchronized int size() {
+        return live.size + history.size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized int historicalSize(long chatId) {
+        return history.size(chatId);
+    }
+
+    public synchronized int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    /**
+     * @return queue depths per chat
+     */
+    public synchronized JsonObject getStats() {
+        Set<Long> chatIds = new TreeSet<>(live.queues.keySet());
+        chatIds.addAll(history.queues.keySet());
+        JsonArray chats = new JsonArray();
+        for (long chatId : chatIds) {
+            chats.add(JsonObject.of()
+                    .put("chatId", Long.toString(chatId))
+                    .put("weight", weight(weights, chatId))
+                    .put("live", live.size(chatId))
+                    .put("historical", history.size(chatId)));
+        }
+        return JsonObject.of()
+                .put("size", size())
+                .put("capacity", capacity)
+                .put("dropped", dropped)
+                .put("chats", chats);
+    }
+
+    private static int weight(LongToIntFunction weights, long chatId) {
+        return Math.max(1, weights.applyAsInt(chatId));
+    }
+
+    /**
+     * Per chat queues with the chats in service order, the head chat is served until its deficit is used up.
+     */
+    private static class Ring {
+        final Map<Long, ArrayDeque<TdApi.Message>> queues = new HashMap<>();
+
+        final ArrayDeque<Long> order = new ArrayDeque<>();
+
+        final Map<Long, Integer> deficits = new HashMap<>();
+
+        int size;
+
+        void add(TdApi.Message message) {
+            queues.computeIfAbsent(message.chatId, chatId -> {
+                order.addLast(chatId);
+                return new ArrayDeque<>();
+            }).addLast(message);
+            size++;
+        }
+
+        TdApi.Message poll(LongToIntFunction weights) {
+            Long chatId = order.peekFirst();
+            if (chatId == null) {
+                return null;
+            }
+            ArrayDeque<TdApi.Message> queue = queues.get(chatId);
+            int deficit = deficits.getOrDefault(chatId, 0);
+            if (deficit <= 0) {
+                deficit = weight(weights, chatId);
+            }
+            TdApi.Message message = queue.pollFirst();
+            size--;
+            deficit--;
+            if (queue.isEmpty()) {
+                remove(chatId);
+            } else if (deficit == 0) {
+                deficits.remove(chatId);
+                order.addLast(order.pollFirst());
+            } else {
+                deficits.put(chatId, deficit);
+            }
+            return message;
+        }
+
+        TdApi.Message poll(LongToIntFunction weights, Predicate<TdApi.Message> admissible) {
+            for (Long chatId : order) {
+                ArrayDeque<TdApi.Message> queue = queues.get(chatId);
+                Iterator<TdApi.Message> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    TdApi.Message message = iterator.next();
+                    if (!admissible.test(message)) {
+                        continue;
+                    }
+                    if (chatId.equals(order.peekFirst()) && message == queue.peekFirst()) {
+                        // the head message, served as usual
+                        return poll(weights);
+                    }
+                    iterator.remove();
+                    size--;
+                    if (queue.isEmpty()) {
+                        remove(chatId);
+                    }
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        void pollLongest() {
+            queues.entrySet().stream()
+                    .max(Comparator.comparingInt(e -> e.getValue().size()))
+                    .map(Map.Entry::getKey)
+                    .ifPresent(chatId -> {
+                        ArrayDeque<TdApi.Message> queue = queues.get(chatId);
+                        queue.pollFirst();
+                        size--;
+                        if (queue.isEmpty()) {
+                            remove(chatId);
+                        }
+                    });
+        }
+
+        void remove(long chatId) {
+            ArrayDeque<TdApi.Message> queue = queues.remove(chatId);
+            if (queue != null) {
+                size -= queue.size();
+                order.remove(chatId);
+                deficits.remove(chatId);
+            }
+        }
+
+        int size(long chatId) {
+            ArrayDeque<TdApi.Message> queue = queues.get(chatId);
+            return queue == null ? 0 : queue.size();
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.SettingDownloadAllocation;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Download slots of the auto download of one telegram account.
+ * A slot is taken when a download is started and released as soon as TDLib reports the download inactive,
+ * so the freed slot can be filled without waiting for the next download tick.
+ */
+public class DownloadSlots {
+
+    private static final int MAX_SAMPLES = 120;
+
+    // fileId -> slot
+    private final Map<Integer, Slot> slots = new HashMap<>();
+
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+
+    private long acquired;
+
+    private long released;
+
+    private long pruned;
+
+    private static class Slot {
+        final long startTime;
+
+        final long size;
+
+        boolean active;
+
+        Slot(long startTime, long size) {
+            this.startTime = startTime;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @param used  slots in use at the time
+     * @param limit slot limit at the time
+     */
+    record Sample(long timestamp, int used, int limit) {
+    }
+
+    public synchronized boolean acquire(int fileId) {
+        return acquire(fileId, 0);
+    }
+
+    /**
+     * @param size file size, counted in the bytes in flight
+     */
+    public synchronized boolean acquire(int fileId, long size) {
+        if (slots.containsKey(fileId)) {
+            return false;
+        }
+        slots.put(fileId, new Slot(System.currentTimeMillis(), size));
+        acquired++;
+        return true;
+    }
+
+    public synchronized void release(int fileId) {
+        if (slots.remove(fileId) != null) {
+            released++;
+        }
+    }
+
+    /**
+     * Track the download state of a file reported by TDLib.
+     * A slot is only released after its download has been active or has completed,
+     * updates of the file that arrive before the download starts don't free it.
+     *
+     * @return true if the slot of the file was released
+     */
+    public synchronized boolean onFileUpdated(int fileId, boolean active, boolean completed) {
+        Slot slot = slots.get(fileId);
+        if (slot == null) {
+            return false;
+        }
+        if (active && !completed) {
+            slot.active = true;
+            return false;
+        }
+        if (slot.active || completed) {
+            slots.remove(fileId);
+            released++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Release the slots whose download never became active within the grace period, e.g. the request got lost.
+     *
+     * @return the number of released slots
+     */
+    public synchronized int prune(long graceMillis) {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        int before = slots.size();
+        slots.values().removeIf(slot -> !slot.active && slot.startTime < cutoff);
+        int count = before - slots.size();
+        pruned += count;
+        return count;
+    }
+
+    public synchronized int used() {
+        return slots.size();
+    }
+
+    /**
+     * Free slots under the limit, the downloads running outside the slots count against it as well,
+     * e.g. the ones started by hand or resumed by TDLib after a restart.
+     *
+     * @param downloading files TDLib reports downloading
+     */
+    public synchronized int surplus(int limit, Collection<Integer> downloading) {
+        long outside = downloading.stream().filter(fileId -> !slots.containsKey(fileId)).count();
+        return (int) Math.max(0, limit - slots.size() - outside);
+    }
+
+    public synchronized long bytesInFlight() {
+        return slots.values().stream().mapToLong(slot -> slot.size).sum();
+    }
+
+    /**
+     * Whether a file of the size can take a slot now.
+     * By count any free slot will do. By size a large file also needs a slot outside the ones reserved for small files
+     * and room in the bytes budget, unless no other large file is in flight.
+     */
+    public synchronized boolean canAcquire(long size, int limit, SettingDownloadAllocation allocation) {
+        if (slots.size() >= limit) {
+            return false;
+        }
+        if (allocation == null || !allocation.isSizeMode() || size <= allocation.smallFileSize) {
+            return true;
+        }
+        int large = 0;
+        long bytes = 0;
+        for (Slot slot : slots.values()) {
+            if (slot.size > allocation.smallFileSize) {
+                large++;
+            }
+            bytes += slot.size;
+        }
+        if (large >= limit - allocation.reservedSlots(limit)) {
+            return false;
+        }
+        return allocation.maxBytesInFlight <= 0 || large == 0 || bytes + size <= allocation.maxBytesInFlight;
+    }
+
+    public synchronized void sample(int limit, long timestamp) {
+        if (samples.size() >= MAX_SAMPLES) {
+            samples.pollFirst();
+        }
+        samples.addLast(new Sample(timestamp, slots.size(), limit));
+    }
+
+    /**
+     * @return average share of the slots in use over the sampled period, between 0 and 1
+     */
+    public synchronized double getUtilization() {
+        long used = 0;
+        long limit = 0;
+        for (Sample sample : samples) {
+            used += Math.min(sample.used(), sample.limit());
+            limit += sample.limit();
+        }
+        return limit == 0 ? 0 : (double) used / limit;
+    }
+
+    public synchronized JsonObject getStats() {
+        JsonArray sampleArray = new JsonArray();
+        samples.forEach(sample -> sampleArray.add(JsonObject.of()
+                .put("timestamp", sample.timestamp())
+                .put("used", sample.used())
+                .put("limit", sample.limit())));
+        return JsonObject.of()
+                .put("used", slots.size())
+                .put("bytesInFlight", bytesInFlight())
+                .put("utilization", getUtilization())
+                .put("acquired", acquired)
+                .put("released", released)
+                .put("pruned", pruned)
+                .put("samples", sampleArray);
+    }
+}
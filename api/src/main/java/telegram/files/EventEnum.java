@@ -24,6 +24,30 @@ public enum EventEnum {
      */
     MESSAGE_RECEIVED,
 
+    /**
+     * suffix = null <br>
+     * body = telegramId, published when an auto download slot of the account is released
+     *
+     * @see telegram.files.DownloadSlots
+     */
+    DOWNLOAD_SLOT_RELEASED,
+
+    /**
+     * suffix = null <br>
+     * body = telegramId, replied with the queue depths of the auto download of the account
+     *
+     * @see telegram.files.DownloadQueue#getStats()
+     */
+    AUTO_DOWNLOAD_QUEUE,
+
+    /**
+     * suffix = null <br>
+     * body = null, replied with the transfer workers and the progress of every automation
+     *
+     * @see telegram.files.TransferWorkers#getStats()
+     */
+    TRANSFER_STATISTICS,
+
     /**
      * suffix = null <br>
      * body = JSONObject with "telegramId", "payload"
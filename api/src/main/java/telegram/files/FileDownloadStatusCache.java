@@ -0,0 +1,269 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind cache of file download status for one telegram account.
+ * <p>
+ * TDLib emits an {@link TdApi.UpdateFile} for every progress tick, but only a few of them change the stored record.
+ * Updates matching the last known state are absorbed in memory, the others are kept as pending (latest wins)
+ * and written by {@link #flush()} in one transaction.
+ */
+public class FileDownloadStatusCache {
+
+    private static final Log log = LogFactory.get();
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final long FLUSH_INTERVAL = 500;
+
+    /**
+     * Files without record are remembered only shortly, a record may be created right after.
+     */
+    private static final long ABSENT_TTL = 3000;
+
+    private final String rootId;
+
+    private final FileRepository fileRepository;
+
+    private final BiConsumer<TdApi.File, JsonObject> onUpdated;
+
+    // uniqueId -> last known state, in access order
+    private final LinkedHashMap<String, Entry> entries;
+
+    // uniqueId -> waiting for flush
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private boolean flushing = false;
+
+    private long absorbed;
+
+    private long coalesced;
+
+    private long flushedRows;
+
+    private long savedRoundTrips;
+
+    public FileDownloadStatusCache(String rootId,
+                                   FileRepository fileRepository,
+                                   BiConsumer<TdApi.File, JsonObject> onUpdated) {
+        this(rootId, fileRepository, onUpdated, DEFAULT_CAPACITY);
+    }
+
+    public FileDownloadStatusCache(String rootId,
+                                   FileRepository fileRepository,
+                                   BiConsumer<TdApi.File, JsonObject> onUpdated,
+                                   int capacity) {
+        this.rootId = rootId;
+        this.fileRepository = fileRepository;
+        this.onUpdated = onUpdated;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return true if the update is absorbed by the cache, false if it is waiting for flush
+     */
+    public synchronized boolean offer(TdApi.File file) {
+        String uniqueId = file.remote.uniqueId;
+        FileRecord.DownloadStatus downloadStatus = Objects.requireNonNullElse(TdApiHelp.getDownloadStatus(file),
+                FileRecord.DownloadStatus.idle);
+        String localPath = null;
+        Long completionDate = null;
+        if (file.local != null && file.local.isDownloadingCompleted) {
+            localPath = file.local.path;
+            completionDate = System.currentTimeMillis();
+        }
+
+        Entry entry = entries.get(uniqueId);
+        if (entry != null && !pending.containsKey(uniqueId) && entry.matches(downloadStatus, localPath)) {
+            absorbed++;
+            // one select in onFileUpdated, plus one more in updateDownloadStatus if the record exists
+            savedRoundTrips += entry.isAbsent() || entry.frozen() ? 1 : 2;
+            return true;
+        }
+
+        Pending previous = pending.put(uniqueId, new Pending(file, downloadStatus, localPath, completionDate, previousTicks(uniqueId)));
+        if (previous != null) {
+            coalesced++;
+        }
+        return false;
+    }
+
+    /**
+     * @return chat of the file's record, 0 if the record hasn't been read yet or doesn't exist
+     */
+    public synchronized long getChatId(String uniqueId) {
+        Entry entry = entries.get(uniqueId);
+        return entry == null ? 0 : entry.chatId();
+    }
+
+    public synchronized void invalidate(String uniqueId) {
+        if (uniqueId != null) {
+            entries.remove(uniqueId);
+        }
+    }
+
+    public Future<Void> flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            if (flushing || pending.isEmpty()) {
+                return Future.succeededFuture();
+            }
+            flushing = true;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        Map<String, JsonObject> results = new LinkedHashMap<>();
+        return fileRepository.getFilesByUniqueId(batch.stream().map(Pending::uniqueId).toList())
+                .compose(records -> {
+                    List<FileRepository.DownloadStatusUpdate> updates = new ArrayList<>();
+                    synchronized (this) {
+                        for (Pending p : batch) {
+                            FileRecord record = records.get(p.uniqueId());
+                            Entry entry = reconcile(p, record, updates, results);
+                            if (!pending.containsKey(p.uniqueId())) {
+                                entries.put(p.uniqueId(), entry);
+                            }
+                        }
+                        // The old path cost one select per tick, plus select and update per known record
+                        long oldRoundTrips = batch.stream()
+                                .mapToLong(p -> p.ticks() + (records.containsKey(p.uniqueId()) ? p.ticks() : 0))
+                                .sum() + updates.size();
+                        savedRoundTrips += oldRoundTrips - (updates.isEmpty() ? 1 : 2);
+                    }
+                    return fileRepository.batchUpdateDownloadStatus(updates);
+                })
+                .onSuccess(count -> {
+                    synchronized (this) {
+                        flushedRows += count;
+                    }
+                    Map<String, TdApi.File> files = new HashMap<>();
+                    batch.forEach(p -> files.put(p.uniqueId(), p.file()));
+                    results.forEach((uniqueId, result) -> onUpdated.accept(files.get(uniqueId), result));
+                    log.trace("[%s] Flush file download status, batch: %d updated: %d".formatted(rootId, batch.size(), count));
+                })
+                .onFailure(err -> {
+                    log.error("[%s] Flush file download status failed: %s".formatted(rootId, err.getMessage()));
+                    synchronized (this) {
+                        // keep the failed updates for the next flush unless a newer one has arrived
+                        batch.forEach(p -> {
+                            entries.remove(p.uniqueId());
+                            pending.putIfAbsent(p.uniqueId(), p);
+                        });
+                    }
+                })
+                .eventually(() -> {
+                    synchronized (this) {
+                        flushing = false;
+                    }
+                    return Future.succeededFuture();
+                })
+                .mapEmpty();
+    }
+
+    public synchronized JsonObject getStats() {
+        return JsonObject.of()
+                .put("size", entries.size())
+                .put("pending", pending.size())
+                .put("absorbed", absorbed)
+                .put("coalesced", coalesced)
+                .put("flushedRows", flushedRows)
+                .put("savedRoundTrips", savedRoundTrips);
+    }
+
+    private int previousTicks(String uniqueId) {
+        Pending previous = pending.get(uniqueId);
+        return previous == null ? 1 : previous.ticks() + 1;
+    }
+
+    private Entry reconcile(Pending p,
+                            FileRecord record,
+                            List<FileRepository.DownloadStatusUpdate> updates,
+                            Map<String, JsonObject> results) {
+        if (record == null) {
+            return Entry.absent();
+        }
+        if (record.isDownloadStatus(FileRecord.DownloadStatus.completed)
+            && record.isTransferStatus(FileRecord.TransferStatus.completed)
+            && FileUtil.exist(record.localPath())) {
+            // The file is moved away by transfer, ignore what TDLib reports about its cache copy
+            return Entry.transferred(record.chatId());
+        }
+
+        boolean pathUpdated = !Objects.equals(record.localPath(), p.localPath());
+        boolean downloadStatusUpdated = !record.isDownloadStatus(p.downloadStatus());
+        if (pathUpdated || downloadStatusUpdated) {
+            updates.add(new FileRepository.DownloadStatusUpdate(p.file().id,
+                    p.uniqueId(),
+                    record.chatId(),
+                    p.localPath(),
+                    p.downloadStatus(),
+                    p.completionDate()));
+            JsonObject result = JsonObject.of();
+            if (pathUpdated) {
+                result.put("localPath", p.localPath());
+                result.put("completionDate", p.completionDate());
+            }
+            if (downloadStatusUpdated) {
+                result.put("downloadStatus", p.downloadStatus().name());
+            }
+            results.put(p.uniqueId(), result);
+        }
+        return new Entry(p.downloadStatus(), p.localPath(), record.chatId(), 0, false);
+    }
+
+    private record Pending(TdApi.File file,
+                           FileRecord.DownloadStatus downloadStatus,
+                           String localPath,
+                           Long completionDate,
+                           int ticks) {
+        String uniqueId() {
+            return file.remote.uniqueId;
+        }
+    }
+
+    private record Entry(FileRecord.DownloadStatus downloadStatus,
+                         String localPath,
+                         long chatId,
+                         long absentSince,
+                         boolean frozen) {
+
+        static Entry absent() {
+            return new Entry(null, null, 0, System.currentTimeMillis(), false);
+        }
+
+        static Entry transferred(long chatId) {
+            return new Entry(null, null, chatId, 0, true);
+        }
+
+        boolean isAbsent() {
+            return absentSince > 0;
+        }
+
+        boolean matches(FileRecord.DownloadStatus downloadStatus, String localPath) {
+            if (frozen) {
+                return true;
+            }
+            if (isAbsent()) {
+                return System.currentTimeMillis() - absentSince < ABSENT_TTL;
+            }
+            return this.downloadStatus == downloadStatus && Objects.equals(this.localPath, localPath);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashing of local files by chunked reads into direct buffers, so files of any size are hashed in constant memory.
+ * Hashes are cached by path, size and modification time, a file that didn't change is not read again.
+ * <p>
+ * Two files are only hashed to compare them after their sizes and sampled blocks are equal.
+ * Hashes that aren't collision resistant are confirmed by comparing the bytes before the files are taken as equal.
+ */
+public class FileHasher {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final int MAX_CACHED = 10_000;
+
+    public static final FileHasher INSTANCE = new FileHasher(MAX_CACHED);
+
+    public enum Algorithm {
+        MD5(false),
+        SHA256(true),
+        /**
+         * Non-cryptographic, many times faster than MD5
+         */
+        XXH64(false),
+        ;
+
+        public final boolean collisionResistant;
+
+        Algorithm(boolean collisionResistant) {
+            this.collisionResistant = collisionResistant;
+        }
+    }
+
+    private record CacheKey(String path, long size, long modified, Algorithm algorithm) {
+    }
+
+    private final int maxCached;
+
+    private final Map<CacheKey, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder bytesHashed = new LongAdder();
+
+    private final LongAdder sampleRejects = new LongAdder();
+
+    public FileHasher(int maxCached) {
+        this.maxCached = maxCached;
+    }
+
+    /**
+     * @return lowercase hex of the hash
+     * @throws IOException if the file can't be read
+     */
+    public String hash(File file, Algorithm algorithm) throws IOException {
+        // modified time before the size, a write in between makes the key stale rather than wrong
+        long modified = Files.getLastModifiedTime(file.toPath()).toMillis();
+        long size = Files.size(file.toPath());
+        CacheKey key = new CacheKey(file.getAbsolutePath(), size, modified, algorithm);
+        synchronized (cache) {
+            String hash = cache.get(key);
+            if (hash != null) {
+                hits.increment();
+                return hash;
+            }
+        }
+        misses.increment();
+        String hash = compute(file.toPath(), algorithm);
+        synchronized (cache) {
+            cache.put(key, hash);
+            if (cache.size() > maxCached) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Whether the files have the same content: sizes first, then sampled blocks, then the hashes of the whole files.
+     *
+     * @return false if either file can't be read
+     */
+    public boolean isSameContent(File file1, File file2, Algorithm algorithm) {
+        try {
+            if (!file1.isFile() || !file2.isFile()) {
+                return false;
+            }
+            if (Files.isSameFile(file1.toPath(), file2.toPath())) {
+                return true;
+            }
+            long size = file1.length();
+            if (size != file2.length()) {
+                return false;
+            }
+            if (!isSameSamples(file1.toPath(), file2.toPath(), size)) {
+                sampleRejects.increment();
+                return false;
+            }
+            if (size <= 3L * SAMPLE_SIZE) {
+                // the samples covered the whole file
+                return true;
+            }
+            if (!hash(file1, algorithm).equals(hash(file2, algorithm))) {
+                return false;
+            }
+            return algorithm.collisionResistant || contentEquals(file1.toPath(), file2.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compare the first, middle and last block of the files of the same size.
+     */
+    private boolean isSameSamples(Path path1, Path path2, long size) throws IOException {
+        try (FileChannel channel1 = FileChannel.open(path1, StandardOpenOption.READ);
+             FileChannel channel2 = FileChannel.open(path2, StandardOpenOption.READ)) {
+            ByteBuffer buffer1 = ByteBuffer.allocate(SAMPLE_SIZE);
+            ByteBuffer buffer2 = ByteBuffer.allocate(SAMPLE_SIZE);
+            for (long offset : new long[]{0, Math.max(0, size / 2 - SAMPLE_SIZE / 2), Math.max(0, size - SAMPLE_SIZE)}) {
+                buffer1.clear();
+                buffer2.clear();
+                readFully(channel1, buffer1, offset);
+                readFully(channel2, buffer2, offset);
+                if (!buffer1.flip().equals(buffer2.flip())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Compare the files byte by byte.
+     */
+    public boolean contentEquals(Path path1, Path path2) throws IOException {
+        if (Files.size(path1) != Files.size(path2)) {
+            return false;
+        }
+        ByteBuffer buffer1 = takeBuffer();
+        ByteBuffer buffer2 = takeBuffer();
+        try (FileChannel channel1 = FileChannel.open(path1, StandardOpenOption.READ);
+             FileChannel channel2 = FileChannel.open(path2, StandardOpenOption.READ)) {
+            long position = 0;
+            while (true) {
+                buffer1.clear();
+                buffer2.clear();
+                int read = readFully(channel1, buffer1, position);
+                readFully(channel2, buffer2, position);
+                if (read <= 0) {
+                    return buffer2.position() == 0;
+                }
+                if (!buffer1.flip().equals(buffer2.flip())) {
+                    return false;
+                }
+                position += read;
+            }
+        } finally {
+            releaseBuffer(buffer1);
+            releaseBuffer(buffer2);
+        }
+    }
+
+    private String compute(Path path, Algorithm algorithm) throws IOException {
+        ByteBuffer buffer = takeBuffer();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return switch (algorithm) {
+                case XXH64 -> {
+                    XXHash64 xxHash64 = new XXHash64();
+                    while (read(channel, buffer) > 0) {
+                        xxHash64.update(buffer);
+                    }
+                    yield "%016x".formatted(xxHash64.digest());
+                }
+                case MD5, SHA256 -> {
+                    MessageDigest digest = messageDigest(algorithm);
+                    while (read(channel, buffer) > 0) {
+                        digest.update(buffer);
+                    }
+                    yield HexFormat.of().formatHex(digest.digest());
+                }
+            };
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private int read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        buffer.flip();
+        if (read > 0) {
+            bytesHashed.add(read);
+        }
+        return read;
+    }
+
+    /**
+     * Read from the offset until the buffer is full or the file ends.
+     *
+     * @return bytes read
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static MessageDigest messageDigest(Algorithm algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm == Algorithm.SHA256 ? "SHA-256" : "MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    public JsonObject getStats() {
+        int cached;
+        synchronized (cache) {
+            cached = cache.size();
+        }
+        return JsonObject.of()
+                .put("cached", cached)
+                .put("hits", hits.sum())
+                .put("misses", misses.sum())
+                .put("bytesHashed", bytesHashed.sum())
+                .put("sampleRejects", sampleRejects.sum());
+    }
+}
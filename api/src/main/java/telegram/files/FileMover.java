@@ -0,0 +1,167 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Objects;
+
+/**
+ * Moves files to their transfer path. A move on the same file system is an atomic rename,
+ * a move to another file system, e.g. a NAS mount, is a zero-copy of the file into a part file next to the target,
+ * renamed to the target once complete, so the target never holds a partial file.
+ * <p>
+ * The offset of a copy is saved in a state file next to the part file whenever the copied bytes are synced,
+ * a copy interrupted by a crash or a restart resumes from there the next time the file is moved to the same target.
+ * <p>
+ * Blocking, called on the transfer workers.
+ */
+public class FileMover {
+    private static final Log log = LogFactory.get();
+
+    static final String PART_SUFFIX = ".part";
+
+    static final String STATE_SUFFIX = ".part.json";
+
+    // bytes per transferTo call, small enough to report progress
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+
+    // bytes copied between two syncs of the part file and its offset
+    private static final long CHECKPOINT_SIZE = 64L * 1024 * 1024;
+
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    public static final FileMover INSTANCE = new FileMover(Config.TRANSFER_VERIFY);
+
+    public interface Progress {
+        void update(long transferredSize, long totalSize);
+    }
+
+    /**
+     * @param renamed whether the file was renamed, false if it was copied to another file system
+     * @param resumed bytes of the copy resumed from an interrupted one
+     */
+    public record Result(boolean renamed, long resumed) {
+    }
+
+    private final boolean verify;
+
+    /**
+     * @param verify compare the copy with the source byte by byte before it replaces the target
+     */
+    public FileMover(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * @param progress called with the copied bytes at most once a second and when the copy completes, may be null
+     * @throws FileAlreadyExistsException if the target exists and is not to be overwritten
+     */
+    public Result move(Path source, Path target, boolean overwrite, Progress progress) throws IOException {
+        if (!overwrite && Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(true, 0);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.trace("Copy %s to another file system: %s".formatted(source, target));
+        }
+
+        long resumed = copy(source, target, progress);
+        Files.delete(source);
+        return new Result(false, resumed);
+    }
+
+    /**
+     * Copy the source to the target through the part file, the source is left to the caller.
+     *
+     * @return bytes resumed from an interrupted copy
+     */
+    long copy(Path source, Path target, Progress progress) throws IOException {
+        Path part = sibling(target, PART_SUFFIX);
+        Path state = sibling(target, STATE_SUFFIX);
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        JsonObject sourceState = JsonObject.of("source", source.toAbsolutePath().toString(), "size", size, "modified", modified);
+
+        long offset = resumeOffset(sourceState, part, state);
+        if (offset > 0) {
+            log.debug("Resume copy of %s to %s from %d bytes".formatted(source, target, offset));
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // bytes after the last checkpoint may not have been synced
+            out.truncate(offset);
+            long position = offset;
+            long checkpoint = offset;
+            long reported = System.currentTimeMillis();
+            while (position < size) {
+                out.position(position);
+                long transferred = in.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+                if (transferred <= 0) {
+                    throw new IOException("Source %s changed during the copy".formatted(source));
+                }
+                position += transferred;
+                if (position - checkpoint >= CHECKPOINT_SIZE) {
+                    out.force(false);
+                    saveState(state, sourceState.copy().put("offset", position));
+                    checkpoint = position;
+                }
+                if (progress != null && System.currentTimeMillis() - reported >= PROGRESS_INTERVAL) {
+                    progress.update(position, size);
+                    reported = System.currentTimeMillis();
+                }
+            }
+            out.force(true);
+        }
+        if (Files.size(part) != size || (verify && !FileHasher.INSTANCE.contentEquals(source, part))) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(state);
+            throw new IOException("Copy of %s to %s doesn't match the source".formatted(source, target));
+        }
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(state);
+        if (progress != null) {
+            progress.update(size, size);
+        }
+        return offset;
+    }
+
+    /**
+     * The saved offset if the part file is the copy of the same source, otherwise the copy starts over.
+     */
+    private static long resumeOffset(JsonObject sourceState, Path part, Path state) throws IOException {
+        if (Files.exists(part) && Files.exists(state)) {
+            try {
+                JsonObject saved = new JsonObject(Files.readString(state));
+                long offset = saved.getLong("offset", 0L);
+                if (Objects.equals(saved.getString("source"), sourceState.getString("source"))
+                    && Objects.equals(saved.getLong("size"), sourceState.getLong("size"))
+                    && Objects.equals(saved.getLong("modified"), sourceState.getLong("modified"))
+                    && offset <= Files.size(part)) {
+                    return offset;
+                }
+            } catch (RuntimeException e) {
+                log.debug("Invalid copy state %s: %s".formatted(state, e.getMessage()));
+            }
+        }
+        Files.deleteIfExists(state);
+        return 0;
+    }
+
+    private static void saveState(Path state, JsonObject value) throws IOException {
+        Path tmp = sibling(state, ".tmp");
+        Files.writeString(tmp, value.encode());
+        Files.move(tmp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path sibling(Path path, String suffix) {
+        String name = path.getFileName().toString();
+        return path.resolveSibling((name.startsWith(".") ? "" : ".") + name + suffix);
+    }
+}
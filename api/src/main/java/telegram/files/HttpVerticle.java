@@ -16,6 +16,7 @@ import io.vertx.core.http.CookieSameSite;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -30,6 +31,7 @@ import io.vertx.ext.web.sstore.LocalSessionStore;
 import io.vertx.ext.web.sstore.SessionStore;
 import org.drinkless.tdlib.TdApi;
 import org.jooq.lambda.function.Function2;
+import telegram.files.repository.FileRepository;
 import telegram.files.repository.SettingAutoRecords;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.SettingRecord;
@@ -43,25 +45,30 @@ public class HttpVerticle extends AbstractVerticle {
 
     private static final Log log = LogFactory.get();
 
-    // session id -> ws handler id
-    private static final Map<String, String> clients = new ConcurrentHashMap<>();
-
     // session id -> telegram verticle
     private final Map<String, TelegramVerticle> sessionTelegramVerticles = new ConcurrentHashMap<>();
 
     private final List<String> unboundClients = new ArrayList<>();
 
+    private final WebSocketPush webSocketPush = new WebSocketPush();
+
+    private final WebSocketSubscriptions webSocketSubscriptions = new WebSocketSubscriptions();
+
     private final FileRouteHandler fileRouteHandler = new FileRouteHandler();
 
     private static final String SESSION_COOKIE_NAME = "tf";
 
+    private static final int EXPORT_PAGE_SIZE = 500;
+
     @Override
     public void start(Promise<Void> startPromise) {
         initHttpServer()
+                .compose(_ -> BandwidthGovernor.init(vertx))
                 .compose(_ -> initTelegramVerticles())
                 .compose(_ -> AutomationsHolder.INSTANCE.init())
                 .compose(_ -> initAutoDownloadVerticle())
                 .compose(_ -> initTransferVerticle())
+                .compose(_ -> initContentIndexVerticle())
                 .compose(_ -> initPreloadMessageVerticle())
                 .compose(_ -> initEventConsumer())
                 .onSuccess(startPromise::complete)
@@ -137,6 +144,9 @@ public class HttpVerticle extends AbstractVerticle {
         router.get("/").handler(ctx -> ctx.response().end("Hello World!"));
         router.get("/health").handler(HealthCheckHandler.createWithHealthChecks(hc));
         router.get("/version").handler(ctx -> ctx.json(new JsonObject().put("version", Start.VERSION)));
+        router.get("/metrics").handler(ctx -> ctx.response()
+                .putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+                .end(Metrics.scrape()));
         router.route("/ws").handler(this::handleWebSocket);
 
         router.get("/settings").handler(this::handleSettings);
@@ -152,6 +162,7 @@ public class HttpVerticle extends AbstractVerticle {
         router.get("/telegram/:telegramId/chat/:chatId/files").handler(this::handleTelegramFiles);
         router.get("/telegram/:telegramId/chat/:chatId/files/count").handler(this::handleTelegramFilesCount);
         router.get("/telegram/:telegramId/download-statistics").handler(this::handleTelegramDownloadStatistics);
+        router.get("/telegram/:telegramId/download-queue").handler(this::handleTelegramDownloadQueue);
         router.post("/telegrams/change").handler(this::handleTelegramChange);
         router.post("/telegram/:telegramId/toggle-proxy").handler(this::handleTelegramToggleProxy);
         router.get("/telegram/:telegramId/ping").handler(this::handleTelegramPing);
@@ -164,8 +175,12 @@ public class HttpVerticle extends AbstractVerticle {
         router.post("/:telegramId/file/remove").handler(this::handleFileRemove);
         router.post("/:telegramId/file/update-auto-settings").handler(this::handleAutoSettingsUpdate);
 
+        router.get("/transfer-statistics").handler(this::handleTransferStatistics);
+        router.get("/files/dedup-statistics").handler(this::handleDedupStatistics);
+
         router.get("/files/count").handler(this::handleFilesCount);
         router.get("/files").handler(this::handleFiles);
+        router.get("/files/export").handler(this::handleFilesExport);
         router.post("/files/start-download-multiple").handler(this::handleFileStartDownloadMultiple);
         router.post("/files/cancel-download-multiple").handler(this::handleFileCancelDownloadMultiple);
         router.post("/files/toggle-pause-download-multiple").handler(this::handleFileTogglePauseDownloadMultiple);
@@ -209,6 +224,11 @@ public class HttpVerticle extends AbstractVerticle {
                 .mapEmpty();
     }
 
+    public Future<Void> initContentIndexVerticle() {
+        return vertx.deployVerticle(new ContentIndexVerticle())
+                .mapEmpty();
+    }
+
     public Future<Void> initPreloadMessageVerticle() {
         return vertx.deployVerticle(new PreloadMessageVerticle(), Config.VIRTUAL_THREAD_DEPLOYMENT_OPTIONS)
                 .mapEmpty();
@@ -219,30 +239,21 @@ public class HttpVerticle extends AbstractVerticle {
             log.debug("Received telegram event: %s".formatted(message.body()));
             JsonObject jsonObject = (JsonObject) message.body();
             String telegramId = jsonObject.getString("telegramId");
-            EventPayload payload = jsonObject.getJsonObject("payload").mapTo(EventPayload.class);
-
-            Set<String> sentSessionIds = new HashSet<>();
-            sessionTelegramVerticles.entrySet().stream()
-                    .filter(e -> Objects.equals(Convert.toStr(e.getValue().getId()), telegramId))
-                    .map(Map.Entry::getKey)
-                    .forEach(sessionId -> {
-                        String wsHandlerId = clients.get(sessionId);
-                        if (StrUtil.isNotBlank(wsHandlerId)) {
-                            vertx.eventBus().send(wsHandlerId, Json.encode(payload));
-                        }
-                        sentSessionIds.add(sessionId);
-                    });
+            JsonObject payload = jsonObject.getJsonObject("payload");
+            Metrics.TELEGRAM_EVENTS.labels(Convert.toStr(payload.getInteger("type"))).increment();
 
-            unboundClients.forEach(sessionId -> {
-                if (sentSessionIds.contains(sessionId)) {
-                    return;
-                }
-                String wsHandlerId = clients.get(sessionId);
-                if (StrUtil.isNotBlank(wsHandlerId)) {
-                    vertx.eventBus().send(wsHandlerId, Json.encode(payload));
+            Set<String> sessionIds = new LinkedHashSet<>();
+            sessionTelegramVerticles.forEach((sessionId, telegramVerticle) -> {
+                if (Objects.equals(Convert.toStr(telegramVerticle.getId()), telegramId)) {
+                    sessionIds.add(sessionId);
                 }
             });
+            sessionIds.addAll(unboundClients);
+            webSocketPush.publish(telegramId, webSocketSubscriptions.route(sessionIds, payload), payload);
         });
+        vertx.setPeriodic(Config.WEBSOCKET_PUSH_INTERVAL, _ -> webSocketPush.flush());
+        Metrics.gauge("telegram_files_websocket_pending_messages", "Messages waiting for slow websocket clients", null,
+                () -> Map.of("", webSocketPush.getStats().getInteger("pending")));
 
         vertx.eventBus().consumer(EventEnum.AUTO_DOWNLOAD_UPDATE.address(), message -> {
             log.debug("Auto settings update: %s".formatted(message.body()));
@@ -254,10 +265,11 @@ public class HttpVerticle extends AbstractVerticle {
     private void handleWebSocket(RoutingContext ctx) {
         String sessionId = ctx.session().id();
         String telegramId = ctx.request().getParam("telegramId");
+        boolean binaryFrames = "binary".equals(ctx.request().getParam("frames"));
         ctx.request().toWebSocket()
                 .onSuccess(ws -> {
                     log.debug("Upgraded to WebSocket. SessionId: %s".formatted(sessionId));
-                    clients.put(sessionId, ws.textHandlerID());
+                    webSocketPush.register(sessionId, ws, binaryFrames);
                     if (!handleTelegramChange(sessionId, telegramId)) {
                         log.debug("Failed to change telegram verticle. SessionId: %s".formatted(sessionId));
                     }
@@ -276,17 +288,34 @@ public class HttpVerticle extends AbstractVerticle {
 
                     ws.exceptionHandler(throwable -> log.error("WebSocket error: %s".formatted(throwable.getMessage())));
                     ws.closeHandler(_ -> {
-                        clients.remove(sessionId);
+                        webSocketPush.unregister(sessionId, ws);
+                        if (!webSocketPush.isConnected(sessionId)) {
+                            webSocketSubscriptions.remove(sessionId);
+                        }
                         sessionTelegramVerticles.remove(sessionId);
                         vertx.cancelTimer(timerId);
                         log.debug("WebSocket closed. SessionId: %s".formatted(sessionId));
                     });
 
-                    ws.textMessageHandler(text -> log.debug("Received WebSocket message: " + text));
+                    ws.textMessageHandler(text -> {
+                        log.debug("Received WebSocket message: " + text);
+                        handleWebSocketMessage(sessionId, text);
+                    });
                 })
                 .onFailure(err -> log.warn("Failed to upgrade to WebSocket: %s".formatted(err.getMessage())));
     }
 
+    private void handleWebSocketMessage(String sessionId, String text) {
+        JsonObject message;
+        try {
+            message = new JsonObject(text);
+        } catch (DecodeException e) {
+            log.debug("Ignore WebSocket message: %s".formatted(e.getMessage()));
+            return;
+        }
+        webSocketSubscriptions.handle(sessionId, message);
+    }
+
     private void handleSettingsCreate(RoutingContext ctx) {
         JsonObject object = ctx.body().asJsonObject();
         if (CollUtil.isEmpty(object)) {
@@ -456,6 +485,32 @@ public class HttpVerticle extends AbstractVerticle {
                 .onFailure(ctx::fail);
     }
 
+    private void handleTelegramDownloadQueue(RoutingContext ctx) {
+        TelegramVerticle telegramVerticle = getTelegramVerticleByPath(ctx);
+        if (telegramVerticle == null) {
+            return;
+        }
+        if (telegramVerticle.telegramRecord == null) {
+            ctx.fail(400);
+            return;
+        }
+        vertx.eventBus().<JsonObject>request(EventEnum.AUTO_DOWNLOAD_QUEUE.address(), telegramVerticle.telegramRecord.id())
+                .onSuccess(reply -> ctx.json(reply.body()))
+                .onFailure(ctx::fail);
+    }
+
+    private void handleTransferStatistics(RoutingContext ctx) {
+        vertx.eventBus().<JsonObject>request(EventEnum.TRANSFER_STATISTICS.address(), null)
+                .onSuccess(reply -> ctx.json(reply.body()))
+                .onFailure(ctx::fail);
+    }
+
+    private void handleDedupStatistics(RoutingContext ctx) {
+        DataVerticle.contentRepository.getStatistics()
+                .onSuccess(ctx::json)
+                .onFailure(ctx::fail);
+    }
+
     private void handleTelegramChange(RoutingContext ctx) {
         String sessionId = ctx.session().id();
         String telegramId = ctx.request().getParam("telegramId");
@@ -760,6 +815,56 @@ public class HttpVerticle extends AbstractVerticle {
                 .onFailure(ctx::fail);
     }
 
+    /**
+     * Stream all matching file records as NDJSON, ordered by (chat_id, message_id, telegram_id, unique_id).
+     * Pages are read by keyset and the next page is only queried once the response has drained.
+     */
+    private void handleFilesExport(RoutingContext ctx) {
+        Map<String, String> filter = new HashMap<>();
+        ctx.request().params().forEach(filter::put);
+        filter.put("search", URLUtil.decode(filter.get("search")));
+        long chatId = Convert.toLong(filter.get("chatId"), 0L);
+
+        ctx.response()
+                .setChunked(true)
+                .putHeader("Content-Type", "application/x-ndjson");
+        exportFiles(ctx, chatId, filter, FileRepository.FileKey.FIRST);
+    }
+
+    private void exportFiles(RoutingContext ctx, long chatId, Map<String, String> filter, FileRepository.FileKey from) {
+        HttpServerResponse response = ctx.response();
+        if (response.closed()) {
+            return;
+        }
+        DataVerticle.fileRepository.getFilesAfter(chatId, filter, from, EXPORT_PAGE_SIZE)
+                .onSuccess(fileRecords -> {
+                    Buffer buffer = Buffer.buffer();
+                    fileRecords.forEach(fileRecord -> buffer.appendString(Json.encode(fileRecord)).appendString("\n"));
+                    if (fileRecords.size() < EXPORT_PAGE_SIZE) {
+                        response.end(buffer);
+                        return;
+                    }
+                    response.write(buffer);
+                    FileRepository.FileKey next = FileRepository.FileKey.of(fileRecords.getLast());
+                    if (response.writeQueueFull()) {
+                        response.drainHandler(_ -> {
+                            response.drainHandler(null);
+                            exportFiles(ctx, chatId, filter, next);
+                        });
+                    } else {
+                        exportFiles(ctx, chatId, filter, next);
+                    }
+                })
+                .onFailure(err -> {
+                    log.error("Failed to export files: %s".formatted(err.getMessage()));
+                    if (response.headWritten()) {
+                        response.reset();
+                    } else {
+                        ctx.fail(err);
+                    }
+                });
+    }
+
     private void handleFileTagsUpdate(RoutingContext ctx) {
         String uniqueId = ctx.pathParam("uniqueId");
         if (StrUtil.isBlank(uniqueId)) {
@@ -0,0 +1,267 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters, histograms and gauges exposed by {@code /metrics} in the Prometheus text format.
+ * Recording only touches {@link LongAdder}s of children resolved once per label value,
+ * the text is built when it is scraped.
+ */
+public class Metrics {
+
+    private static final List<Family<?>> families = new CopyOnWriteArrayList<>();
+
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    // seconds
+    private static final double[] LATENCY_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    public static final HistogramFamily TDLIB_REQUESTS = register(new HistogramFamily(
+            "telegram_files_tdlib_request_seconds", "Latency of TDLib requests by function", "function"));
+
+    public static final CounterFamily TDLIB_ERRORS = register(new CounterFamily(
+            "telegram_files_tdlib_request_errors_total", "TDLib requests answered with an error by function", "function"));
+
+    public static final CounterFamily TDLIB_CACHE_HITS = register(new CounterFamily(
+            "telegram_files_tdlib_cache_hits_total", "TDLib requests answered by the response cache by function", "function"));
+
+    public static final CounterFamily TDLIB_CACHE_MISSES = register(new CounterFamily(
+            "telegram_files_tdlib_cache_misses_total", "TDLib requests sent on a miss of the response cache by function", "function"));
+
+    public static final HistogramFamily FILE_REPOSITORY = register(new HistogramFamily(
+            "telegram_files_file_repository_seconds", "Latency of the file repository by method", "method"));
+
+    public static final CounterFamily TELEGRAM_EVENTS = register(new CounterFamily(
+            "telegram_files_telegram_events_total", "Telegram events published on the event bus by payload type", "type"));
+
+    public static final CounterFamily WEBSOCKET_MESSAGES = register(new CounterFamily(
+            "telegram_files_websocket_messages_total", "Messages pushed to websocket clients by payload type", "type"));
+
+    public static final CounterFamily WEBSOCKET_DROPPED = register(new CounterFamily(
+            "telegram_files_websocket_dropped_total", "Messages dropped for slow websocket clients by payload type", "type"));
+
+    public static final CounterFamily TRANSFER_FILES = register(new CounterFamily(
+            "telegram_files_transfer_files_total", "Files handled by the transfer workers by final transfer status", "status"));
+
+    public static final CounterFamily TRANSFER_BYTES = register(new CounterFamily(
+            "telegram_files_transfer_bytes_total", "Bytes transferred by automation", "automation"));
+
+    public static final CounterFamily DEDUP_SAVED_BYTES = register(new CounterFamily(
+            "telegram_files_dedup_saved_bytes_total", "Bytes not stored again by linking to a stored copy, by stage", "stage"));
+
+    public static final CounterFamily AI_CLASSIFICATIONS = register(new CounterFamily(
+            "telegram_files_ai_classifications_total", "AI classifications of transferred files by source: cache, album or request", "source"));
+
+    /**
+     * Register a gauge read when scraped, replacing the one of the same name.
+     *
+     * @param labelName label of the values, null for a single value under the empty key
+     */
+    public static void gauge(String name, String help, String labelName, Supplier<Map<String, ? extends Number>> values) {
+        gauges.put(name, new Gauge(name, help, labelName, values));
+    }
+
+    /**
+     * Time every method of the target that returns a future until the future completes, other methods until they return.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T timed(Class<T> type, T target, HistogramFamily family) {
+        Map<Method, Histogram> histograms = new ConcurrentHashMap<>();
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (_, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            Histogram histogram = histograms.computeIfAbsent(method, m -> family.labels(m.getName()));
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                histogram.record(System.nanoTime() - start);
+                throw e.getCause();
+            }
+            if (result instanceof Future<?> future) {
+                future.onComplete(_ -> histogram.record(System.nanoTime() - start));
+            } else {
+                histogram.record(System.nanoTime() - start);
+            }
+            return result;
+        });
+    }
+
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family<?> family : families) {
+            family.write(sb);
+        }
+        for (Gauge gauge : gauges.values()) {
+            gauge.write(sb);
+        }
+        return sb.toString();
+    }
+
+    private static <T extends Family<?>> T register(T family) {
+        families.add(family);
+        return family;
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder sb, String name, String labels, Object value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String label(String name, String value) {
+        if (name == null) {
+            return "";
+        }
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    public static abstract class Family<T> {
+        final String name;
+
+        final String help;
+
+        final String labelName;
+
+        final Map<String, T> children = new ConcurrentHashMap<>();
+
+        // children by class, resolved without building the label value again
+        private final ClassValue<T> byClass = new ClassValue<>() {
+            @Override
+            protected T computeValue(Class<?> type) {
+                return labels(type.getSimpleName());
+            }
+        };
+
+        Family(String name, String help, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.labelName = labelName;
+        }
+
+        public T labels(String value) {
+            T child = children.get(value);
+            return child != null ? child : children.computeIfAbsent(value, _ -> newChild());
+        }
+
+        public T labels(Class<?> type) {
+            return byClass.get(type);
+        }
+
+        abstract T newChild();
+
+        abstract void write(StringBuilder sb);
+    }
+
+    public static class CounterFamily extends Family<LongAdder> {
+        CounterFamily(String name, String help, String labelName) {
+            super(name, help, labelName);
+        }
+
+        @Override
+        LongAdder newChild() {
+            return new LongAdder();
+        }
+
+        @Override
+        void write(StringBuilder sb) {
+            writeHeader(sb, name, help, "counter");
+            children.forEach((value, counter) -> writeSample(sb, name, label(labelName, value), counter.sum()));
+        }
+    }
+
+    public static class HistogramFamily extends Family<Histogram> {
+        HistogramFamily(String name, String help, String labelName) {
+            super(name, help, labelName);
+        }
+
+        @Override
+        Histogram newChild() {
+            return new Histogram(LATENCY_BUCKETS);
+        }
+
+        @Override
+        void write(StringBuilder sb) {
+            writeHeader(sb, name, help, "histogram");
+            children.forEach((value, histogram) -> histogram.write(sb, name, label(labelName, value)));
+        }
+    }
+
+    public static class Histogram {
+        private final double[] bounds;
+
+        private final long[] nanoBounds;
+
+        private final LongAdder[] counts;
+
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.nanoBounds = new long[bounds.length];
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < bounds.length; i++) {
+                nanoBounds[i] = (long) (bounds[i] * 1_000_000_000L);
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            int i = 0;
+            while (i < nanoBounds.length && nanos > nanoBounds[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder adder : counts) {
+                count += adder.sum();
+            }
+            return count;
+        }
+
+        void write(StringBuilder sb, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i].sum();
+                writeSample(sb, name + "_bucket", prefix + "le=\"" + bounds[i] + "\"", cumulative);
+            }
+            cumulative += counts[bounds.length].sum();
+            writeSample(sb, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+            writeSample(sb, name + "_sum", labels, sumNanos.sum() / 1e9);
+            writeSample(sb, name + "_count", labels, cumulative);
+        }
+    }
+
+    private record Gauge(String name, String help, String labelName, Supplier<Map<String, ? extends Number>> values) {
+        void write(StringBuilder sb) {
+            writeHeader(sb, name, help, "gauge");
+            values.get().forEach((value, number) -> writeSample(sb, name, label(labelName, value), number));
+        }
+    }
+}
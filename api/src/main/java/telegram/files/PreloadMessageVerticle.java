@@ -10,6 +10,9 @@ import org.drinkless.tdlib.TdApi;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public class PreloadMessageVerticle extends AbstractVerticle {
@@ -93,19 +96,19 @@ public class PreloadMessageVerticle extends AbstractVerticle {
             auto.complete(SettingAutoRecords.HISTORY_PRELOAD_STATE);
             return;
         }
-        int count = 0;
+        List<TdApi.Message> fileMessages = new ArrayList<>();
+        List<FileRecord> fileRecords = new ArrayList<>();
         for (TdApi.Message message : foundChatMessages.messages) {
-            Optional<TdApiHelp.FileHandler<? extends TdApi.MessageContent>> fileHandlerOptional = TdApiHelp.getFileHandler(message);
-            if (fileHandlerOptional.isEmpty()) {
-                continue;
-            }
-            TdApi.MessageThreadInfo messageThreadInfo = Future.await(telegramVerticle.client
-                    .execute(new TdApi.GetMessageThread(message.chatId, message.id), true));
-            FileRecord fileRecord = fileHandlerOptional.get().convertFileRecord(auto.telegramId).withThreadInfo(messageThreadInfo);
-            if (Future.await(DataVerticle.fileRepository.createIfNotExist(fileRecord))) {
-                count++;
-            }
+            TdApiHelp.getFileHandler(message).ifPresent(fileHandler -> {
+                fileMessages.add(message);
+                fileRecords.add(fileHandler.convertFileRecord(auto.telegramId));
+            });
+        }
+        List<TdApi.MessageThreadInfo> messageThreadInfos = Future.await(getMessageThreadInfos(telegramVerticle, fileMessages));
+        for (int i = 0; i < fileRecords.size(); i++) {
+            fileRecords.set(i, fileRecords.get(i).withThreadInfo(messageThreadInfos.get(i)));
         }
+        int count = Future.await(DataVerticle.fileRepository.createIfNotExistBatch(fileRecords));
 
         if (log.isDebugEnabled() && count > 0) {
             log.debug("Load history message success! TelegramId: %d ChatId: %d Count: %d".formatted(auto.telegramId, auto.chatId, count));
@@ -114,13 +117,34 @@ public class PreloadMessageVerticle extends AbstractVerticle {
         addHistoryMessage(auto, currentTimeMillis);
     }
 
+    /**
+     * Fetch thread info of the messages concurrently, messages that can't have a thread get null without a request.
+     */
+    private Future<List<TdApi.MessageThreadInfo>> getMessageThreadInfos(TelegramVerticle telegramVerticle, List<TdApi.Message> messages) {
+        List<Integer> indexes = new ArrayList<>();
+        List<TdApi.GetMessageThread> methods = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            TdApi.Message message = messages.get(i);
+            if (TdApiHelp.canHaveThread(message)) {
+                indexes.add(i);
+                methods.add(new TdApi.GetMessageThread(message.chatId, message.id));
+            }
+        }
+        return telegramVerticle.client.executePipelined(methods, Config.TELEGRAM_PIPELINE_WINDOW, true)
+                .map(results -> {
+                    List<TdApi.MessageThreadInfo> threadInfos = new ArrayList<>(Collections.nCopies(messages.size(), null));
+                    for (int i = 0; i < indexes.size(); i++) {
+                        threadInfos.set(indexes.get(i), results.get(i));
+                    }
+                    return threadInfos;
+                });
+    }
+
     private void onNewMessage(JsonObject jsonObject) {
         long telegramId = jsonObject.getLong("telegramId");
         long chatId = jsonObject.getLong("chatId");
         long messageId = jsonObject.getLong("messageId");
-        autoRecords.getPreloadEnabledItems().stream()
-                .filter(item -> item.telegramId == telegramId && item.chatId == chatId)
-                .findFirst()
+        Optional.ofNullable(autoRecords.getPreloadEnabledItem(telegramId, chatId))
                 .flatMap(ignore -> TelegramVerticles.get(telegramId))
                 .ifPresent(telegramVerticle -> {
                     if (!telegramVerticle.authorized) return;
@@ -158,6 +158,16 @@ public class TdApiHelp {
         return getFileHandler(message).map(FileHandler::getFileId).orElse(null);
     }
 
+    /**
+     * @return size of the file of the message, the expected size if the exact size is unknown, 0 if no file
+     */
+    public static long getFileSize(TdApi.Message message) {
+        return getFileHandler(message)
+                .map(FileHandler::getFile)
+                .map(file -> file.size == 0 ? file.expectedSize : file.size)
+                .orElse(0L);
+    }
+
     public static String getFileUniqueId(TdApi.Message message) {
         return getFileHandler(message).map(FileHandler::getFileUniqueId).orElse(null);
     }
@@ -179,6 +189,20 @@ public class TdApiHelp {
                 .toList();
     }
 
+    /**
+     * Whether {@link TdApi.GetMessageThread} may return a thread for the message,
+     * i.e. it is a reply, a forum topic message or a post with comments.
+     */
+    public static boolean canHaveThread(TdApi.Message message) {
+        if (message.replyTo != null) {
+            return true;
+        }
+        if (message.interactionInfo != null && message.interactionInfo.replyInfo != null) {
+            return true;
+        }
+        return BeanUtil.getProperty(message, "topicId") != null;
+    }
+
     public static FileRecord.DownloadStatus getDownloadStatus(TdApi.File file) {
         if (file == null || file.local == null) {
             return null;
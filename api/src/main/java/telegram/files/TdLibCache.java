@@ -0,0 +1,255 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the TDLib lookups of one account: GetMessage, GetMessages, GetMessageThread and GetFile.
+ * Entries are dropped by the updates that change them, and expire for the changes no update reports, e.g. thread replies.
+ * Concurrent lookups of the same entry share one request.
+ */
+public class TdLibCache {
+
+    public static final long TTL = TimeUnit.MINUTES.toMillis(5);
+
+    static {
+        Metrics.gauge("telegram_files_tdlib_cache_hit_ratio", "Share of the cacheable TDLib requests answered by the cache, by function",
+                "function", () -> {
+                    Map<String, Double> ratios = new HashMap<>();
+                    Metrics.TDLIB_CACHE_MISSES.children.forEach((function, misses) -> {
+                        long hits = Metrics.TDLIB_CACHE_HITS.labels(function).sum();
+                        long total = hits + misses.sum();
+                        ratios.put(function, total == 0 ? 0 : (double) hits / total);
+                    });
+                    return ratios;
+                });
+    }
+
+    /**
+     * @param id message id, or file id for GetFile
+     */
+    record Key(Class<?> function, long chatId, long id) {
+    }
+
+    private record Entry(TdApi.Object value, long expiresAt) {
+    }
+
+    private final int maxSize;
+
+    private final long ttl;
+
+    // guarded by this
+    private final LinkedHashMap<Key, Entry> entries;
+
+    // file id -> messages holding the file, guarded by this
+    private final Map<Integer, Set<Key>> byFile = new HashMap<>();
+
+    // requests in flight by key, their result is only kept if no update dropped the key meanwhile, guarded by this
+    private final Map<Key, Object> loading = new HashMap<>();
+
+    public TdLibCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= TdLibCache.this.maxSize) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return the key of a cacheable function, null for the others
+     */
+    static Key key(TdApi.Function<?> method) {
+        return switch (method) {
+            case TdApi.GetMessage m -> new Key(TdApi.GetMessage.class, m.chatId, m.messageId);
+            case TdApi.GetMessageThread m -> new Key(TdApi.GetMessageThread.class, m.chatId, m.messageId);
+            case TdApi.GetFile f -> new Key(TdApi.GetFile.class, 0, f.fileId);
+            default -> null;
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R extends TdApi.Object> Future<R> get(Key key, Supplier<Future<R>> loader) {
+        Promise<R> promise;
+        synchronized (this) {
+            Entry entry = getEntry(key);
+            if (entry != null) {
+                Metrics.TDLIB_CACHE_HITS.labels(key.function()).increment();
+                return Future.succeededFuture((R) entry.value());
+            }
+            if (loading.get(key) instanceof Future<?> future) {
+                Metrics.TDLIB_CACHE_HITS.labels(key.function()).increment();
+                return (Future<R>) future;
+            }
+            promise = Promise.promise();
+            loading.put(key, promise.future());
+        }
+        Metrics.TDLIB_CACHE_MISSES.labels(key.function()).increment();
+        loader.get().onComplete(ar -> {
+            synchronized (this) {
+                if (loading.remove(key, promise.future()) && ar.succeeded() && ar.result() != null) {
+                    put(key, ar.result());
+                }
+            }
+            promise.handle(ar);
+        });
+        return promise.future();
+    }
+
+    /**
+     * Messages by id, the missing ones fetched by a single GetMessages.
+     *
+     * @param loader fetches the messages of the given ids
+     * @return messages in the order of the ids, null for the messages not found
+     */
+    public Future<TdApi.Messages> getMessages(long chatId, long[] messageIds, Function<long[], Future<TdApi.Messages>> loader) {
+        TdApi.Message[] messages = new TdApi.Message[messageIds.length];
+        List<Integer> missing = new ArrayList<>();
+        Object token = new Object();
+        Set<Key> owned = new HashSet<>();
+        synchronized (this) {
+            for (int i = 0; i < messageIds.length; i++) {
+                Key key = new Key(TdApi.GetMessage.class, chatId, messageIds[i]);
+                Entry entry = getEntry(key);
+                if (entry != null) {
+                    messages[i] = (TdApi.Message) entry.value();
+                    continue;
+                }
+                missing.add(i);
+                if (loading.putIfAbsent(key, token) == null) {
+                    owned.add(key);
+                }
+            }
+        }
+        Metrics.TDLIB_CACHE_HITS.labels(TdApi.GetMessages.class).add(messageIds.length - missing.size());
+        if (missing.isEmpty()) {
+            return Future.succeededFuture(new TdApi.Messages(count(messages), messages));
+        }
+        Metrics.TDLIB_CACHE_MISSES.labels(TdApi.GetMessages.class).add(missing.size());
+        return loader.apply(missing.stream().mapToLong(i -> messageIds[i]).toArray())
+                .onComplete(ar -> {
+                    synchronized (this) {
+                        TdApi.Message[] loaded = ar.succeeded() && ar.result() != null ? ar.result().messages : new TdApi.Message[0];
+                        for (int j = 0; j < missing.size(); j++) {
+                            Key key = new Key(TdApi.GetMessage.class, chatId, messageIds[missing.get(j)]);
+                            if (!owned.contains(key) || !loading.remove(key, token)) {
+                                continue;
+                            }
+                            if (j < loaded.length && loaded[j] != null) {
+                                put(key, loaded[j]);
+                            }
+                        }
+                    }
+                })
+                .map(result -> {
+                    if (result == null) {
+                        return null;
+                    }
+                    for (int j = 0; j < missing.size() && j < result.messages.length; j++) {
+                        messages[missing.get(j)] = result.messages[j];
+                    }
+                    return new TdApi.Messages(count(messages), messages);
+                });
+    }
+
+    /**
+     * Drop the entries changed by the update, called before the update is handled.
+     */
+    public void onUpdate(TdApi.Object update) {
+        switch (update) {
+            case TdApi.UpdateFile u -> invalidateFile(u.file.id);
+            case TdApi.UpdateMessageContent u -> invalidateMessage(u.chatId, u.messageId);
+            case TdApi.UpdateMessageEdited u -> invalidateMessage(u.chatId, u.messageId);
+            case TdApi.UpdateMessageInteractionInfo u -> invalidateMessage(u.chatId, u.messageId);
+            case TdApi.UpdateDeleteMessages u -> {
+                for (long messageId : u.messageIds) {
+                    invalidateMessage(u.chatId, messageId);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    public synchronized void invalidateMessage(long chatId, long messageId) {
+        invalidate(new Key(TdApi.GetMessage.class, chatId, messageId));
+        invalidate(new Key(TdApi.GetMessageThread.class, chatId, messageId));
+    }
+
+    /**
+     * Drop the file and the messages holding it, their file is no longer up to date.
+     */
+    public synchronized void invalidateFile(int fileId) {
+        invalidate(new Key(TdApi.GetFile.class, 0, fileId));
+        Set<Key> keys = byFile.remove(fileId);
+        if (keys != null) {
+            keys.forEach(this::invalidate);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void invalidate(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unindex(key, entry);
+        }
+        loading.remove(key);
+    }
+
+    private Entry getEntry(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt() <= System.currentTimeMillis()) {
+            entries.remove(key);
+            unindex(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void put(Key key, TdApi.Object value) {
+        Entry previous = entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+        if (previous != null) {
+            unindex(key, previous);
+        }
+        if (value instanceof TdApi.Message message) {
+            Integer fileId = TdApiHelp.getFileId(message);
+            if (fileId != null) {
+                byFile.computeIfAbsent(fileId, _ -> new HashSet<>()).add(key);
+            }
+        }
+    }
+
+    private void unindex(Key key, Entry entry) {
+        if (entry.value() instanceof TdApi.Message message) {
+            Integer fileId = TdApiHelp.getFileId(message);
+            Set<Key> keys = fileId == null ? null : byFile.get(fileId);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                byFile.remove(fileId);
+            }
+        }
+    }
+
+    private static int count(TdApi.Message[] messages) {
+        return (int) Arrays.stream(messages).filter(Objects::nonNull).count();
+    }
+}
@@ -12,7 +12,11 @@ import org.drinkless.tdlib.TdApi;
 import java.io.IOError;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class TelegramClient {
     private static final Log log = LogFactory.get();
@@ -21,6 +25,8 @@ public class TelegramClient {
 
     private boolean initialized = false;
 
+    private final TdLibCache cache = new TdLibCache(Config.TELEGRAM_CACHE_SIZE, TdLibCache.TTL);
+
     static {
         Client.setLogMessageHandler(0, new LogMessageHandler());
 
@@ -38,7 +44,11 @@ public class TelegramClient {
                            Client.ExceptionHandler defaultExceptionHandler) {
         synchronized (this) {
             if (!initialized) {
-                client = Client.create(updateHandler, updateExceptionHandler, defaultExceptionHandler);
+                client = Client.create(update -> {
+                    // before the update is handled, the handler may look the changed objects up again
+                    cache.onUpdate(update);
+                    updateHandler.onResult(update);
+                }, updateExceptionHandler, defaultExceptionHandler);
                 initialized = true;
             }
         }
@@ -49,14 +59,38 @@ public class TelegramClient {
         return execute(method, false);
     }
 
+    /**
+     * Messages, message threads and files are answered from the cache of the account when they are there.
+     */
     @SuppressWarnings("unchecked")
     public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> method, boolean ignoreException) {
         log.trace("Execute method: %s".formatted(TypeUtil.getTypeArgument(method.getClass())));
         if (!initialized) {
             throw new IllegalStateException("Client is not initialized");
         }
+        if (!cache.isEnabled()) {
+            return send(method, ignoreException);
+        }
+        if (method instanceof TdApi.GetMessages getMessages) {
+            return (Future<R>) cache.getMessages(getMessages.chatId, getMessages.messageIds,
+                    messageIds -> send(new TdApi.GetMessages(getMessages.chatId, messageIds), ignoreException));
+        }
+        TdLibCache.Key key = TdLibCache.key(method);
+        if (key == null) {
+            return send(method, ignoreException);
+        }
+        Future<R> future = cache.get(key, () -> send(method, false));
+        return ignoreException ? future.recover(err -> err instanceof TelegramRunException ?
+                Future.succeededFuture() : Future.failedFuture(err)) : future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R extends TdApi.Object> Future<R> send(TdApi.Function<R> method, boolean ignoreException) {
+        long start = System.nanoTime();
         return Future.future(promise -> client.send(method, object -> {
+            Metrics.TDLIB_REQUESTS.labels(method.getClass()).record(System.nanoTime() - start);
             if (object.getConstructor() == TdApi.Error.CONSTRUCTOR) {
+                Metrics.TDLIB_ERRORS.labels(method.getClass()).increment();
                 if (ignoreException) {
                     promise.complete(null);
                     return;
@@ -92,6 +126,48 @@ public class TelegramClient {
         return promise.future();
     }
 
+    /**
+     * Execute the methods concurrently, keeping at most {@code window} requests in flight.
+     *
+     * @return results in the order of the methods, null for failed methods if {@code ignoreException} is set
+     */
+    public <R extends TdApi.Object> Future<List<R>> executePipelined(List<? extends TdApi.Function<R>> methods,
+                                                                     int window,
+                                                                     boolean ignoreException) {
+        if (methods.isEmpty()) {
+            return Future.succeededFuture(List.of());
+        }
+        Pipeline<R> pipeline = new Pipeline<>(methods, ignoreException);
+        for (int i = 0; i < Math.min(Math.max(window, 1), methods.size()); i++) {
+            executeNext(pipeline);
+        }
+        return pipeline.promise.future();
+    }
+
+    private <R extends TdApi.Object> void executeNext(Pipeline<R> pipeline) {
+        int index = pipeline.cursor.getAndIncrement();
+        if (index >= pipeline.methods.size() || pipeline.promise.future().isComplete()) {
+            return;
+        }
+        execute(pipeline.methods.get(index), pipeline.ignoreException)
+                .onComplete(ar -> {
+                    if (ar.failed()) {
+                        pipeline.promise.tryFail(ar.cause());
+                        return;
+                    }
+                    pipeline.results.set(index, ar.result());
+                    if (pipeline.completed.incrementAndGet() == pipeline.methods.size()) {
+                        List<R> results = new ArrayList<>(pipeline.methods.size());
+                        for (int i = 0; i < pipeline.methods.size(); i++) {
+                            results.add(pipeline.results.get(i));
+                        }
+                        pipeline.promise.tryComplete(results);
+                    } else {
+                        executeNext(pipeline);
+                    }
+                });
+    }
+
     public Client getNativeClient() {
         return client;
     }
@@ -102,4 +178,15 @@ public class TelegramClient {
             log.debug("TDLib: %s".formatted(message));
         }
     }
+
+    private record Pipeline<R extends TdApi.Object>(List<? extends TdApi.Function<R>> methods,
+                                                    boolean ignoreException,
+                                                    AtomicInteger cursor,
+                                                    AtomicInteger completed,
+                                                    AtomicReferenceArray<R> results,
+                                                    Promise<List<R>> promise) {
+        Pipeline(List<? extends TdApi.Function<R>> methods, boolean ignoreException) {
+            this(methods, ignoreException, new AtomicInteger(), new AtomicInteger(), new AtomicReferenceArray<>(methods.size()), Promise.promise());
+        }
+    }
 }
@@ -24,17 +24,23 @@ import org.jooq.lambda.tuple.Tuple2;
 import telegram.files.repository.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public class TelegramVerticle extends AbstractVerticle {
 
     private static final Log log = LogFactory.get();
 
+    private static final int BANDWIDTH_TICK_INTERVAL = 500;
+
     public TelegramClient client;
 
     private TelegramChats telegramChats;
@@ -55,8 +61,19 @@ public class TelegramVerticle extends AbstractVerticle {
 
     private AvgSpeed avgSpeed = new AvgSpeed();
 
+    public final DownloadSlots downloadSlots = new DownloadSlots();
+
+    private final BandwidthGovernor bandwidthGovernor = new BandwidthGovernor();
+
+    // files TDLib reports downloading, and the ones paused by the bandwidth governor
+    private final Set<Integer> activeDownloads = ConcurrentHashMap.newKeySet();
+
+    private final Set<Integer> throttledDownloads = ConcurrentHashMap.newKeySet();
+
     private long avgSpeedPersistenceTimerId;
 
+    private FileDownloadStatusCache fileDownloadStatusCache;
+
     private long lastFileEventTime;
 
     private long lastFileDownloadEventTime;
@@ -97,6 +114,10 @@ public class TelegramVerticle extends AbstractVerticle {
         telegramUpdateHandler.setOnChatUpdated(telegramChats::onChatUpdated);
         telegramUpdateHandler.setOnMessageReceived(this::onMessageReceived);
 
+        fileDownloadStatusCache = new FileDownloadStatusCache(this.getRootId(), DataVerticle.fileRepository, this::sendFileStatusHttpEvent);
+        vertx.setPeriodic(FileDownloadStatusCache.FLUSH_INTERVAL, _ -> fileDownloadStatusCache.flush());
+        vertx.setPeriodic(BANDWIDTH_TICK_INTERVAL, _ -> applyBandwidthAction(bandwidthGovernor.tick(System.currentTimeMillis())));
+
         client.initialize(telegramUpdateHandler, this::handleException, this::handleException);
         Future.all(initEventConsumer(), initAvgSpeed())
                 .compose(_ -> this.enableProxy(this.proxyName))
@@ -106,7 +127,8 @@ public class TelegramVerticle extends AbstractVerticle {
 
     @Override
     public void stop(Promise<Void> stopPromise) {
-        this.close(false)
+        fileDownloadStatusCache.flush()
+                .eventually(() -> this.close(false))
                 .onComplete(stopPromise);
     }
 
@@ -321,6 +343,7 @@ public class TelegramVerticle extends AbstractVerticle {
                     FileRecord fileRecord = fileHandler.convertFileRecord(telegramRecord.id()).withThreadInfo(messageThreadInfo);
                     return DataVerticle.fileRepository.createIfNotExist(fileRecord)
                             .compose(created -> {
+                                fileDownloadStatusCache.invalidate(fileRecord.uniqueId());
                                 if (!created) {
                                     return DataVerticle.fileRepository.updateFileId(fileRecord.id(), fileRecord.uniqueId());
                                 }
@@ -331,6 +354,7 @@ public class TelegramVerticle extends AbstractVerticle {
                                 sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                         .put("fileId", fileId)
                                         .put("uniqueId", fileRecord.uniqueId())
+                                        .put("chatId", Long.toString(chatId))
                                         .put("downloadStatus", FileRecord.DownloadStatus.downloading)
                                 ));
 
@@ -346,6 +370,7 @@ public class TelegramVerticle extends AbstractVerticle {
         }
         return DataVerticle.fileRepository.createIfNotExist(thumbnailRecord)
                 .compose(created -> {
+                    fileDownloadStatusCache.invalidate(thumbnailRecord.uniqueId());
                     if (!created) {
                         return DataVerticle.fileRepository.updateFileId(thumbnailRecord.id(), thumbnailRecord.uniqueId());
                     }
@@ -381,6 +406,7 @@ public class TelegramVerticle extends AbstractVerticle {
                 })
                 .compose(file -> client.execute(new TdApi.DeleteFile(fileId)).map(file))
                 .compose(file -> DataVerticle.fileRepository.deleteByUniqueId(file.remote.uniqueId).map(file))
+                .onSuccess(file -> fileDownloadStatusCache.invalidate(file.remote.uniqueId))
                 .onSuccess(file ->
                         sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                 .put("fileId", fileId)
@@ -417,6 +443,8 @@ public class TelegramVerticle extends AbstractVerticle {
                                 .mapEmpty();
                     }
 
+                    // a pause or resume by hand takes the file out of the governor's hands
+                    throttledDownloads.remove(fileId);
                     return client.execute(new TdApi.ToggleDownloadIsPaused(fileId, isPaused));
                 })
                 .mapEmpty();
@@ -454,6 +482,7 @@ public class TelegramVerticle extends AbstractVerticle {
                     return Future.succeededFuture(file);
                 })
                 .compose(file -> DataVerticle.fileRepository.deleteByUniqueId(uniqueId).map(file))
+                .onSuccess(_ -> fileDownloadStatusCache.invalidate(uniqueId))
                 .onSuccess(_ -> sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                         .put("fileId", fileId)
                         .put("uniqueId", uniqueId)
@@ -512,6 +541,9 @@ public class TelegramVerticle extends AbstractVerticle {
             );
 
             jsonObject.put("speedStats", avgSpeed.getSpeedStats());
+            jsonObject.put("statusCache", fileDownloadStatusCache.getStats());
+            jsonObject.put("slotStats", downloadSlots.getStats());
+            jsonObject.put("bandwidth", bandwidthGovernor.getStats());
             return jsonObject;
         });
     }
@@ -650,6 +682,21 @@ public class TelegramVerticle extends AbstractVerticle {
                 JsonObject.of("telegramId", this.getId(), "payload", JsonObject.mapFrom(payload)));
     }
 
+    /**
+     * Send an event of TDLib about a file with the chat of the file, TDLib doesn't tell it,
+     * so the websocket sessions subscribed to the chat receive it.
+     *
+     * @param chatId 0 if unknown
+     */
+    private void sendFileEvent(EventPayload payload, long chatId) {
+        JsonObject json = JsonObject.mapFrom(payload);
+        if (chatId != 0) {
+            json.getJsonObject("data").put("chatId", Long.toString(chatId));
+        }
+        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
+                JsonObject.of("telegramId", this.getId(), "payload", json));
+    }
+
     private void sendFileStatusHttpEvent(TdApi.File file, JsonObject fileUpdated) {
         if (fileUpdated == null || fileUpdated.isEmpty()) return;
 
@@ -660,6 +707,10 @@ public class TelegramVerticle extends AbstractVerticle {
                 .put("localPath", fileUpdated.getString("localPath"))
                 .put("completionDate", fileUpdated.getLong("completionDate"))
                 .put("downloadedSize", file.local.downloadedSize);
+        long chatId = fileDownloadStatusCache.getChatId(file.remote.uniqueId);
+        if (chatId != 0) {
+            statusData.put("chatId", Long.toString(chatId));
+        }
 
         // 如果文件下载完成，尝试获取并包含缩略图文件信息
         if ("completed".equals(fileUpdated.getString("downloadStatus"))) {
@@ -803,6 +854,7 @@ public class TelegramVerticle extends AbstractVerticle {
                             )
                             .onSuccess(o -> {
                                 telegramRecord = o;
+                                TelegramVerticles.onTelegramRecordUpdated(this);
                                 log.info("[%s] %s Authorization Ready".formatted(getRootId(), this.telegramRecord.firstName()));
                             })
                             .onFailure(e -> log.error("[%s] Authorization Ready, but failed to create telegram record: %s".formatted(getRootId(), e.getMessage())));
@@ -810,6 +862,7 @@ public class TelegramVerticle extends AbstractVerticle {
                     log.info("[%s] %s Authorization Ready".formatted(getRootId(), this.telegramRecord.firstName()));
                 }
                 sendEvent(EventPayload.build(EventPayload.TYPE_AUTHORIZATION, authorizationState));
+                recoverThrottledDownloads("");
                 telegramChats.loadMainChatList();
                 telegramChats.loadArchivedChatList();
                 break;
@@ -839,38 +892,30 @@ public class TelegramVerticle extends AbstractVerticle {
         log.trace("📃[%s] Receive file update: %s".formatted(getRootId(), updateFile));
         TdApi.File file = updateFile.file;
         if (file != null) {
-            String localPath = null;
-            Long completionDate = null;
-            if (file.local != null && file.local.isDownloadingCompleted) {
-                localPath = file.local.path;
-                completionDate = System.currentTimeMillis();
+            // a file paused by the governor keeps its slot and its stored downloading status
+            boolean throttled = file.local != null && !file.local.isDownloadingCompleted && throttledDownloads.contains(file.id);
+            if (!throttled || file.local.isDownloadingActive) {
+                // Stored status is reconciled by the cache and written on its next flush
+                fileDownloadStatusCache.offer(file);
+            }
+
+            if (file.local != null) {
+                if (file.local.isDownloadingActive) {
+                    activeDownloads.add(file.id);
+                } else {
+                    activeDownloads.remove(file.id);
+                }
+            }
+            if (file.local != null
+                && !throttled
+                && downloadSlots.onFileUpdated(file.id, file.local.isDownloadingActive, file.local.isDownloadingCompleted)
+                && telegramRecord != null) {
+                vertx.eventBus().publish(EventEnum.DOWNLOAD_SLOT_RELEASED.address(), telegramRecord.id());
             }
-            String finalLocalPath = localPath;
-            Long finalCompletionDate = completionDate;
-            DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)
-                    .onSuccess(fileRecord -> {
-                        FileRecord.DownloadStatus downloadStatus = TdApiHelp.getDownloadStatus(file);
-
-                        if (fileRecord != null) {
-                            if (fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed) &&
-                                fileRecord.isTransferStatus(FileRecord.TransferStatus.completed) &&
-                                FileUtil.exist(fileRecord.localPath())) {
-                                return;
-                            }
-                            if (downloadStatus == null) {
-                                downloadStatus = FileRecord.DownloadStatus.idle;
-                            }
-                            DataVerticle.fileRepository.updateDownloadStatus(file.id,
-                                            file.remote.uniqueId,
-                                            finalLocalPath,
-                                            downloadStatus,
-                                            finalCompletionDate)
-                                    .onSuccess(r -> sendFileStatusHttpEvent(file, r));
-                        }
-                    });
 
-            if (completionDate != null || lastFileEventTime == 0 || System.currentTimeMillis() - lastFileEventTime > 1000) {
-                sendEvent(EventPayload.build(EventPayload.TYPE_FILE, updateFile));
+            boolean completed = file.local != null && file.local.isDownloadingCompleted;
+            if (completed || lastFileEventTime == 0 || System.currentTimeMillis() - lastFileEventTime > 1000) {
+                sendFileEvent(EventPayload.build(EventPayload.TYPE_FILE, updateFile), fileDownloadStatusCache.getChatId(file.remote.uniqueId));
                 lastFileEventTime = System.currentTimeMillis();
             }
         }
@@ -879,12 +924,82 @@ public class TelegramVerticle extends AbstractVerticle {
     private void onFileDownloadsUpdated(TdApi.UpdateFileDownloads updateFileDownloads) {
         log.trace("[%s] Receive file downloads update: %s".formatted(getRootId(), updateFileDownloads));
         avgSpeed.update(updateFileDownloads.downloadedSize, System.currentTimeMillis());
+        bandwidthGovernor.onDownloaded(updateFileDownloads.downloadedSize, System.currentTimeMillis());
+        applyBandwidthAction(bandwidthGovernor.tick(System.currentTimeMillis()));
         if (lastFileDownloadEventTime == 0 || System.currentTimeMillis() - lastFileDownloadEventTime > 1000) {
             sendEvent(EventPayload.build(EventPayload.TYPE_FILE_DOWNLOAD, updateFileDownloads));
             lastFileDownloadEventTime = System.currentTimeMillis();
         }
     }
 
+    public boolean isThrottled() {
+        return bandwidthGovernor.isPaused();
+    }
+
+    /**
+     * Files TDLib reports downloading, whether or not auto download started them.
+     */
+    public Set<Integer> getActiveDownloads() {
+        return Set.copyOf(activeDownloads);
+    }
+
+    private void applyBandwidthAction(BandwidthGovernor.Action action) {
+        switch (action) {
+            case PAUSE -> {
+                log.debug("[%s] Download bandwidth exceeded, pause %d downloads".formatted(getRootId(), activeDownloads.size()));
+                for (Integer fileId : activeDownloads) {
+                    throttledDownloads.add(fileId);
+                    client.execute(new TdApi.ToggleDownloadIsPaused(fileId, true))
+                            .onFailure(e -> throttledDownloads.remove(fileId));
+                }
+            }
+            case RESUME -> resumeThrottledDownloads();
+            default -> {
+            }
+        }
+    }
+
+    private void resumeThrottledDownloads() {
+        log.debug("[%s] Download bandwidth available, resume %d downloads".formatted(getRootId(), throttledDownloads.size()));
+        for (Integer fileId : throttledDownloads) {
+            client.execute(new TdApi.ToggleDownloadIsPaused(fileId, false))
+                    .onComplete(_ -> throttledDownloads.remove(fileId));
+        }
+    }
+
+    /**
+     * TDLib keeps the downloads paused by the governor paused across a restart, while the governor forgot them.
+     * They are told from the downloads paused by hand by their stored status, which a governor pause leaves downloading,
+     * and handed back to the governor.
+     */
+    private void recoverThrottledDownloads(String offset) {
+        client.execute(new TdApi.SearchFileDownloads("", false, false, offset, 100))
+                .compose(found -> {
+                    // uniqueId -> fileId
+                    Map<String, Integer> paused = new HashMap<>();
+                    for (TdApi.FileDownload fileDownload : found.files) {
+                        if (fileDownload.isPaused
+                            && fileDownload.completeDate == 0
+                            && Objects.equals(TdApiHelp.getFileId(fileDownload.message), fileDownload.fileId)) {
+                            paused.put(TdApiHelp.getFileUniqueId(fileDownload.message), fileDownload.fileId);
+                        }
+                    }
+                    return DataVerticle.fileRepository.getFilesByUniqueId(new ArrayList<>(paused.keySet()))
+                            .onSuccess(fileRecords -> fileRecords.values().stream()
+                                    .filter(fileRecord -> fileRecord.isDownloadStatus(FileRecord.DownloadStatus.downloading))
+                                    .forEach(fileRecord -> throttledDownloads.add(paused.get(fileRecord.uniqueId()))))
+                            .map(found.nextOffset);
+                })
+                .onSuccess(nextOffset -> {
+                    if (StrUtil.isNotBlank(nextOffset)) {
+                        recoverThrottledDownloads(nextOffset);
+                    } else if (!throttledDownloads.isEmpty() && !bandwidthGovernor.isPaused()) {
+                        resumeThrottledDownloads();
+                    }
+                })
+                .onFailure(e -> log.error("[%s] Failed to recover throttled downloads: %s".formatted(getRootId(), e.getMessage())));
+    }
+
     private void onMessageReceived(TdApi.Message message) {
         log.trace("[%s] Receive message: %s".formatted(getRootId(), message));
         if (this.telegramRecord == null) {
@@ -931,6 +1046,7 @@ public class TelegramVerticle extends AbstractVerticle {
                             ));
                 })
                 .compose(r -> {
+                    fileDownloadStatusCache.invalidate(file.remote.uniqueId);
                     sendFileStatusHttpEvent(file, r);
                     if (r == null || r.isEmpty()) {
                         return Future.failedFuture("File is downloaded completed, but update status failed");
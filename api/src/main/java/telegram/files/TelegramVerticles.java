@@ -1,9 +1,7 @@
 package telegram.files;
 
 import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.convert.Convert;
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.NumberUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import io.vertx.core.Future;
@@ -14,13 +12,22 @@ import telegram.files.repository.TelegramRecord;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Registry of the deployed telegram verticles, indexed by root id and by telegram id once the account is authorized.
+ * Lookups are lock-free, add/remove are synchronized and publish a new snapshot for {@link #getAll()}.
+ */
 public class TelegramVerticles {
     private static final Log log = LogFactory.get();
 
-    private static final List<TelegramVerticle> telegramVerticles = new ArrayList<>();
+    private static final Map<String, TelegramVerticle> byRootId = new ConcurrentHashMap<>();
+
+    private static final Map<Long, TelegramVerticle> byTelegramId = new ConcurrentHashMap<>();
+
+    private static volatile List<TelegramVerticle> telegramVerticles = List.of();
 
     public static Future<Void> initTelegramVerticles(Vertx vertx) {
         return DataVerticle.telegramRepository.getAll()
@@ -38,7 +45,7 @@ public class TelegramVerticles {
                         if (!telegramVerticle.check()) {
                             continue;
                         }
-                        telegramVerticles.add(telegramVerticle);
+                        add(telegramVerticle);
                         futures.add(vertx.deployVerticle(telegramVerticle));
                     }
                     if (CollUtil.isNotEmpty(uncertifiedPaths)) {
@@ -47,7 +54,7 @@ public class TelegramVerticles {
                             if (!telegramVerticle.check()) {
                                 continue;
                             }
-                            telegramVerticles.add(telegramVerticle);
+                            add(telegramVerticle);
                             futures.add(vertx.deployVerticle(telegramVerticle));
                         }
                     }
@@ -58,23 +65,60 @@ public class TelegramVerticles {
                 .mapEmpty();
     }
 
-    public static void add(TelegramVerticle telegramVerticle) {
-        telegramVerticles.add(telegramVerticle);
+    public static synchronized void add(TelegramVerticle telegramVerticle) {
+        TelegramVerticle previous = byRootId.put(telegramVerticle.getRootId(), telegramVerticle);
+        List<TelegramVerticle> all = new ArrayList<>(telegramVerticles);
+        if (previous != null) {
+            all.remove(previous);
+            removeTelegramId(previous);
+        }
+        all.add(telegramVerticle);
+        telegramVerticles = List.copyOf(all);
+        onTelegramRecordUpdated(telegramVerticle);
+    }
+
+    public static synchronized void remove(TelegramVerticle telegramVerticle) {
+        if (!byRootId.remove(telegramVerticle.getRootId(), telegramVerticle)) {
+            return;
+        }
+        removeTelegramId(telegramVerticle);
+        List<TelegramVerticle> all = new ArrayList<>(telegramVerticles);
+        all.remove(telegramVerticle);
+        telegramVerticles = List.copyOf(all);
     }
 
-    public static void remove(TelegramVerticle telegramVerticle) {
-        telegramVerticles.remove(telegramVerticle);
+    /**
+     * Index the verticle by its telegram id, called when the account gets its telegram record after authorization.
+     */
+    public static synchronized void onTelegramRecordUpdated(TelegramVerticle telegramVerticle) {
+        if (telegramVerticle.telegramRecord != null && byRootId.get(telegramVerticle.getRootId()) == telegramVerticle) {
+            byTelegramId.put(telegramVerticle.telegramRecord.id(), telegramVerticle);
+        }
     }
 
+    private static void removeTelegramId(TelegramVerticle telegramVerticle) {
+        if (telegramVerticle.telegramRecord != null) {
+            byTelegramId.remove(telegramVerticle.telegramRecord.id(), telegramVerticle);
+        }
+    }
+
+    /**
+     * @return an immutable snapshot of the verticles in the order they were added
+     */
     public static List<TelegramVerticle> getAll() {
         return telegramVerticles;
     }
 
+    /**
+     * @param telegramId telegram id of an authorized account, or root id of an account that is not authorized yet
+     */
     public static Optional<TelegramVerticle> get(String telegramId) {
-        Object id = NumberUtil.isNumber(telegramId) ? Convert.toLong(telegramId) : telegramId;
-        return telegramVerticles.stream()
-                .filter(t -> Objects.equals(t.getId(), id))
-                .findFirst();
+        if (isTelegramId(telegramId)) {
+            return get(Long.parseLong(telegramId));
+        }
+        return Optional.ofNullable(telegramId)
+                .map(byRootId::get)
+                .filter(t -> t.telegramRecord == null);
     }
 
     public static TelegramVerticle getOrElseThrow(String telegramId) {
@@ -83,13 +127,28 @@ public class TelegramVerticles {
     }
 
     public static Optional<TelegramVerticle> get(long telegramId) {
-        return telegramVerticles.stream()
-                .filter(t -> t.telegramRecord != null && t.telegramRecord.id() == telegramId)
-                .findFirst();
+        return Optional.ofNullable(byTelegramId.get(telegramId));
     }
 
     public static TelegramVerticle getOrElseThrow(long telegramId) {
         return get(telegramId)
                 .orElseThrow(() -> VertxException.noStackTrace("Telegram account not found!"));
     }
+
+    private static boolean isTelegramId(String s) {
+        if (s == null || s.isEmpty()) {
+            return false;
+        }
+        int start = s.charAt(0) == '-' ? 1 : 0;
+        // at most 18 digits, always fits in a long
+        if (s.length() == start || s.length() - start > 18) {
+            return false;
+        }
+        for (int i = start; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
 }
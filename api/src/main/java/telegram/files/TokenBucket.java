@@ -0,0 +1,95 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Token bucket of download bytes. Bytes are counted after they are downloaded,
+ * so the tokens go negative when the downloads run ahead of the rate and the downloads have to pause until they refill.
+ * Also measures the actual rate per second.
+ */
+public class TokenBucket {
+
+    // Burst allowance, in seconds of the rate
+    private static final int BURST_SECONDS = 2;
+
+    private static final int RATE_WINDOW = 1000;
+
+    private long rate;
+
+    private double tokens;
+
+    private long lastRefillTime;
+
+    private long windowBytes;
+
+    private long windowStartTime;
+
+    private long measuredRate;
+
+    /**
+     * A bucket starts full when a limit is set, the bytes downloaded without limit are not held against it.
+     *
+     * @param rate bytes per second, 0 for no limit
+     */
+    public synchronized void setRate(long rate) {
+        if (this.rate != rate) {
+            boolean limited = this.rate > 0;
+            this.rate = rate;
+            this.tokens = limited ? Math.min(tokens, capacity()) : capacity();
+        }
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized void consume(long bytes, long now) {
+        refill(now);
+        tokens -= bytes;
+        windowBytes += bytes;
+    }
+
+    public synchronized void refill(long now) {
+        if (lastRefillTime != 0 && now > lastRefillTime) {
+            tokens = Math.min(capacity(), tokens + rate * (now - lastRefillTime) / 1000.0);
+        }
+        lastRefillTime = Math.max(lastRefillTime, now);
+
+        if (windowStartTime == 0) {
+            windowStartTime = now;
+        } else if (now - windowStartTime >= RATE_WINDOW) {
+            measuredRate = windowBytes * 1000 / (now - windowStartTime);
+            windowBytes = 0;
+            windowStartTime = now;
+        }
+    }
+
+    /**
+     * @return whether the downloads have to pause, never with no limit
+     */
+    public synchronized boolean isExhausted() {
+        return rate > 0 && tokens <= 0;
+    }
+
+    /**
+     * @return whether paused downloads can resume, half of the burst must have refilled to avoid flapping
+     */
+    public synchronized boolean canResume() {
+        return rate <= 0 || tokens >= capacity() / 2.0;
+    }
+
+    public synchronized long getMeasuredRate() {
+        return measuredRate;
+    }
+
+    private double capacity() {
+        return (double) rate * BURST_SECONDS;
+    }
+
+    public synchronized JsonObject getStats() {
+        return JsonObject.of()
+                .put("rate", measuredRate)
+                .put("limit", rate)
+                .put("tokens", (long) tokens);
+    }
+}
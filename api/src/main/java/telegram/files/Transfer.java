@@ -2,31 +2,33 @@ package telegram.files;
 
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.text.StrFormatter;
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import com.fasterxml.jackson.annotation.JsonClassDescription;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyDescription;
-import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
-import com.openai.models.chat.completions.ChatCompletionCreateParams;
-import com.openai.models.chat.completions.StructuredChatCompletionCreateParams;
 import io.vertx.core.json.JsonObject;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
 
 import java.io.File;
 import java.nio.file.Path;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public abstract class Transfer {
 
     private static final Log log = LogFactory.get();
 
+    private static final int RESERVE_RETRY_INTERVAL = 100;
+
+    // transfer paths being written by the workers, across all transfers
+    private static final Set<String> reservedPaths = ConcurrentHashMap.newKeySet();
+
     public String destination;
 
     public TransferPolicy transferPolicy;
@@ -39,7 +41,17 @@ public abstract class Transfer {
 
     public Consumer<TransferStatusUpdated> transferStatusUpdated;
 
-    private FileRecord transferRecord;
+    /**
+     * Bytes copied of a file moved to another file system, null to not report them
+     */
+    public Consumer<TransferProgress> transferProgress;
+
+    /**
+     * Links transfers of already stored content, null to always move the file
+     */
+    public ContentStore contentStore;
+
+    private final Set<FileRecord> transferRecords = ConcurrentHashMap.newKeySet();
 
     public Transfer(SettingAutoRecords.TransferRule transferRule) {
         this.destination = transferRule.destination;
@@ -66,64 +78,98 @@ public abstract class Transfer {
                || !Objects.equals(this.extra, transferRule.extra);
     }
 
-    public void transfer(FileRecord fileRecord) {
+    /**
+     * Move the file to its transfer path, files of one transfer may be transferred by several workers at the same time.
+     *
+     * @return the final transfer status of the file
+     */
+    public FileRecord.TransferStatus transfer(FileRecord fileRecord) {
         log.debug("Start transfer file {}", fileRecord.id());
-        transferRecord = fileRecord;
+        transferRecords.add(fileRecord);
         transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.transferring, null));
+        String reservedPath = null;
         try {
             File originFile = new File(fileRecord.localPath());
             if (!originFile.exists()) {
                 log.error("File {} not found: {}", fileRecord.id(), fileRecord.localPath());
                 transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
-                return;
+                return FileRecord.TransferStatus.error;
             }
 
             String transferPath = getTransferPath(fileRecord);
             boolean isOverwrite = false;
-            if (FileUtil.exist(transferPath)) {
-                if (duplicationPolicy == DuplicationPolicy.SKIP) {
-                    log.trace("Skip file {}", fileRecord.id());
-                    transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.idle, null));
-                    return;
-                }
-
-                if (duplicationPolicy == DuplicationPolicy.OVERWRITE) {
-                    log.trace("Overwrite file {}", fileRecord.id());
-                    isOverwrite = true;
-                }
+            // another worker may be moving a file to the same path, the path is decided again until it is reserved
+            while (true) {
+                if (isTaken(transferPath)) {
+                    if (duplicationPolicy == DuplicationPolicy.SKIP) {
+                        log.trace("Skip file {}", fileRecord.id());
+                        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.idle, null));
+                        return FileRecord.TransferStatus.idle;
+                    }
 
-                if (duplicationPolicy == DuplicationPolicy.RENAME) {
-                    transferPath = getUniquePath(transferPath);
-                    log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
-                }
+                    if (duplicationPolicy == DuplicationPolicy.OVERWRITE) {
+                        log.trace("Overwrite file {}", fileRecord.id());
+                        isOverwrite = true;
+                    }
 
-                if (duplicationPolicy == DuplicationPolicy.HASH) {
-                    if (MessyUtils.compareFilesMD5(FileUtil.file(fileRecord.localPath()), FileUtil.file(transferPath))) {
-                        log.trace("File {} is the same as {}", fileRecord.id(), transferPath);
-                        FileUtil.del(fileRecord.localPath());
-                        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
-                        return;
-                    } else {
+                    if (duplicationPolicy == DuplicationPolicy.RENAME) {
                         transferPath = getUniquePath(transferPath);
                         log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
                     }
+
+                    if (duplicationPolicy == DuplicationPolicy.HASH) {
+                        if (FileHasher.INSTANCE.isSameContent(FileUtil.file(fileRecord.localPath()), FileUtil.file(transferPath), Config.HASH_ALGORITHM)) {
+                            log.trace("File {} is the same as {}", fileRecord.id(), transferPath);
+                            FileUtil.del(fileRecord.localPath());
+                            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
+                            return FileRecord.TransferStatus.completed;
+                        } else {
+                            transferPath = getUniquePath(transferPath);
+                            log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
+                        }
+                    }
                 }
+                if (reservedPaths.add(transferPath)) {
+                    reservedPath = transferPath;
+                    break;
+                }
+                ThreadUtil.sleep(RESERVE_RETRY_INTERVAL);
             }
 
-            FileUtil.move(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite);
-            log.info("Transfer file {} to {}, duplication policy: {} overwrite: {}", fileRecord.id(), transferPath, duplicationPolicy, isOverwrite);
+            if (!isOverwrite && contentStore != null && contentStore.link(fileRecord, Path.of(transferPath))) {
+                FileUtil.del(fileRecord.localPath());
+                log.info("Transfer file {} to {} as a link to a stored copy", fileRecord.id(), transferPath);
+            } else {
+                FileMover.Result result = FileMover.INSTANCE.move(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite,
+                        transferProgress == null ? null : (transferredSize, totalSize) ->
+                                transferProgress.accept(new TransferProgress(fileRecord, transferredSize, totalSize)));
+                log.info("Transfer file {} to {}, duplication policy: {} overwrite: {} renamed: {} resumed: {}",
+                        fileRecord.id(), transferPath, duplicationPolicy, isOverwrite, result.renamed(), result.resumed());
+                if (contentStore != null) {
+                    contentStore.moved(fileRecord, transferPath);
+                }
+            }
 
             transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
+            return FileRecord.TransferStatus.completed;
         } catch (Exception e) {
             log.error(e, "Transfer file {} error", fileRecord.id());
             transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
+            return FileRecord.TransferStatus.error;
         } finally {
-            transferRecord = null;
+            transferRecords.remove(fileRecord);
+            if (reservedPath != null) {
+                reservedPaths.remove(reservedPath);
+            }
         }
     }
 
+    private static boolean isTaken(String path) {
+        return reservedPaths.contains(path) || FileUtil.exist(path);
+    }
+
     private String getUniquePath(String path) {
-        if (!FileUtil.exist(path)) {
+        if (!isTaken(path)) {
             return path;
         }
         String name = FileUtil.getName(path);
@@ -131,14 +177,14 @@ public abstract class Transfer {
         String extension = FileUtil.extName(name);
         String baseName = FileUtil.mainName(name);
         int i = 1;
-        while (FileUtil.exists(Path.of(parent, "%s-%d.%s".formatted(baseName, i, extension)), false)) {
+        while (isTaken(Path.of(parent, "%s-%d.%s".formatted(baseName, i, extension)).toString())) {
             i++;
         }
         return Path.of(parent, "%s-%d.%s".formatted(baseName, i, extension)).toString();
     }
 
-    public FileRecord getTransferRecord() {
-        return transferRecord;
+    public Set<FileRecord> getTransferRecords() {
+        return transferRecords;
     }
 
     protected abstract String getTransferPath(FileRecord fileRecord);
@@ -177,37 +223,26 @@ public abstract class Transfer {
     }
 
     static class GroupByAI extends Transfer {
-        private final OpenAIClient client;
+        private final AIClassifier classifier;
 
         private final String promptTemplate;
 
         public GroupByAI(SettingAutoRecords.TransferRule transferRule) {
+            this(transferRule, AIClassifier.get());
+        }
+
+        GroupByAI(SettingAutoRecords.TransferRule transferRule, AIClassifier classifier) {
             super(transferRule);
             promptTemplate = extra.getString("promptTemplate");
             if (StrUtil.isBlank(promptTemplate)) {
                 throw new IllegalArgumentException("Prompt template is required for AI classification transfer policy");
             }
-            client = OpenAIOkHttpClient.fromEnv();
+            this.classifier = classifier;
         }
 
         @Override
         protected String getTransferPath(FileRecord fileRecord) {
-            Map<String, Object> fileMap = FileRecord.toMap(fileRecord);
-            String prompt = StrFormatter.format(promptTemplate, fileMap, false);
-            StructuredChatCompletionCreateParams<AIClassificationResult> createParams = ChatCompletionCreateParams.builder()
-                    .model(Config.OPENAI_MODEL)
-                    .responseFormat(AIClassificationResult.class)
-                    .addUserMessage(prompt)
-                    .build();
-
-            AIClassificationResult result = client.chat().completions().create(createParams).choices().stream()
-                    .flatMap(choice -> choice.message().content().stream())
-                    .findFirst()
-                    .orElseThrow(() -> new IllegalStateException("No classification result from AI"));
-            if (StrUtil.isBlank(result.path)) {
-                throw new IllegalStateException("Invalid classification result from AI: " + result);
-            }
-            log.debug("File {} classified to {} by AI, reason: {}", fileRecord.id(), result.path, result.reason);
+            AIClassificationResult result = classifier.classify(fileRecord, promptTemplate);
             String name = FileUtil.getName(fileRecord.localPath());
             // Check if the path contains file extension
             if (StrUtil.isNotBlank(FileUtil.extName(result.path))) {
@@ -240,6 +275,11 @@ public abstract class Transfer {
                                         String localPath) {
     }
 
+    public record TransferProgress(FileRecord fileRecord,
+                                   long transferredSize,
+                                   long totalSize) {
+    }
+
     public enum TransferPolicy {
         /**
          * Transfer files to the specified destination without grouping
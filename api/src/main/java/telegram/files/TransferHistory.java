@@ -0,0 +1,109 @@
+package telegram.files;
+
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+
+import java.util.*;
+
+/**
+ * Passes of the transfer over the history files of the automations.
+ * A pass pages the idle files by keyset, once its files are done the history is read again from the start only if the pass transferred one,
+ * otherwise the history is complete. Files the transfer left idle, e.g. skipped as duplicates, are not queued again until then.
+ * <p>
+ * Not thread safe, used on the context of the transfer verticle.
+ */
+class TransferHistory {
+
+    enum End {
+        /**
+         * No file of the history is left to transfer
+         */
+        COMPLETE,
+        /**
+         * Files were transferred, read the history again for the files they left behind
+         */
+        RESCAN,
+        /**
+         * Files of the pass are still waiting or transferring
+         */
+        WAIT,
+    }
+
+    private static class Pass {
+        FileRepository.FileKey cursor = FileRepository.FileKey.FIRST;
+
+        boolean transferred;
+
+        // files queued by the pass whose transfer isn't done yet
+        final Set<String> pending = new HashSet<>();
+    }
+
+    // automation unique key -> current pass
+    private final Map<String, Pass> passes = new HashMap<>();
+
+    // automation unique key -> files left idle by the transfer
+    private final Map<String, Set<String>> skipped = new HashMap<>();
+
+    /**
+     * @return key of the last history file read, {@link FileRepository.FileKey#FIRST} to start a pass
+     */
+    FileRepository.FileKey cursor(String automationKey) {
+        Pass pass = passes.get(automationKey);
+        return pass == null ? FileRepository.FileKey.FIRST : pass.cursor;
+    }
+
+    /**
+     * Move the pass past a page of history files.
+     *
+     * @param telegramId account of the automation, the chat may be stored by other accounts too
+     * @return files of the page to queue
+     */
+    List<FileRecord> accept(String automationKey, long telegramId, List<FileRecord> page) {
+        Pass pass = passes.computeIfAbsent(automationKey, _ -> new Pass());
+        if (!page.isEmpty()) {
+            pass.cursor = FileRepository.FileKey.of(page.getLast());
+        }
+        Set<String> skippedFiles = skipped.getOrDefault(automationKey, Set.of());
+        List<FileRecord> files = page.stream()
+                .filter(f -> f.telegramId() == telegramId && !skippedFiles.contains(f.uniqueId()))
+                .toList();
+        files.forEach(f -> pass.pending.add(f.uniqueId()));
+        return files;
+    }
+
+    /**
+     * @param transferStatus final transfer status of the file, idle if it was skipped, null if it was not ready
+     */
+    void onTransferred(String automationKey, String uniqueId, FileRecord.TransferStatus transferStatus) {
+        Pass pass = passes.get(automationKey);
+        boolean pending = pass != null && pass.pending.remove(uniqueId);
+        if (transferStatus == FileRecord.TransferStatus.completed) {
+            if (pending) {
+                pass.transferred = true;
+            }
+        } else if (transferStatus == null || transferStatus == FileRecord.TransferStatus.idle) {
+            skipped.computeIfAbsent(automationKey, _ -> new HashSet<>()).add(uniqueId);
+        }
+    }
+
+    /**
+     * Called when the pass read an empty page.
+     */
+    End end(String automationKey) {
+        Pass pass = passes.get(automationKey);
+        if (pass != null && !pass.pending.isEmpty()) {
+            return End.WAIT;
+        }
+        passes.remove(automationKey);
+        if (pass != null && pass.transferred) {
+            return End.RESCAN;
+        }
+        skipped.remove(automationKey);
+        return End.COMPLETE;
+    }
+
+    void remove(String automationKey) {
+        passes.remove(automationKey);
+        skipped.remove(automationKey);
+    }
+}
@@ -1,6 +1,7 @@
 package telegram.files;
 
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
@@ -10,52 +11,77 @@ import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
 import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
 import telegram.files.repository.SettingAutoRecords;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TransferVerticle extends AbstractVerticle {
     private static final Log log = LogFactory.get();
 
-    private static final int HISTORY_SCAN_INTERVAL = 2 * 60 * 1000;
-
     private static final int TRANSFER_INTERVAL = 3 * 1000;
 
+    // history files read at once for an automation, enough to keep every worker busy for a few rounds
+    private static final int HISTORY_PAGE_SIZE = Config.TRANSFER_WORKERS * 4;
+
+    // the next history page of an automation is read once fewer files than this are waiting
+    private static final int HISTORY_LOW_WATER_MARK = Config.TRANSFER_WORKERS;
+
     private final SettingAutoRecords autoRecords;
 
     private final Map<String, Transfer> transfers = new HashMap<>();
 
-    private final BlockingQueue<WaitingTransferFile> waitingTransferFiles = new LinkedBlockingQueue<>();
+    // automation unique key -> files waiting for a worker, in arrival order
+    private final Map<String, LinkedHashSet<WaitingTransferFile>> waitingTransferFiles = new LinkedHashMap<>();
 
-    private volatile boolean isStopped = false;
+    private final TransferWorkers workers = new TransferWorkers(Config.TRANSFER_WORKERS, Config.TRANSFER_DESTINATION_CONCURRENCY);
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("transfer-worker-", 0).factory());
 
-    private volatile Transfer beingTransferred;
+    // only used on the verticle context
+    private final TransferHistory history = new TransferHistory();
+
+    private boolean historyLoading = false;
+
+    private volatile boolean isStopped = false;
 
     public TransferVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
         AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item -> {
-            waitingTransferFiles.removeIf(waitingTransferFile -> waitingTransferFile.uniqueId().equals(item.uniqueKey()));
+            synchronized (waitingTransferFiles) {
+                waitingTransferFiles.remove(item.uniqueKey());
+            }
             transfers.remove(item.uniqueKey());
+            workers.remove(item.uniqueKey());
+            context.runOnContext(_ -> history.remove(item.uniqueKey()));
         }));
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
+        Metrics.gauge("telegram_files_transfer_queue_size", "Files waiting for the transfer", null,
+                () -> Map.of("", waitingSize()));
+        Metrics.gauge("telegram_files_transfer_workers_active", "Transfer workers busy", null,
+                () -> Map.of("", workers.active()));
         initEventConsumer().onSuccess(_ -> {
-            vertx.setPeriodic(0, HISTORY_SCAN_INTERVAL, _ -> addHistoryFiles());
-            vertx.setPeriodic(0, TRANSFER_INTERVAL, _ -> startTransfer());
+            addInterruptedFiles();
+            // workers pull the next file and refill the history as soon as they are done,
+            // the interval only picks up what was missed, e.g. automations enabled since
+            vertx.setPeriodic(0, TRANSFER_INTERVAL, _ -> {
+                addHistoryFiles();
+                startTransfer();
+            });
 
             log.info("""
                     Transfer verticle started!
-                    |History scan interval: %s ms
                     |Transfer interval: %s ms
+                    |History page size: %s, refilled below: %s
+                    |Transfer workers: %s, per destination: %s
                     |Auto chats: %s
-                    """.formatted(HISTORY_SCAN_INTERVAL, TRANSFER_INTERVAL, autoRecords.getTransferEnabledItems().size()));
+                    """.formatted(TRANSFER_INTERVAL, HISTORY_PAGE_SIZE, HISTORY_LOW_WATER_MARK, Config.TRANSFER_WORKERS,
+                    Config.TRANSFER_DESTINATION_CONCURRENCY, autoRecords.getTransferEnabledItems().size()));
 
             startPromise.complete();
         }).onFailure(startPromise::fail);
@@ -64,17 +90,22 @@ public class TransferVerticle extends AbstractVerticle {
     @Override
     public void stop(Promise<Void> stopPromise) {
         isStopped = true;
-        if (beingTransferred != null) {
-            log.info("Wait for transfer to complete, file: %s".formatted(beingTransferred.getTransferRecord().uniqueId()));
-            while (beingTransferred != null) {
+        if (workers.active() > 0) {
+            log.info("Wait for transfer to complete, files: %s".formatted(transfers.values().stream()
+                    .flatMap(transfer -> transfer.getTransferRecords().stream())
+                    .map(FileRecord::uniqueId)
+                    .toList()));
+            while (workers.active() > 0) {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
                     log.error("Stop transfer verticle error: %s".formatted(e.getMessage()));
                     stopPromise.fail(e);
+                    return;
                 }
             }
         }
+        executor.shutdown();
         log.info("Transfer verticle stopped");
         stopPromise.complete();
     }
@@ -114,52 +145,112 @@ public class TransferVerticle extends AbstractVerticle {
 
                 if (addWaitingTransferFile(automation.telegramId, automation.chatId, fileRecord.uniqueId())) {
                     log.debug("Add file to transfer queue: %s".formatted(fileRecord.uniqueId()));
+                    startTransfer();
                 }
             }
         });
+        vertx.eventBus().consumer(EventEnum.TRANSFER_STATISTICS.address(), message -> {
+            JsonObject waiting = JsonObject.of();
+            synchronized (waitingTransferFiles) {
+                waitingTransferFiles.forEach((key, files) -> waiting.put(key, files.size()));
+            }
+            message.reply(workers.getStats().put("waiting", waiting));
+        });
 
         return Future.succeededFuture();
     }
 
+    /**
+     * Queue the next page of history files of the automations that have fewer than {@link #HISTORY_LOW_WATER_MARK} files waiting,
+     * see {@link TransferHistory} for when the history is read again and when it is complete.
+     */
     private void addHistoryFiles() {
-        if (CollUtil.isEmpty(autoRecords.automations)) {
+        List<SettingAutoRecords.Automation> automations = autoRecords.getTransferEnabledItems();
+        if (isStopped || historyLoading || CollUtil.isEmpty(automations)) {
             return;
         }
-        log.trace("Start scan history files for transfer");
-        for (SettingAutoRecords.Automation automation : autoRecords.automations) {
-            if (!automation.transfer.enabled
-                || !automation.transfer.rule.transferHistory
-                || automation.isComplete(SettingAutoRecords.HISTORY_TRANSFER_STATE)) {
-                continue;
+        historyLoading = true;
+        try {
+            int count = 0;
+            for (SettingAutoRecords.Automation automation : automations) {
+                if (!automation.transfer.rule.transferHistory
+                    || automation.isComplete(SettingAutoRecords.HISTORY_TRANSFER_STATE)
+                    || getTransfer(automation) == null
+                    || waitingSize(automation.uniqueKey()) >= HISTORY_LOW_WATER_MARK) {
+                    continue;
+                }
+                List<FileRecord> files = Future.await(DataVerticle.fileRepository.getFilesAfter(automation.chatId,
+                        Map.of("downloadStatus", FileRecord.DownloadStatus.completed.name(),
+                                "transferStatus", FileRecord.TransferStatus.idle.name()
+                        ),
+                        history.cursor(automation.uniqueKey()), HISTORY_PAGE_SIZE
+                ));
+                if (CollUtil.isEmpty(files)) {
+                    switch (history.end(automation.uniqueKey())) {
+                        case COMPLETE -> {
+                            log.debug("No history files left for transfer: %s".formatted(automation.uniqueKey()));
+                            automation.complete(SettingAutoRecords.HISTORY_TRANSFER_STATE);
+                        }
+                        case RESCAN -> log.debug("Read history files again for transfer: %s".formatted(automation.uniqueKey()));
+                        case WAIT -> {
+                        }
+                    }
+                    continue;
+                }
+                for (FileRecord fileRecord : history.accept(automation.uniqueKey(), automation.telegramId, files)) {
+                    if (addWaitingTransferFile(fileRecord)) {
+                        count++;
+                    }
+                }
             }
-            Transfer transfer = getTransfer(automation);
-            if (transfer == null) {
-                continue;
+
+            if (count > 0) {
+                log.debug("Add history files to transfer queue: %s".formatted(count));
+                startTransfer();
             }
-            Tuple3<List<FileRecord>, Long, Long> filesTuple = Future.await(DataVerticle.fileRepository.getFiles(automation.chatId,
-                    Map.of("downloadStatus", FileRecord.DownloadStatus.completed.name(),
-                            "transferStatus", FileRecord.TransferStatus.idle.name()
-                    )
-            ));
-            List<FileRecord> files = filesTuple.v1;
-            if (CollUtil.isEmpty(files)) {
-                log.debug("No history files found for transfer: %s".formatted(automation.uniqueKey()));
-                automation.complete(SettingAutoRecords.HISTORY_TRANSFER_STATE);
+        } finally {
+            historyLoading = false;
+        }
+    }
+
+    /**
+     * Files left transferring when the application stopped are transferred again,
+     * a copy to another file system resumes from its saved offset.
+     * All of them are reset to idle at once, also those of the chats no longer transferred, which would be stuck otherwise.
+     */
+    private void addInterruptedFiles() {
+        List<FileRecord> interruptedFiles = new ArrayList<>();
+        for (SettingAutoRecords.Automation automation : autoRecords.getTransferEnabledItems()) {
+            if (getTransfer(automation) == null) {
                 continue;
             }
-
-            int count = 0;
-            for (FileRecord fileRecord : files) {
-                if (addWaitingTransferFile(fileRecord)) {
-                    count++;
+            FileRepository.FileKey from = FileRepository.FileKey.FIRST;
+            List<FileRecord> files;
+            do {
+                files = Future.await(DataVerticle.fileRepository.getFilesAfter(automation.chatId,
+                        Map.of("downloadStatus", FileRecord.DownloadStatus.completed.name(),
+                                "transferStatus", FileRecord.TransferStatus.transferring.name()
+                        ),
+                        from, HISTORY_PAGE_SIZE
+                ));
+                interruptedFiles.addAll(files);
+                if (!files.isEmpty()) {
+                    from = FileRepository.FileKey.of(files.getLast());
                 }
-            }
+            } while (files.size() == HISTORY_PAGE_SIZE);
+        }
 
-            if (count > 0) {
-                log.info("Add history files to transfer queue: %s".formatted(count));
-                break;
+        int count = Future.await(DataVerticle.fileRepository.updateTransferStatus(FileRecord.TransferStatus.transferring, FileRecord.TransferStatus.idle));
+        if (count == 0) {
+            return;
+        }
+        int queued = 0;
+        for (FileRecord fileRecord : interruptedFiles) {
+            if (addWaitingTransferFile(fileRecord)) {
+                queued++;
             }
         }
+        log.info("Reset interrupted transfers: %s, add to transfer queue: %s".formatted(count, queued));
     }
 
     private boolean addWaitingTransferFile(FileRecord fileRecord) {
@@ -168,11 +259,52 @@ public class TransferVerticle extends AbstractVerticle {
 
     private boolean addWaitingTransferFile(long telegramId, long chatId, String uniqueId) {
         WaitingTransferFile waitingTransferFile = new WaitingTransferFile(telegramId, chatId, uniqueId);
-        if (!waitingTransferFiles.contains(waitingTransferFile)) {
-            waitingTransferFiles.add(waitingTransferFile);
-            return true;
+        synchronized (waitingTransferFiles) {
+            return waitingTransferFiles.computeIfAbsent(waitingTransferFile.automationKey(), _ -> new LinkedHashSet<>())
+                    .add(waitingTransferFile);
+        }
+    }
+
+    private int waitingSize() {
+        synchronized (waitingTransferFiles) {
+            return waitingTransferFiles.values().stream().mapToInt(Set::size).sum();
+        }
+    }
+
+    private int waitingSize(String automationKey) {
+        synchronized (waitingTransferFiles) {
+            Set<WaitingTransferFile> files = waitingTransferFiles.get(automationKey);
+            return files == null ? 0 : files.size();
+        }
+    }
+
+    /**
+     * Take the next file whose destination has a free worker, automations take turns so a long history
+     * of one chat doesn't hold back the others.
+     */
+    private TransferJob pollTransferJob() {
+        synchronized (waitingTransferFiles) {
+            Iterator<Map.Entry<String, LinkedHashSet<WaitingTransferFile>>> iterator = waitingTransferFiles.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, LinkedHashSet<WaitingTransferFile>> entry = iterator.next();
+                Transfer transfer = transfers.get(entry.getKey());
+                if (transfer == null || entry.getValue().isEmpty()) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!workers.acquire(entry.getKey(), transfer.destination)) {
+                    continue;
+                }
+                WaitingTransferFile waitingTransferFile = entry.getValue().removeFirst();
+                // move the automation to the end of the turn
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    waitingTransferFiles.put(entry.getKey(), entry.getValue());
+                }
+                return new TransferJob(entry.getKey(), transfer, waitingTransferFile);
+            }
+            return null;
         }
-        return false;
     }
 
     private Transfer getTransfer(SettingAutoRecords.Automation automation) {
@@ -196,72 +328,91 @@ public class TransferVerticle extends AbstractVerticle {
             Transfer transfer = Transfer.create(transferRule);
             transfer.transferStatusUpdated = updated ->
                     updateTransferStatus(updated.fileRecord(), updated.transferStatus(), updated.localPath());
+            transfer.contentStore = ContentStore.INSTANCE;
+            transfer.transferProgress = progress -> publishTransferProgress(progress.fileRecord(),
+                    progress.transferredSize(), progress.totalSize());
             return transfer;
         });
     }
 
+    /**
+     * Hand waiting files to the workers until they are all busy or no destination has room.
+     */
     public void startTransfer() {
-        if (beingTransferred != null) {
-            return;
-        }
-        try {
-            WaitingTransferFile waitingTransferFile = waitingTransferFiles.poll(1, TimeUnit.SECONDS);
-            if (waitingTransferFile == null) {
+        while (!isStopped && !workers.isFull()) {
+            TransferJob job = pollTransferJob();
+            if (job == null) {
                 log.trace("No file to transfer");
                 return;
             }
-            Transfer transfer = transfers.get("%d:%d".formatted(waitingTransferFile.telegramId(), waitingTransferFile.chatId()));
-            if (transfer == null) {
-                return;
-            }
-            if (beingTransferred == transfer) {
-                waitingTransferFiles.add(waitingTransferFile);
-                log.debug("Transfer is busy: %s".formatted(waitingTransferFile.uniqueId));
-                return;
-            }
-            FileRecord fileRecord = Future.await(DataVerticle.fileRepository.getByUniqueId(waitingTransferFile.uniqueId));
+            executor.execute(() -> runTransferJob(job));
+        }
+    }
+
+    private void runTransferJob(TransferJob job) {
+        FileRecord.TransferStatus transferStatus = null;
+        long bytes = 0;
+        try {
+            FileRecord fileRecord = DataVerticle.fileRepository.getByUniqueId(job.file().uniqueId())
+                    .toCompletionStage().toCompletableFuture().join();
             if (fileRecord == null) {
-                log.error("File not found: %s".formatted(waitingTransferFile.uniqueId));
+                log.error("File not found: %s".formatted(job.file().uniqueId()));
                 return;
             }
-
-            startTransfer(fileRecord, transfer);
+            bytes = StrUtil.isBlank(fileRecord.localPath()) ? 0 : FileUtil.size(FileUtil.file(fileRecord.localPath()));
+            transferStatus = startTransfer(fileRecord, job.transfer());
         } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                log.debug("Transfer loop interrupted");
-            } else {
-                log.error(e, "Transfer error");
+            log.error(e, "Transfer error");
+            transferStatus = FileRecord.TransferStatus.error;
+        } finally {
+            workers.release(job.automationKey(), job.transfer().destination, transferStatus, bytes);
+            if (transferStatus != null) {
+                Metrics.TRANSFER_FILES.labels(transferStatus.name()).increment();
+                if (transferStatus == FileRecord.TransferStatus.completed) {
+                    Metrics.TRANSFER_BYTES.labels(job.automationKey()).add(bytes);
+                }
             }
+            FileRecord.TransferStatus finalTransferStatus = transferStatus;
+            context.runOnContext(_ -> {
+                history.onTransferred(job.automationKey(), job.file().uniqueId(), finalTransferStatus);
+                addHistoryFiles();
+                startTransfer();
+            });
         }
     }
 
-    public void startTransfer(FileRecord fileRecord, Transfer transfer) {
+    /**
+     * @return the final transfer status, null if the file is not ready to transfer
+     */
+    public FileRecord.TransferStatus startTransfer(FileRecord fileRecord, Transfer transfer) {
         if (isStopped) {
-            return;
+            return null;
         }
         if (!fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)
             || StrUtil.isBlank(fileRecord.localPath())) {
             log.warn("File {} is not downloaded yet", fileRecord.id());
-            return;
+            return null;
         }
         if (fileRecord.transferStatus() != null
             && !fileRecord.isTransferStatus(FileRecord.TransferStatus.idle)) {
             log.debug("File {} transfer status is not idle: {}", fileRecord.id(), fileRecord.transferStatus());
-            return;
+            return null;
         }
 
-        beingTransferred = transfer;
-        transfer.transfer(fileRecord);
-        beingTransferred = null;
+        return transfer.transfer(fileRecord);
     }
 
+    /**
+     * Called on the transfer workers, blocks the worker until the status is saved.
+     */
     private void updateTransferStatus(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
-        Future.await(DataVerticle.fileRepository.updateTransferStatus(fileRecord.uniqueId(), transferStatus, localPath)
+        DataVerticle.fileRepository.updateTransferStatus(fileRecord.uniqueId(), transferStatus, localPath)
                 .onSuccess(fileUpdated -> {
                     if (fileUpdated != null && !fileUpdated.isEmpty()) {
                         EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                 .put("fileId", fileRecord.id())
                                 .put("uniqueId", fileRecord.uniqueId())
+                                .put("chatId", Long.toString(fileRecord.chatId()))
                                 .put("transferStatus", fileUpdated.getString("transferStatus"))
                                 .put("localPath", fileUpdated.getString("localPath"))
                         );
@@ -269,9 +420,32 @@ public class TransferVerticle extends AbstractVerticle {
                                 JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
                         );
                     }
-                }));
+                })
+                .toCompletionStage().toCompletableFuture().join();
+    }
+
+    /**
+     * Published on the event bus only, the copied bytes are not saved.
+     */
+    private void publishTransferProgress(FileRecord fileRecord, long transferredSize, long totalSize) {
+        EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_TRANSFER, new JsonObject()
+                .put("fileId", fileRecord.id())
+                .put("uniqueId", fileRecord.uniqueId())
+                .put("chatId", Long.toString(fileRecord.chatId()))
+                .put("transferredSize", transferredSize)
+                .put("totalSize", totalSize)
+        );
+        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
+                JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
+        );
     }
 
     private record WaitingTransferFile(long telegramId, long chatId, String uniqueId) {
+        String automationKey() {
+            return "%d:%d".formatted(telegramId, chatId);
+        }
+    }
+
+    private record TransferJob(String automationKey, Transfer transfer, WaitingTransferFile file) {
     }
 }
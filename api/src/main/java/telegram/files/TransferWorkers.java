@@ -0,0 +1,129 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.FileRecord;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker slots of the transfer, bounded in total and per destination, so one slow destination can't take all the workers.
+ * A slot is taken when a file is handed to a worker and released when its transfer is done,
+ * the progress and throughput of every automation are counted on release.
+ */
+public class TransferWorkers {
+
+    private final int workers;
+
+    private final int perDestination;
+
+    private int active;
+
+    // destination -> transfers in flight
+    private final Map<String, Integer> destinations = new HashMap<>();
+
+    // automation unique key -> progress
+    private final Map<String, Progress> automations = new HashMap<>();
+
+    private static class Progress {
+        int active;
+
+        long completed;
+
+        long failed;
+
+        long skipped;
+
+        long bytes;
+
+        final AvgSpeed speed = new AvgSpeed();
+    }
+
+    public TransferWorkers(int workers, int perDestination) {
+        this.workers = Math.max(1, workers);
+        this.perDestination = Math.max(1, Math.min(perDestination, this.workers));
+    }
+
+    private static String destinationKey(String destination) {
+        return Path.of(destination).normalize().toString();
+    }
+
+    public synchronized boolean isFull() {
+        return active >= workers;
+    }
+
+    public synchronized boolean canAcquire(String destination) {
+        return active < workers && destinations.getOrDefault(destinationKey(destination), 0) < perDestination;
+    }
+
+    public synchronized boolean acquire(String automation, String destination) {
+        if (!canAcquire(destination)) {
+            return false;
+        }
+        active++;
+        destinations.merge(destinationKey(destination), 1, Integer::sum);
+        Progress progress = automations.computeIfAbsent(automation, _ -> new Progress());
+        if (progress.active++ == 0 && progress.bytes == 0) {
+            progress.speed.update(0, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * @param status final transfer status of the file, idle if it was skipped
+     * @param bytes  bytes transferred, 0 unless it is completed
+     */
+    public synchronized void release(String automation, String destination, FileRecord.TransferStatus status, long bytes) {
+        active = Math.max(0, active - 1);
+        destinations.computeIfPresent(destinationKey(destination), (_, count) -> count > 1 ? count - 1 : null);
+        Progress progress = automations.get(automation);
+        if (progress == null) {
+            return;
+        }
+        progress.active = Math.max(0, progress.active - 1);
+        if (status == FileRecord.TransferStatus.completed) {
+            progress.completed++;
+            progress.bytes += bytes;
+            progress.speed.update(progress.bytes, System.currentTimeMillis());
+        } else if (status == FileRecord.TransferStatus.error) {
+            progress.failed++;
+        } else {
+            progress.skipped++;
+        }
+    }
+
+    /**
+     * Forget the progress of a removed automation, its transfers in flight still release their slots.
+     */
+    public synchronized void remove(String automation) {
+        automations.remove(automation);
+    }
+
+    public synchronized int active() {
+        return active;
+    }
+
+    public synchronized int active(String destination) {
+        return destinations.getOrDefault(destinationKey(destination), 0);
+    }
+
+    public synchronized JsonObject getStats() {
+        JsonObject destinationStats = JsonObject.of();
+        destinations.forEach(destinationStats::put);
+        JsonObject automationStats = JsonObject.of();
+        automations.forEach((key, progress) -> automationStats.put(key, JsonObject.of()
+                .put("active", progress.active)
+                .put("completed", progress.completed)
+                .put("failed", progress.failed)
+                .put("skipped", progress.skipped)
+                .put("bytes", progress.bytes)
+                .put("speedStats", JsonObject.mapFrom(progress.speed.getSpeedStats()))));
+        return JsonObject.of()
+                .put("workers", workers)
+                .put("perDestination", perDestination)
+                .put("active", active)
+                .put("destinations", destinationStats)
+                .put("automations", automationStats);
+    }
+}
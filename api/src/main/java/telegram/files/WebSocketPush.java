@@ -0,0 +1,279 @@
+package telegram.files;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outgoing websocket frames of the connected sessions.
+ * An event is encoded once and the frame is shared by all sessions it goes to.
+ * File progress is coalesced per session and sent once per tick as a single {@link EventPayload#TYPE_FILE_PROGRESS} frame,
+ * which carries only the fields that changed since the session last saw the file.
+ * Each session queues at most {@link #MAX_PENDING_FRAMES} frames, a slow client loses its oldest frames first,
+ * once a progress frame is lost its files are sent whole again.
+ * Sessions that asked for binary frames get the progress events as {@link BinaryFrames} instead.
+ * <p>
+ * Not thread safe, used on the context of the http verticle.
+ */
+public class WebSocketPush {
+
+    static final int MAX_PENDING_FRAMES = 256;
+
+    // files whose last sent state is kept per session, to send the changed fields only
+    static final int MAX_TRACKED_FILES = 1000;
+
+    private static final String PROGRESS_TYPE = Integer.toString(EventPayload.TYPE_FILE_PROGRESS);
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    interface Sink {
+        /**
+         * @return false while the client is not able to take more frames
+         */
+        boolean isWritable();
+
+        void write(String frame);
+
+        void write(Buffer frame);
+    }
+
+    private record Frame(String type, String text, Buffer binary) {
+        Frame(String type, String text) {
+            this(type, text, null);
+        }
+
+        Frame(String type, Buffer binary) {
+            this(type, null, binary);
+        }
+    }
+
+    static class Client {
+        // websocket of the client, a session reconnecting from another tab replaces it
+        final Object source;
+
+        final Sink sink;
+
+        final boolean binary;
+
+        final ArrayDeque<Frame> pending = new ArrayDeque<>();
+
+        // fileId -> latest file of the tick
+        final Map<Integer, JsonObject> progress = new LinkedHashMap<>();
+
+        // telegramId -> latest download statistics frame of the tick
+        final Map<String, Frame> downloads = new LinkedHashMap<>();
+
+        // fileId -> file as the client knows it
+        final Map<Integer, JsonObject> sentFiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, JsonObject> eldest) {
+                return size() > MAX_TRACKED_FILES;
+            }
+        };
+
+        long dropped;
+
+        Client(Object source, Sink sink, boolean binary) {
+            this.source = source;
+            this.sink = sink;
+            this.binary = binary;
+        }
+
+        void enqueue(Frame frame) {
+            if (pending.size() >= MAX_PENDING_FRAMES) {
+                Frame oldest = pending.pollFirst();
+                dropped++;
+                Metrics.WEBSOCKET_DROPPED.labels(oldest.type()).increment();
+                if (oldest.text() != null && oldest.type().equals(PROGRESS_TYPE)) {
+                    // the client misses fields the later deltas assume it has, send the files whole again
+                    sentFiles.clear();
+                }
+            }
+            pending.addLast(frame);
+        }
+
+        void drain() {
+            while (!pending.isEmpty() && sink.isWritable()) {
+                Frame frame = pending.pollFirst();
+                if (frame.binary() != null) {
+                    sink.write(frame.binary());
+                } else {
+                    sink.write(frame.text());
+                }
+                Metrics.WEBSOCKET_MESSAGES.labels(frame.type()).increment();
+            }
+        }
+    }
+
+    /**
+     * @param binary whether the client takes progress events as {@link BinaryFrames}
+     */
+    public void register(String sessionId, ServerWebSocket ws, boolean binary) {
+        Client client = new Client(ws, new Sink() {
+            @Override
+            public boolean isWritable() {
+                return !ws.isClosed() && !ws.writeQueueFull();
+            }
+
+            @Override
+            public void write(String frame) {
+                ws.writeTextMessage(frame);
+            }
+
+            @Override
+            public void write(Buffer frame) {
+                ws.writeBinaryMessage(frame);
+            }
+        }, binary);
+        ws.drainHandler(_ -> client.drain());
+        clients.put(sessionId, client);
+    }
+
+    void register(String sessionId, Sink sink, boolean binary) {
+        clients.put(sessionId, new Client(sink, sink, binary));
+    }
+
+    /**
+     * @param source websocket the session was registered with, a newer websocket of the session stays registered
+     */
+    public void unregister(String sessionId, Object source) {
+        clients.computeIfPresent(sessionId, (_, client) -> client.source == source ? null : client);
+    }
+
+    public boolean isConnected(String sessionId) {
+        return clients.containsKey(sessionId);
+    }
+
+    /**
+     * Push an event of the account to the sessions, progress events wait for the next {@link #flush()}.
+     *
+     * @param payload {@link EventPayload} as json
+     */
+    public void publish(String telegramId, Collection<String> sessionIds, JsonObject payload) {
+        int type = payload.getInteger("type");
+        String typeLabel = Integer.toString(type);
+        Frame frame = null;
+        Frame binaryFrame = null;
+        for (String sessionId : sessionIds) {
+            Client client = clients.get(sessionId);
+            if (client == null) {
+                continue;
+            }
+            if (type == EventPayload.TYPE_FILE && coalesceFile(client, payload)) {
+                continue;
+            }
+            if (type == EventPayload.TYPE_FILE_DOWNLOAD && client.binary) {
+                if (binaryFrame == null) {
+                    binaryFrame = new Frame(typeLabel, BinaryFrames.fileDownload(payload));
+                }
+                client.downloads.put(telegramId, binaryFrame);
+                continue;
+            }
+            if (frame == null) {
+                frame = new Frame(typeLabel, payload.encode());
+            }
+            if (type == EventPayload.TYPE_FILE_DOWNLOAD) {
+                client.downloads.put(telegramId, frame);
+            } else {
+                client.enqueue(frame);
+                client.drain();
+            }
+        }
+    }
+
+    private boolean coalesceFile(Client client, JsonObject payload) {
+        JsonObject data = payload.getJsonObject("data");
+        JsonObject file = data == null ? null : data.getJsonObject("file");
+        Integer fileId = file == null ? null : file.getInteger("id");
+        if (fileId == null) {
+            return false;
+        }
+        client.progress.put(fileId, file);
+        return true;
+    }
+
+    /**
+     * Send the coalesced progress of the tick and whatever the clients are able to take.
+     */
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (Client client : clients.values()) {
+            if (!client.progress.isEmpty() && client.binary) {
+                client.enqueue(new Frame(PROGRESS_TYPE,
+                        BinaryFrames.fileProgress(now, client.progress.values())));
+                client.progress.clear();
+            } else if (!client.progress.isEmpty()) {
+                JsonArray files = new JsonArray();
+                client.progress.forEach((fileId, file) -> {
+                    JsonObject sent = client.sentFiles.get(fileId);
+                    if (sent == null) {
+                        files.add(file);
+                    } else {
+                        JsonObject changed = diff(sent, file);
+                        if (!changed.isEmpty()) {
+                            files.add(changed.put("id", fileId));
+                        }
+                    }
+                    if (isCompleted(file)) {
+                        client.sentFiles.remove(fileId);
+                    } else {
+                        client.sentFiles.put(fileId, file);
+                    }
+                });
+                client.progress.clear();
+                if (!files.isEmpty()) {
+                    client.enqueue(new Frame(PROGRESS_TYPE, JsonObject.of()
+                            .put("type", EventPayload.TYPE_FILE_PROGRESS)
+                            .put("data", JsonObject.of("files", files))
+                            .put("timestamp", now)
+                            .encode()));
+                }
+            }
+            client.downloads.values().forEach(client::enqueue);
+            client.downloads.clear();
+            client.drain();
+        }
+    }
+
+    /**
+     * @return the fields of current that differ from previous, nested objects are compared field by field
+     */
+    static JsonObject diff(JsonObject previous, JsonObject current) {
+        JsonObject changed = new JsonObject();
+        for (Map.Entry<String, Object> entry : current) {
+            Object value = entry.getValue();
+            Object previousValue = previous.getValue(entry.getKey());
+            if (value instanceof JsonObject object && previousValue instanceof JsonObject previousObject) {
+                JsonObject nested = diff(previousObject, object);
+                if (!nested.isEmpty()) {
+                    changed.put(entry.getKey(), nested);
+                }
+            } else if (!Objects.equals(value, previousValue)) {
+                changed.put(entry.getKey(), value);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isCompleted(JsonObject file) {
+        JsonObject local = file.getJsonObject("local");
+        return local != null && local.getBoolean("isDownloadingCompleted", false);
+    }
+
+    public JsonObject getStats() {
+        int pending = 0;
+        long dropped = 0;
+        for (Client client : clients.values()) {
+            pending += client.pending.size();
+            dropped += client.dropped;
+        }
+        return JsonObject.of()
+                .put("clients", clients.size())
+                .put("pending", pending)
+                .put("dropped", dropped);
+    }
+}
@@ -0,0 +1,170 @@
+package telegram.files;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Chats, files and event types the websocket sessions subscribed to, indexed by subscription for routing.
+ * A session without subscriptions receives every event of its account. Once it subscribes, file events only reach it
+ * if it subscribed to their type, chat or file. Events that don't concern a file, e.g. authorization and method results, always pass.
+ * <p>
+ * File events are matched to a chat by the chatId of their data. TDLib file updates don't carry one, the telegram verticle adds
+ * the chat of the file's record once it has read it, so the first updates of a file may only reach the sessions subscribed to the file.
+ * Download totals concern no file or chat and only reach the sessions subscribed to their type.
+ * <p>
+ * Messages of a session over {@code /ws}:
+ * <pre>
+ * {"type": "subscribe", "chatIds": ["-100123"], "uniqueIds": ["AgAD..."], "eventTypes": [4]}
+ * {"type": "unsubscribe", "uniqueIds": ["AgAD..."]}
+ * {"type": "clear"}
+ * </pre>
+ * Not thread safe, used on the context of the http verticle.
+ */
+public class WebSocketSubscriptions {
+
+    private final Map<Long, Set<String>> byChat = new HashMap<>();
+
+    private final Map<String, Set<String>> byFile = new HashMap<>();
+
+    private final Map<Integer, Set<String>> byType = new HashMap<>();
+
+    // session id -> its subscriptions, to unsubscribe without scanning the index
+    private final Map<String, Subscription> sessions = new HashMap<>();
+
+    private static class Subscription {
+        final Set<Long> chatIds = new HashSet<>();
+
+        final Set<String> uniqueIds = new HashSet<>();
+
+        final Set<Integer> eventTypes = new HashSet<>();
+
+        boolean isEmpty() {
+            return chatIds.isEmpty() && uniqueIds.isEmpty() && eventTypes.isEmpty();
+        }
+    }
+
+    /**
+     * Handle a subscription message of the session.
+     *
+     * @return false if the message is not a subscription message
+     */
+    public boolean handle(String sessionId, JsonObject message) {
+        String type = message.getString("type");
+        if ("clear".equals(type)) {
+            remove(sessionId);
+            return true;
+        }
+        boolean subscribe = "subscribe".equals(type);
+        if (!subscribe && !"unsubscribe".equals(type)) {
+            return false;
+        }
+        Subscription subscription = subscribe ? sessions.computeIfAbsent(sessionId, _ -> new Subscription()) : sessions.get(sessionId);
+        if (subscription == null) {
+            return true;
+        }
+        update(sessionId, subscribe, values(message, "chatIds", Convert::toLong), subscription.chatIds, byChat);
+        update(sessionId, subscribe, values(message, "uniqueIds", Convert::toStr), subscription.uniqueIds, byFile);
+        update(sessionId, subscribe, values(message, "eventTypes", Convert::toInt), subscription.eventTypes, byType);
+        if (subscription.isEmpty()) {
+            sessions.remove(sessionId);
+        }
+        return true;
+    }
+
+    private static <K> List<K> values(JsonObject message, String key, Function<Object, K> converter) {
+        JsonArray array = message.getJsonArray(key);
+        if (array == null) {
+            return List.of();
+        }
+        List<K> values = new ArrayList<>(array.size());
+        for (Object value : array) {
+            K converted = converter.apply(value);
+            if (converted != null && !(converted instanceof String s && StrUtil.isBlank(s))) {
+                values.add(converted);
+            }
+        }
+        return values;
+    }
+
+    private static <K> void update(String sessionId, boolean subscribe, List<K> keys, Set<K> sessionKeys, Map<K, Set<String>> index) {
+        for (K key : keys) {
+            if (subscribe) {
+                if (sessionKeys.add(key)) {
+                    index.computeIfAbsent(key, _ -> new HashSet<>()).add(sessionId);
+                }
+            } else if (sessionKeys.remove(key)) {
+                unindex(index, key, sessionId);
+            }
+        }
+    }
+
+    private static <K> void unindex(Map<K, Set<String>> index, K key, String sessionId) {
+        Set<String> sessionIds = index.get(key);
+        if (sessionIds != null && sessionIds.remove(sessionId) && sessionIds.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    public void remove(String sessionId) {
+        Subscription subscription = sessions.remove(sessionId);
+        if (subscription == null) {
+            return;
+        }
+        subscription.chatIds.forEach(chatId -> unindex(byChat, chatId, sessionId));
+        subscription.uniqueIds.forEach(uniqueId -> unindex(byFile, uniqueId, sessionId));
+        subscription.eventTypes.forEach(eventType -> unindex(byType, eventType, sessionId));
+    }
+
+    public boolean isSubscribed(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /**
+     * Narrow the sessions of the account to the ones interested in the event.
+     *
+     * @param payload {@link EventPayload} as json
+     */
+    public Collection<String> route(Collection<String> sessionIds, JsonObject payload) {
+        if (sessions.isEmpty()) {
+            return sessionIds;
+        }
+        int type = payload.getInteger("type");
+        if (!isFileEvent(type)) {
+            return sessionIds;
+        }
+        Set<String> interested = new HashSet<>(byType.getOrDefault(type, Set.of()));
+        Object data = payload.getValue("data");
+        if (data instanceof JsonObject object) {
+            JsonObject file = object.getJsonObject("file");
+            String uniqueId = file != null && file.getJsonObject("remote") != null
+                    ? file.getJsonObject("remote").getString("uniqueId")
+                    : object.getString("uniqueId");
+            if (uniqueId != null) {
+                interested.addAll(byFile.getOrDefault(uniqueId, Set.of()));
+            }
+            Long chatId = Convert.toLong(object.getValue("chatId"), null);
+            if (chatId != null) {
+                interested.addAll(byChat.getOrDefault(chatId, Set.of()));
+            }
+        }
+        List<String> routed = new ArrayList<>(sessionIds.size());
+        for (String sessionId : sessionIds) {
+            if (!sessions.containsKey(sessionId) || interested.contains(sessionId)) {
+                routed.add(sessionId);
+            }
+        }
+        return routed;
+    }
+
+    private static boolean isFileEvent(int type) {
+        return type == EventPayload.TYPE_FILE
+               || type == EventPayload.TYPE_FILE_DOWNLOAD
+               || type == EventPayload.TYPE_FILE_STATUS
+               || type == EventPayload.TYPE_FILE_TRANSFER;
+    }
+}
@@ -0,0 +1,60 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+import java.util.List;
+
+/**
+ * Cached result of an AI classification, by the fingerprint of the prompt or of the album of the file.
+ *
+ * @param fingerprint hash of the model and the normalized prompt, or of the model, the prompt template and the album
+ * @param path        relative path the file was classified to
+ */
+public record ClassificationRecord(String fingerprint,
+                                   String path,
+                                   String reason,
+                                   long createdAt) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS ai_classification
+            (
+                fingerprint VARCHAR(64),
+                path        VARCHAR(1024),
+                reason      TEXT,
+                created_at  BIGINT,
+                PRIMARY KEY (fingerprint)
+            )
+            """;
+
+    public static final List<Definition.Index> INDEXES = List.of(
+            new Definition.Index("ai_classification", "idx_ai_classification_created_at", "created_at")
+    );
+
+    public static class ClassificationRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public List<Index> getIndexes() {
+            return INDEXES;
+        }
+    }
+
+    public static RowMapper<ClassificationRecord> ROW_MAPPER = row ->
+            new ClassificationRecord(row.getString("fingerprint"),
+                    row.getString("path"),
+                    row.getString("reason"),
+                    row.getLong("created_at")
+            );
+
+    public static TupleMapper<ClassificationRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("fingerprint", r.fingerprint()),
+                    MapUtil.entry("path", r.path()),
+                    MapUtil.entry("reason", r.reason()),
+                    MapUtil.entry("created_at", r.createdAt())
+            ));
+}
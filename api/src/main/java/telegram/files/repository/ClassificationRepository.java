@@ -0,0 +1,17 @@
+package telegram.files.repository;
+
+import io.vertx.core.Future;
+
+public interface ClassificationRepository {
+    /**
+     * @return the classification created since the given time, null if there is none
+     */
+    Future<ClassificationRecord> getByFingerprint(String fingerprint, long since);
+
+    Future<Void> createOrUpdate(ClassificationRecord record);
+
+    /**
+     * @return the number of classifications deleted
+     */
+    Future<Integer> deleteBefore(long time);
+}
@@ -0,0 +1,74 @@
+package telegram.files.repository;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+import telegram.files.Config;
+
+import java.util.List;
+
+/**
+ * Content of a downloaded file, indexed by hash and size to find the copies of the same content.
+ *
+ * @param path   where the content of the file is now, updated when the file is transferred
+ * @param linked whether the file was stored as a link to an earlier copy of its content instead of a copy
+ */
+public record ContentRecord(String uniqueId,
+                            String hash,
+                            long size,
+                            String path,
+                            boolean linked,
+                            long createdAt) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS file_content
+            (
+                unique_id   VARCHAR(255),
+                hash        VARCHAR(128),
+                size        BIGINT,
+                path        VARCHAR(1024),
+                linked      BOOLEAN,
+                created_at  BIGINT,
+                PRIMARY KEY (unique_id)
+            )
+            """;
+
+    public static final List<Definition.Index> INDEXES = List.of(
+            new Definition.Index("file_content", "idx_file_content_hash", "hash, size")
+    );
+
+    public static class ContentRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public List<Index> getIndexes() {
+            return INDEXES;
+        }
+    }
+
+    public ContentRecord withLinked(String path) {
+        return new ContentRecord(uniqueId, hash, size, path, true, createdAt);
+    }
+
+    public static RowMapper<ContentRecord> ROW_MAPPER = row ->
+            new ContentRecord(row.getString("unique_id"),
+                    row.getString("hash"),
+                    row.getLong("size"),
+                    row.getString("path"),
+                    Config.isPostgres() ? row.getBoolean("linked") : Convert.toBool(row.getInteger("linked")),
+                    row.getLong("created_at")
+            );
+
+    public static TupleMapper<ContentRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("unique_id", r.uniqueId()),
+                    MapUtil.entry("hash", r.hash()),
+                    MapUtil.entry("size", r.size()),
+                    MapUtil.entry("path", r.path()),
+                    MapUtil.entry("linked", r.linked()),
+                    MapUtil.entry("created_at", r.createdAt())
+            ));
+}
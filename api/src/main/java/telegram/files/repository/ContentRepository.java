@@ -0,0 +1,28 @@
+package telegram.files.repository;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+public interface ContentRepository {
+    /**
+     * @return false if the content of the file is already indexed
+     */
+    Future<Boolean> createIfNotExist(ContentRecord record);
+
+    Future<ContentRecord> getByUniqueId(String uniqueId);
+
+    /**
+     * Files with the same content, the earliest first.
+     */
+    Future<List<ContentRecord>> getByHash(String hash, long size);
+
+    Future<Void> updatePath(String uniqueId, String path, boolean linked);
+
+    /**
+     * @return indexed files, the files stored as links and the bytes they saved,
+     * and the bytes taken by the copies of duplicate content
+     */
+    Future<JsonObject> getStatistics();
+}
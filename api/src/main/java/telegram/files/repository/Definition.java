@@ -5,9 +5,14 @@ import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import io.vertx.core.Future;
 import io.vertx.sqlclient.SqlClient;
+import telegram.files.Config;
 
+import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface Definition {
 
@@ -19,6 +24,14 @@ public interface Definition {
         return new TreeMap<>();
     }
 
+    /**
+     * Secondary indexes of the table, created after all migrations are applied.
+     * Creation is idempotent, so new indexes are picked up by fresh and upgraded databases alike.
+     */
+    default List<Index> getIndexes() {
+        return List.of();
+    }
+
     default Future<Void> createTable(SqlClient sqlClient) {
         return sqlClient
                 .query(getScheme())
@@ -44,4 +57,59 @@ public interface Definition {
                 .onFailure(err -> log.error("Failed to migrate table: %s".formatted(err.getMessage())))
                 .mapEmpty();
     }
+
+    default Future<Void> createIndexes(SqlClient sqlClient) {
+        List<Index> indexes = getIndexes();
+        if (indexes.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        return getExistingIndexNames(sqlClient)
+                .compose(existingNames -> {
+                    // Build indexes one by one, parallel index builds only contend for the same table lock
+                    Future<Void> future = Future.succeededFuture();
+                    for (Index index : indexes) {
+                        if (existingNames.contains(index.name())) {
+                            continue;
+                        }
+                        // A missing index only costs speed, it must not prevent startup
+                        future = future.compose(_ -> sqlClient.query(index.toSql())
+                                .execute()
+                                .onSuccess(_ -> log.debug("Index %s is ready".formatted(index.name())))
+                                .onFailure(e -> log.error("Failed to create index: %s".formatted(index.toSql()), e))
+                                .<Void>mapEmpty()
+                                .otherwiseEmpty());
+                    }
+                    return future;
+                })
+                .onFailure(err -> log.error("Failed to create indexes: %s".formatted(err.getMessage())));
+    }
+
+    private Future<Set<String>> getExistingIndexNames(SqlClient sqlClient) {
+        if (!Config.isMysql()) {
+            // SQLite and Postgres support CREATE INDEX IF NOT EXISTS
+            return Future.succeededFuture(Set.of());
+        }
+        return sqlClient.query("""
+                        SELECT DISTINCT index_name AS name
+                        FROM information_schema.statistics
+                        WHERE table_schema = DATABASE()
+                        """)
+                .execute()
+                .map(rs -> StreamSupport.stream(rs.spliterator(), false)
+                        .map(row -> row.getString("name"))
+                        .collect(Collectors.toSet()));
+    }
+
+    /**
+     * @param table   table name
+     * @param name    index name, must be unique in the database
+     * @param columns comma separated column list, e.g. "chat_id, message_id"
+     */
+    record Index(String table, String name, String columns) {
+
+        public String toSql() {
+            return "CREATE INDEX %s%s ON %s (%s)".formatted(Config.isMysql() ? "" : "IF NOT EXISTS ",
+                    name, table, columns);
+        }
+    }
 }
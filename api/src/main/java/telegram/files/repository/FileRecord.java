@@ -3,11 +3,14 @@ package telegram.files.repository;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.lang.Version;
 import cn.hutool.core.map.MapUtil;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.templates.RowMapper;
 import io.vertx.sqlclient.templates.TupleMapper;
 import org.drinkless.tdlib.TdApi;
 import telegram.files.Config;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
@@ -106,6 +109,16 @@ public record FileRecord(int id, //file id will change
             })
     ));
 
+    public static final List<Definition.Index> INDEXES = List.of(
+            new Definition.Index("file_record", "idx_file_record_unique_id", "unique_id"),
+            new Definition.Index("file_record", "idx_file_record_chat_message", "chat_id, message_id"),
+            new Definition.Index("file_record", "idx_file_record_telegram_status", "telegram_id, download_status"),
+            new Definition.Index("file_record", "idx_file_record_telegram_completion", "telegram_id, completion_date"),
+            new Definition.Index("file_record", "idx_file_record_media_album_id", "media_album_id"),
+            new Definition.Index("file_record", "idx_file_record_thumbnail_unique_id", "thumbnail_unique_id"),
+            new Definition.Index("file_record", "idx_file_record_thread", "telegram_id, thread_chat_id, message_thread_id")
+    );
+
     public static class FileRecordDefinition implements Definition {
         @Override
         public String getScheme() {
@@ -116,6 +129,17 @@ public record FileRecord(int id, //file id will change
         public TreeMap<Version, String[]> getMigrations() {
             return MIGRATIONS;
         }
+
+        @Override
+        public List<Index> getIndexes() {
+            return INDEXES;
+        }
+
+        @Override
+        public Future<Void> createIndexes(SqlClient sqlClient) {
+            return Definition.super.createIndexes(sqlClient)
+                    .compose(_ -> FileSearchIndex.create(sqlClient));
+        }
     }
 
     public static RowMapper<FileRecord> ROW_MAPPER = row ->
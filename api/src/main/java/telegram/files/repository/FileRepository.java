@@ -13,8 +13,21 @@ public interface FileRepository {
 
     Future<Boolean> createIfNotExist(FileRecord fileRecord);
 
+    /**
+     * Create the records whose unique id is not stored yet, album data is reconciled once per media album.
+     *
+     * @return number of inserted records
+     */
+    Future<Integer> createIfNotExistBatch(List<FileRecord> fileRecords);
+
     Future<Tuple3<List<FileRecord>, Long, Long>> getFiles(long chatId, Map<String, String> filter);
 
+    /**
+     * Keyset page of the files ordered by (chat_id, message_id, telegram_id, unique_id), starting after the given key.
+     * Unlike {@link #getFiles(long, Map)} no count is computed, so pages stay cheap at any depth.
+     */
+    Future<List<FileRecord>> getFilesAfter(long chatId, Map<String, String> filter, FileKey from, int limit);
+
     Future<Map<String, FileRecord>> getFilesByUniqueId(List<String> uniqueIds);
 
     Future<FileRecord> getByPrimaryKey(int fileId, String uniqueId);
@@ -43,10 +56,24 @@ public interface FileRepository {
                                             FileRecord.DownloadStatus downloadStatus,
                                             Long completionDate);
 
+    /**
+     * Apply already reconciled download status changes in one transaction.
+     *
+     * @return number of updated rows
+     */
+    Future<Integer> batchUpdateDownloadStatus(List<DownloadStatusUpdate> updates);
+
     Future<JsonObject> updateTransferStatus(String uniqueId,
                                             FileRecord.TransferStatus transferStatus,
                                             String localPath);
 
+    /**
+     * Move every file in one transfer status to another in a single statement, e.g. the transfers interrupted by a stop back to idle.
+     *
+     * @return number of updated rows
+     */
+    Future<Integer> updateTransferStatus(FileRecord.TransferStatus from, FileRecord.TransferStatus to);
+
     Future<Void> updateFileId(int fileId, String uniqueId);
 
     Future<Integer> updateAlbumDataByMediaAlbumId(long mediaAlbumId, String caption, long reactionCount);
@@ -54,4 +81,24 @@ public interface FileRepository {
     Future<Void> updateTags(String uniqueId, String tags);
 
     Future<Void> deleteByUniqueId(String uniqueId);
+
+    record DownloadStatusUpdate(int fileId,
+                                String uniqueId,
+                                long chatId,
+                                String localPath,
+                                FileRecord.DownloadStatus downloadStatus,
+                                Long completionDate) {
+    }
+
+    /**
+     * Unique position of a file in the keyset order of {@link #getFilesAfter},
+     * the same message is stored once per account, so chat and message id alone are not unique.
+     */
+    record FileKey(long chatId, long messageId, long telegramId, String uniqueId) {
+        public static final FileKey FIRST = new FileKey(Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE, "");
+
+        public static FileKey of(FileRecord fileRecord) {
+            return new FileKey(fileRecord.chatId(), fileRecord.messageId(), fileRecord.telegramId(), fileRecord.uniqueId());
+        }
+    }
 }
@@ -0,0 +1,219 @@
+package telegram.files.repository;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import telegram.files.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text index of file_name and caption.
+ * <ul>
+ *     <li>SQLite: FTS5 table with the trigram tokenizer, keyed by unique_id and kept in sync by triggers</li>
+ *     <li>Postgres: generated tsvector column with a GIN index</li>
+ *     <li>MySQL: FULLTEXT index with the ngram parser</li>
+ * </ul>
+ * Searches shorter than the tokenizer can match, or made while the index is unavailable, fall back to LIKE.
+ */
+public class FileSearchIndex {
+
+    private static final Log log = LogFactory.get();
+
+    public static final String SQLITE_TABLE = "file_record_search";
+
+    public static final String INDEX_NAME = "idx_file_record_search";
+
+    // file_record has no INTEGER PRIMARY KEY, its rowid may change on VACUUM,
+    // so the index keeps its own copy of the text with the unique id of the record instead of pointing at the rowid.
+    // Rows of a record are found by matching its unique id, which is indexed like the text
+    private static final List<String> SQLITE_SCHEME = List.of(
+            """
+                    CREATE VIRTUAL TABLE IF NOT EXISTS file_record_search
+                    USING fts5(unique_id, file_name, caption, tokenize='trigram')
+                    """,
+            """
+                    CREATE TRIGGER IF NOT EXISTS file_record_search_insert AFTER INSERT ON file_record BEGIN
+                        INSERT INTO file_record_search(unique_id, file_name, caption) VALUES (new.unique_id, new.file_name, new.caption);
+                    END
+                    """,
+            """
+                    CREATE TRIGGER IF NOT EXISTS file_record_search_delete AFTER DELETE ON file_record BEGIN
+                        DELETE FROM file_record_search WHERE rowid = (
+                            SELECT rowid FROM file_record_search
+                            WHERE file_record_search MATCH 'unique_id : "' || replace(old.unique_id, '"', '""') || '"' AND unique_id = old.unique_id
+                            LIMIT 1);
+                    END
+                    """,
+            """
+                    CREATE TRIGGER IF NOT EXISTS file_record_search_update AFTER UPDATE OF unique_id, file_name, caption ON file_record BEGIN
+                        DELETE FROM file_record_search WHERE rowid = (
+                            SELECT rowid FROM file_record_search
+                            WHERE file_record_search MATCH 'unique_id : "' || replace(old.unique_id, '"', '""') || '"' AND unique_id = old.unique_id
+                            LIMIT 1);
+                        INSERT INTO file_record_search(unique_id, file_name, caption) VALUES (new.unique_id, new.file_name, new.caption);
+                    END
+                    """
+    );
+
+    // The former external content table, indexed by the rowid of file_record
+    private static final List<String> SQLITE_LEGACY_SCHEME = List.of(
+            "DROP TRIGGER IF EXISTS file_record_fts_insert",
+            "DROP TRIGGER IF EXISTS file_record_fts_delete",
+            "DROP TRIGGER IF EXISTS file_record_fts_update",
+            "DROP TABLE IF EXISTS file_record_fts"
+    );
+
+    private static final List<String> POSTGRES_SCHEME = List.of(
+            """
+                    ALTER TABLE file_record ADD COLUMN IF NOT EXISTS search_vector tsvector
+                    GENERATED ALWAYS AS (to_tsvector('simple', coalesce(file_name, '') || ' ' || coalesce(caption, ''))) STORED
+                    """,
+            "CREATE INDEX IF NOT EXISTS idx_file_record_search ON file_record USING GIN (search_vector)"
+    );
+
+    private static volatile boolean available = false;
+
+    private static final String MYSQL_SCHEME = "ALTER TABLE file_record ADD FULLTEXT INDEX idx_file_record_search (file_name, caption) WITH PARSER ngram";
+
+    public static Future<Void> create(SqlClient sqlClient) {
+        return createIndex(sqlClient)
+                .onSuccess(_ -> available = true)
+                .onFailure(_ -> available = false)
+                // search keeps working with LIKE
+                .otherwiseEmpty();
+    }
+
+    private static Future<Void> createIndex(SqlClient sqlClient) {
+        if (Config.isSqlite()) {
+            return sqlClient.query("SELECT name FROM sqlite_master WHERE type = 'table' AND name = '%s'".formatted(SQLITE_TABLE))
+                    .execute()
+                    .compose(rs -> {
+                        boolean isNew = rs.size() == 0;
+                        Future<Void> future = executeAll(sqlClient, SQLITE_LEGACY_SCHEME)
+                                .compose(_ -> executeAll(sqlClient, SQLITE_SCHEME));
+                        if (isNew) {
+                            // Index the records that existed before the table was created
+                            future = future.compose(_ -> execute(sqlClient, """
+                                    INSERT INTO file_record_search(unique_id, file_name, caption)
+                                    SELECT unique_id, file_name, caption FROM file_record
+                                    """));
+                        }
+                        return future;
+                    })
+                    .onFailure(err -> log.error("Failed to create search index: %s".formatted(err.getMessage())));
+        } else if (Config.isPostgres()) {
+            return executeAll(sqlClient, POSTGRES_SCHEME)
+                    .onFailure(err -> log.error("Failed to create search index: %s".formatted(err.getMessage())));
+        } else if (Config.isMysql()) {
+            return sqlClient.query("""
+                            SELECT index_name FROM information_schema.statistics
+                            WHERE table_schema = DATABASE() AND table_name = 'file_record' AND index_name = '%s'
+                            """.formatted(INDEX_NAME))
+                    .execute()
+                    .compose(rs -> rs.size() == 0 ? execute(sqlClient, MYSQL_SCHEME) : Future.succeededFuture())
+                    .onFailure(err -> log.error("Failed to create search index: %s".formatted(err.getMessage())));
+        }
+        return Future.succeededFuture();
+    }
+
+    /**
+     * @return whether the search is served by the full-text index, otherwise it falls back to LIKE
+     */
+    public static boolean isFullText(String search) {
+        if (!available || StrUtil.isBlank(search)) {
+            return false;
+        }
+        if (Config.isSqlite()) {
+            // trigram tokenizer needs at least 3 characters
+            return search.codePointCount(0, search.length()) >= 3;
+        } else if (Config.isMysql()) {
+            // default ngram_token_size
+            return search.codePointCount(0, search.length()) >= 2;
+        }
+        return !postgresTerms(search).isEmpty();
+    }
+
+    /**
+     * Where condition of the search on file_record, the query parameter is put into params.
+     */
+    public static String condition(String search, Map<String, Object> params) {
+        if (!isFullText(search)) {
+            params.put("search", "%%" + search + "%%");
+            return "(file_name LIKE #{search} OR caption LIKE #{search})";
+        }
+        params.put("searchQuery", query(search));
+        if (Config.isSqlite()) {
+            return "unique_id IN (SELECT unique_id FROM file_record_search WHERE file_record_search MATCH #{searchQuery})";
+        } else if (Config.isPostgres()) {
+            return "search_vector @@ to_tsquery('simple', #{searchQuery})";
+        } else {
+            return "MATCH(file_name, caption) AGAINST (#{searchQuery} IN BOOLEAN MODE)";
+        }
+    }
+
+    /**
+     * FROM clause of a search ordered by relevance, SQLite exposes the rank only by joining the match.
+     */
+    public static String rankedFrom() {
+        if (Config.isSqlite()) {
+            return """
+                    file_record JOIN (SELECT unique_id AS search_unique_id, rank AS search_rank FROM file_record_search WHERE file_record_search MATCH #{searchQuery}) s
+                    ON s.search_unique_id = file_record.unique_id""";
+        }
+        return "file_record";
+    }
+
+    /**
+     * ORDER BY expression of a search, best matches first.
+     */
+    public static String rankOrder() {
+        if (Config.isSqlite()) {
+            return "search_rank";
+        } else if (Config.isPostgres()) {
+            return "ts_rank(search_vector, to_tsquery('simple', #{searchQuery})) DESC";
+        } else {
+            return "MATCH(file_name, caption) AGAINST (#{searchQuery} IN BOOLEAN MODE) DESC";
+        }
+    }
+
+    private static String query(String search) {
+        if (Config.isPostgres()) {
+            // every word as prefix, tsquery operators are stripped
+            return postgresTerms(search).stream()
+                    .map(term -> term + ":*")
+                    .collect(Collectors.joining(" & "));
+        }
+        // phrase query keeps the substring semantics of LIKE
+        String phrase = "\"" + search.replace("\"", Config.isSqlite() ? "\"\"" : " ") + "\"";
+        // the SQLite index also holds the unique id, which is not searched
+        return Config.isSqlite() ? "{file_name caption} : " + phrase : phrase;
+    }
+
+    private static List<String> postgresTerms(String search) {
+        return Arrays.stream(search.split("[^\\p{L}\\p{N}_]+"))
+                .filter(StrUtil::isNotBlank)
+                .map(String::toLowerCase)
+                .toList();
+    }
+
+    private static Future<Void> executeAll(SqlClient sqlClient, List<String> sqls) {
+        Future<Void> future = Future.succeededFuture();
+        for (String sql : sqls) {
+            future = future.compose(_ -> execute(sqlClient, sql));
+        }
+        return future;
+    }
+
+    private static Future<Void> execute(SqlClient sqlClient, String sql) {
+        return sqlClient.query(sql)
+                .execute()
+                .onFailure(e -> log.error("Failed to execute: %s".formatted(sql), e))
+                .mapEmpty();
+    }
+}
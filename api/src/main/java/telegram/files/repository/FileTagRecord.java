@@ -0,0 +1,100 @@
+package telegram.files.repository;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import telegram.files.Config;
+
+import java.util.List;
+
+/**
+ * One tag of a file, file_record.tags keeps the comma joined copy for display.
+ */
+public record FileTagRecord(String uniqueId, String tag) {
+
+    private static final Log log = LogFactory.get();
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS file_tag
+            (
+                unique_id   VARCHAR(255),
+                tag         VARCHAR(255),
+                PRIMARY KEY (unique_id, tag)
+            )
+            """;
+
+    public static final List<Definition.Index> INDEXES = List.of(
+            new Definition.Index("file_tag", "idx_file_tag_tag", "tag, unique_id")
+    );
+
+    /**
+     * Split file_record.tags of the existing records into file_tag, once while file_tag is still empty.
+     * Later changes are kept in sync by the repository.
+     */
+    public static Future<Void> backfill(SqlClient sqlClient) {
+        return sqlClient.query("SELECT unique_id FROM file_tag LIMIT 1")
+                .execute()
+                .compose(rs -> rs.size() > 0 ? Future.succeededFuture() : sqlClient.query(backfillSql())
+                        .execute()
+                        .onSuccess(r -> log.info("Backfilled %d file tags".formatted(r.rowCount())))
+                        .mapEmpty())
+                .onFailure(err -> log.error("Failed to backfill file tags: %s".formatted(err.getMessage())))
+                .<Void>mapEmpty()
+                .otherwiseEmpty();
+    }
+
+    private static String backfillSql() {
+        if (Config.isPostgres()) {
+            return """
+                    INSERT INTO file_tag(unique_id, tag)
+                    SELECT DISTINCT unique_id, trim(split.tag) FROM file_record CROSS JOIN LATERAL unnest(string_to_array(tags, ',')) AS split(tag)
+                    WHERE tags IS NOT NULL AND trim(split.tag) != ''
+                    ON CONFLICT DO NOTHING
+                    """;
+        } else if (Config.isMysql()) {
+            return """
+                    INSERT IGNORE INTO file_tag(unique_id, tag)
+                    WITH RECURSIVE split(unique_id, tag, rest) AS (
+                        SELECT unique_id, CAST('' AS CHAR(255)), CAST(CONCAT(tags, ',') AS CHAR(2100)) FROM file_record WHERE tags IS NOT NULL AND tags != ''
+                        UNION ALL
+                        SELECT unique_id, TRIM(SUBSTRING_INDEX(rest, ',', 1)), SUBSTRING(rest, LOCATE(',', rest) + 1) FROM split WHERE rest != ''
+                    )
+                    SELECT unique_id, tag FROM split WHERE tag != ''
+                    """;
+        }
+        return """
+                INSERT OR IGNORE INTO file_tag(unique_id, tag)
+                WITH RECURSIVE split(unique_id, tag, rest) AS (
+                    SELECT unique_id, '', tags || ',' FROM file_record WHERE tags IS NOT NULL AND tags != ''
+                    UNION ALL
+                    SELECT unique_id, trim(substr(rest, 1, instr(rest, ',') - 1)), substr(rest, instr(rest, ',') + 1) FROM split WHERE rest != ''
+                )
+                SELECT unique_id, tag FROM split WHERE tag != ''
+                """;
+    }
+
+    public static List<String> split(String tags) {
+        return StrUtil.split(tags, ",", true, true).stream().distinct().toList();
+    }
+
+    public static class FileTagRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public List<Index> getIndexes() {
+            return INDEXES;
+        }
+
+        @Override
+        public Future<Void> createIndexes(SqlClient sqlClient) {
+            // Runs after the migrations, when file_record.tags is known to exist
+            return Definition.super.createIndexes(sqlClient)
+                    .compose(_ -> backfill(sqlClient));
+        }
+    }
+}
@@ -5,15 +5,19 @@ import io.vertx.core.json.JsonObject;
 import telegram.files.MessyUtils;
 import telegram.files.Transfer;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.function.Predicate;
 
 public class SettingAutoRecords {
     public List<Automation> automations;
 
+    /**
+     * Lookup index of the automations, rebuilt by every change made through this class.
+     * Changes of the automations in place, such as enabling or disabling, need a {@link #reindex()}.
+     */
+    @JsonIgnore
+    private volatile Index index;
+
     public static final int HISTORY_PRELOAD_STATE = 1;
 
     public static final int HISTORY_DOWNLOAD_STATE = 2;
@@ -78,9 +82,15 @@ public class SettingAutoRecords {
 
         public long nextFromMessageId;
 
+        /**
+         * Share of the download queue against the other chats of the account, 1 if not set
+         */
+        public int weight;
+
         public DownloadConfig with(DownloadConfig config) {
             this.enabled = config.enabled;
             this.rule = config.rule;
+            this.weight = config.weight;
             return this;
         }
     }
@@ -130,50 +140,107 @@ public class SettingAutoRecords {
     }
 
     public boolean exists(long telegramId, long chatId) {
-        return automations.stream().anyMatch(item -> item.telegramId == telegramId && item.chatId == chatId);
+        return getItem(telegramId, chatId) != null;
     }
 
-    public void add(Automation item) {
+    public synchronized void add(Automation item) {
         automations.removeIf(i -> i.telegramId == item.telegramId && i.chatId == item.chatId);
         automations.add(item);
+        reindex();
     }
 
-    public void remove(long telegramId, long chatId) {
+    public synchronized void remove(long telegramId, long chatId) {
         automations.removeIf(item -> item.telegramId == telegramId && item.chatId == chatId);
+        reindex();
+    }
+
+    public synchronized boolean removeIf(Predicate<Automation> filter) {
+        boolean removed = automations.removeIf(filter);
+        reindex();
+        return removed;
+    }
+
+    /**
+     * Rebuild the index and the enabled views from the automations, readers switch to the new index at once.
+     */
+    public synchronized void reindex() {
+        this.index = Index.of(automations);
+    }
+
+    private Index index() {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                if (this.index == null) {
+                    this.index = Index.of(automations);
+                }
+                index = this.index;
+            }
+        }
+        return index;
     }
 
     @JsonIgnore
     public List<Automation> getPreloadEnabledItems() {
-        return automations.stream()
-                .filter(i -> i.preload != null && i.preload.enabled)
-                .toList();
+        return index().preloadEnabled();
     }
 
     @JsonIgnore
     public List<Automation> getDownloadEnabledItems() {
-        return automations.stream()
-                .filter(i -> i.download != null && i.download.enabled)
-                .toList();
+        return index().downloadEnabled();
     }
 
     @JsonIgnore
     public List<Automation> getTransferEnabledItems() {
-        return automations.stream()
-                .filter(i -> i.transfer != null && i.transfer.enabled)
-                .toList();
+        return index().transferEnabled();
     }
 
     public Map<Long, Automation> getItems(long telegramId) {
-        return automations.stream()
-                .filter(item -> item.telegramId == telegramId)
-                .collect(Collectors.toMap(i -> i.chatId, Function.identity()));
+        return index().items().getOrDefault(telegramId, Map.of());
     }
 
     public Automation getItem(long telegramId, long chatId) {
-        return automations.stream()
-                .filter(item -> item.telegramId == telegramId && item.chatId == chatId)
-                .findFirst()
-                .orElse(null);
+        return getItems(telegramId).get(chatId);
+    }
+
+    public Automation getPreloadEnabledItem(long telegramId, long chatId) {
+        Automation item = getItem(telegramId, chatId);
+        return item != null && isPreloadEnabled(item) ? item : null;
     }
 
+    public Automation getDownloadEnabledItem(long telegramId, long chatId) {
+        Automation item = getItem(telegramId, chatId);
+        return item != null && isDownloadEnabled(item) ? item : null;
+    }
+
+    private static boolean isPreloadEnabled(Automation item) {
+        return item.preload != null && item.preload.enabled;
+    }
+
+    private static boolean isDownloadEnabled(Automation item) {
+        return item.download != null && item.download.enabled;
+    }
+
+    private static boolean isTransferEnabled(Automation item) {
+        return item.transfer != null && item.transfer.enabled;
+    }
+
+    private record Index(Map<Long, Map<Long, Automation>> items,
+                         List<Automation> preloadEnabled,
+                         List<Automation> downloadEnabled,
+                         List<Automation> transferEnabled) {
+
+        static Index of(List<Automation> automations) {
+            Map<Long, Map<Long, Automation>> items = new HashMap<>();
+            for (Automation item : automations) {
+                items.computeIfAbsent(item.telegramId, _ -> new HashMap<>()).put(item.chatId, item);
+            }
+            items.replaceAll((_, chats) -> Collections.unmodifiableMap(chats));
+            return new Index(Collections.unmodifiableMap(items),
+                    automations.stream().filter(SettingAutoRecords::isPreloadEnabled).toList(),
+                    automations.stream().filter(SettingAutoRecords::isDownloadEnabled).toList(),
+                    automations.stream().filter(SettingAutoRecords::isTransferEnabled).toList()
+            );
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package telegram.files.repository;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Download bandwidth limits, in bytes per second, 0 for no limit.
+ * The first period that contains the current time overrides the default limits.
+ */
+public class SettingBandwidthLimit {
+    /**
+     * Limit of all accounts together
+     */
+    public long globalRate;
+
+    /**
+     * Limit of each account
+     */
+    public long accountRate;
+
+    public List<Period> periods = new ArrayList<>();
+
+    public static class Period {
+        public String startTime;
+
+        public String endTime;
+
+        public long globalRate;
+
+        public long accountRate;
+
+        public boolean contains(LocalTime time) {
+            LocalTime start = LocalTime.parse(startTime);
+            LocalTime end = LocalTime.parse(endTime);
+            if (start.isAfter(end)) {
+                return !time.isBefore(start) || time.isBefore(end);
+            }
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+    }
+
+    public SettingBandwidthLimit() {
+    }
+
+    public SettingBandwidthLimit(long globalRate, long accountRate) {
+        this.globalRate = globalRate;
+        this.accountRate = accountRate;
+    }
+
+    public long getGlobalRate(LocalTime time) {
+        Period period = getPeriod(time);
+        return period == null ? globalRate : period.globalRate;
+    }
+
+    public long getAccountRate(LocalTime time) {
+        Period period = getPeriod(time);
+        return period == null ? accountRate : period.accountRate;
+    }
+
+    private Period getPeriod(LocalTime time) {
+        if (periods == null) {
+            return null;
+        }
+        return periods.stream()
+                .filter(period -> period.contains(time))
+                .findFirst()
+                .orElse(null);
+    }
+}
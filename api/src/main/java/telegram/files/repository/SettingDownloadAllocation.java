@@ -0,0 +1,60 @@
+package telegram.files.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * How the auto download slots of an account are shared between files.
+ * <ul>
+ *     <li>count: every file takes one slot, the default</li>
+ *     <li>size: large files are limited by the bytes in flight and can't take the slots reserved for small files</li>
+ * </ul>
+ */
+public class SettingDownloadAllocation {
+    public enum Mode {
+        count,
+        size
+    }
+
+    public Mode mode = Mode.count;
+
+    /**
+     * Budget of the total size of the files in flight, in bytes, 0 for no budget.
+     * One large file is always let through, even if it exceeds the budget alone.
+     */
+    public long maxBytesInFlight;
+
+    /**
+     * Files up to this size, in bytes, are small. They are only limited by the slot count
+     */
+    public long smallFileSize = 20 * 1024 * 1024;
+
+    /**
+     * Share of the slots, in percent, that only small files can take
+     */
+    public int smallFileReservedPercent = 40;
+
+    public SettingDownloadAllocation() {
+    }
+
+    public SettingDownloadAllocation(Mode mode, long maxBytesInFlight, long smallFileSize, int smallFileReservedPercent) {
+        this.mode = mode;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.smallFileSize = smallFileSize;
+        this.smallFileReservedPercent = smallFileReservedPercent;
+    }
+
+    @JsonIgnore
+    public boolean isSizeMode() {
+        return mode == Mode.size;
+    }
+
+    /**
+     * @return slots of the limit that large files can't take, there is always one slot left for them
+     */
+    public int reservedSlots(int limit) {
+        if (limit <= 1) {
+            return 0;
+        }
+        return Math.min(limit - 1, (int) Math.ceil(limit * Math.max(0, smallFileReservedPercent) / 100.0));
+    }
+}
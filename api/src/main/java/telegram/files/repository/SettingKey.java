@@ -19,6 +19,14 @@ public enum SettingKey {
      */
     autoDownloadLimit(Convert::toInt),
     autoDownloadTimeLimited(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingTimeLimitedDownload.class)),
+    /**
+     * Slot allocation of the auto download by file count or by file size
+     */
+    autoDownloadAllocation(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingDownloadAllocation.class)),
+    /**
+     * Download bandwidth limits of the accounts, by time of day
+     */
+    downloadBandwidthLimit(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingBandwidthLimit.class)),
     proxys(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingProxyRecords.class)),
     /**
      * Interval for calculating average speed, in seconds
@@ -0,0 +1,64 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlResult;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.Config;
+import telegram.files.repository.ClassificationRecord;
+import telegram.files.repository.ClassificationRepository;
+
+import java.util.Map;
+
+public class ClassificationRepositoryImpl extends AbstractSqlRepository implements ClassificationRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public ClassificationRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<ClassificationRecord> getByFingerprint(String fingerprint, long since) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM ai_classification WHERE fingerprint = #{fingerprint} AND created_at >= #{since}
+                        """)
+                .mapTo(ClassificationRecord.ROW_MAPPER)
+                .execute(Map.of("fingerprint", fingerprint, "since", since))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : null)
+                .onFailure(err -> log.error("Failed to get classification: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> createOrUpdate(ClassificationRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO ai_classification(fingerprint, path, reason, created_at)
+                                VALUES (#{fingerprint}, #{path}, #{reason}, #{created_at})
+                                ON DUPLICATE KEY UPDATE path = VALUES(path), reason = VALUES(reason), created_at = VALUES(created_at)""" :
+                        """
+                                INSERT INTO ai_classification(fingerprint, path, reason, created_at)
+                                VALUES (#{fingerprint}, #{path}, #{reason}, #{created_at})
+                                ON CONFLICT (fingerprint) DO UPDATE SET path = #{path}, reason = #{reason}, created_at = #{created_at}""")
+                .mapFrom(ClassificationRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to create or update classification: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<Integer> deleteBefore(long time) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM ai_classification WHERE created_at < #{time}
+                        """)
+                .execute(Map.of("time", time))
+                .map(SqlResult::rowCount)
+                .onSuccess(count -> log.trace("Deleted %d expired classifications".formatted(count)))
+                .onFailure(err -> log.error("Failed to delete expired classifications: %s".formatted(err.getMessage())));
+    }
+}
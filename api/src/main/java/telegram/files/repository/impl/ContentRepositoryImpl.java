@@ -0,0 +1,102 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.core.collection.IterUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.repository.ContentRecord;
+import telegram.files.repository.ContentRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class ContentRepositoryImpl extends AbstractSqlRepository implements ContentRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public ContentRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<Boolean> createIfNotExist(ContentRecord record) {
+        return this.getByUniqueId(record.uniqueId())
+                .compose(exist -> {
+                    if (exist != null) {
+                        return Future.succeededFuture(false);
+                    }
+                    return SqlTemplate
+                            .forUpdate(sqlClient, """
+                                    INSERT INTO file_content(unique_id, hash, size, path, linked, created_at)
+                                    VALUES (#{unique_id}, #{hash}, #{size}, #{path}, #{linked}, #{created_at})
+                                    """)
+                            .mapFrom(ContentRecord.PARAM_MAPPER)
+                            .execute(record)
+                            .map(true);
+                })
+                .onSuccess(created -> log.trace("Content record of %s created: %s".formatted(record.uniqueId(), created)))
+                .onFailure(err -> log.error("Failed to create content record: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<ContentRecord> getByUniqueId(String uniqueId) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_content WHERE unique_id = #{uniqueId}
+                        """)
+                .mapTo(ContentRecord.ROW_MAPPER)
+                .execute(Map.of("uniqueId", uniqueId))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : null)
+                .onFailure(err -> log.error("Failed to get content record: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<List<ContentRecord>> getByHash(String hash, long size) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_content
+                        WHERE hash = #{hash} AND size = #{size}
+                        ORDER BY created_at
+                        """)
+                .mapTo(ContentRecord.ROW_MAPPER)
+                .execute(Map.of("hash", hash, "size", size))
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get content records by hash: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> updatePath(String uniqueId, String path, boolean linked) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        UPDATE file_content SET path = #{path}, linked = #{linked} WHERE unique_id = #{uniqueId}
+                        """)
+                .execute(Map.of("uniqueId", uniqueId, "path", path, "linked", linked))
+                .onFailure(err -> log.error("Failed to update content path: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<JsonObject> getStatistics() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT COUNT(*)                                     AS files,
+                               COUNT(CASE WHEN linked THEN 1 END)           AS linked,
+                               SUM(CASE WHEN linked THEN size ELSE 0 END)   AS saved_size,
+                               (SELECT SUM(size * (copies - 1))
+                                FROM (SELECT size, COUNT(*) AS copies FROM file_content GROUP BY hash, size) t) AS duplicate_size
+                        FROM file_content
+                        """)
+                .mapTo(row -> JsonObject.of()
+                        .put("files", row.getInteger("files"))
+                        .put("linked", row.getInteger("linked"))
+                        .put("savedSize", Objects.requireNonNullElse(row.getLong("saved_size"), 0L))
+                        .put("duplicateSize", Objects.requireNonNullElse(row.getLong("duplicate_size"), 0L)))
+                .execute(Map.of())
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : JsonObject.of())
+                .onFailure(err -> log.error("Failed to get content statistics: %s".formatted(err.getMessage())));
+    }
+}
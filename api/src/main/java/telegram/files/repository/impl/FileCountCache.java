@@ -0,0 +1,87 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Short-lived cache of the exact file counts of {@code getFiles}, keyed by chat and the normalised filter.
+ * Entries of a chat are expired as soon as a record of that chat is created, updated or deleted,
+ * expired entries are still served as estimates until they are evicted.
+ */
+class FileCountCache {
+
+    static final long DEFAULT_TTL = 30 * 1000;
+
+    private static final int MAX_SIZE = 256;
+
+    // Parameters that only move the page, they don't change the count
+    private static final Set<String> PAGE_PARAMS = Set.of("fromMessageId", "fromSortField", "limit", "order", "count");
+
+    private final long ttl;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    FileCountCache() {
+        this(DEFAULT_TTL);
+    }
+
+    FileCountCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    static String key(long chatId, Map<String, String> filter) {
+        return chatId + "?" + new TreeMap<>(filter).entrySet().stream()
+                .filter(e -> !PAGE_PARAMS.contains(e.getKey()) && StrUtil.isNotBlank(e.getValue()))
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining("&"));
+    }
+
+    /**
+     * @param allowStale return an expired count as well, it is still a good estimate
+     * @return the cached count, null if absent
+     */
+    Long get(String key, boolean allowStale) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!allowStale && System.currentTimeMillis() > entry.expireAt()) {
+            return null;
+        }
+        return entry.count();
+    }
+
+    void put(long chatId, String key, long count) {
+        if (entries.size() >= MAX_SIZE) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(e -> now > e.expireAt());
+            if (entries.size() >= MAX_SIZE) {
+                entries.clear();
+            }
+        }
+        entries.put(key, new Entry(chatId, count, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Expire the counts of the chat, counts across all chats (chat id 0) are expired as well.
+     */
+    void invalidate(long chatId) {
+        entries.replaceAll((_, e) -> e.chatId() == chatId || e.chatId() == 0 ? e.expired() : e);
+    }
+
+    void invalidateAll() {
+        entries.replaceAll((_, e) -> e.expired());
+    }
+
+    private record Entry(long chatId, long count, long expireAt) {
+
+        Entry expired() {
+            return new Entry(chatId, count, 0);
+        }
+    }
+}
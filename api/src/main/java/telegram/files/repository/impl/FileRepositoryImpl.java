@@ -12,6 +12,7 @@ import cn.hutool.log.LogFactory;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Pool;
 import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.SqlResult;
 import io.vertx.sqlclient.templates.SqlTemplate;
@@ -21,12 +22,15 @@ import telegram.files.Config;
 import telegram.files.MessyUtils;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.FileRepository;
+import telegram.files.repository.FileSearchIndex;
+import telegram.files.repository.FileTagRecord;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -34,6 +38,16 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     private static final Log log = LogFactory.get();
 
+    private static final int BATCH_INSERT_SIZE = 100;
+
+    private static final List<String> INSERT_COLUMNS = List.of("id", "unique_id", "telegram_id", "chat_id", "message_id", "media_album_id", "date", "has_sensitive_content",
+            "size", "downloaded_size",
+            "type", "mime_type",
+            "file_name", "thumbnail", "thumbnail_unique_id", "caption", "extra", "local_path",
+            "download_status", "start_date", "transfer_status", "tags", "thread_chat_id", "message_thread_id", "reaction_count");
+
+    private final FileCountCache countCache = new FileCountCache();
+
     public FileRepositoryImpl(SqlClient sqlClient) {
         super(sqlClient);
     }
@@ -55,6 +69,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 .mapFrom(FileRecord.PARAM_MAPPER)
                 .execute(fileRecord)
                 .map(r -> fileRecord)
+                .onSuccess(r -> countCache.invalidate(r.chatId()))
                 .compose(r -> {
                     if (Objects.equals(r.type(), "thumbnail")) {
                         return Future.succeededFuture(r);
@@ -77,34 +92,217 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Integer> createIfNotExistBatch(List<FileRecord> fileRecords) {
+        if (CollUtil.isEmpty(fileRecords)) {
+            return Future.succeededFuture(0);
+        }
+        // The same file may be attached to several messages of a page, keep the first one
+        Map<String, FileRecord> distinctRecords = new LinkedHashMap<>();
+        fileRecords.stream()
+                .filter(r -> StrUtil.isNotBlank(r.uniqueId()))
+                .forEach(r -> distinctRecords.putIfAbsent(r.uniqueId(), r));
+
+        return this.getFilesByUniqueId(new ArrayList<>(distinctRecords.keySet()))
+                .compose(existRecords -> {
+                    List<FileRecord> newRecords = distinctRecords.values().stream()
+                            .filter(r -> !existRecords.containsKey(r.uniqueId()))
+                            .toList();
+                    if (newRecords.isEmpty()) {
+                        return Future.succeededFuture(0);
+                    }
+                    List<Future<Integer>> futures = new ArrayList<>();
+                    for (List<FileRecord> chunk : CollUtil.split(newRecords, BATCH_INSERT_SIZE)) {
+                        futures.add(insertIgnore(chunk));
+                    }
+                    return Future.all(futures)
+                            .map(r -> r.<Integer>list().stream().mapToInt(Integer::intValue).sum())
+                            .onSuccess(_ -> newRecords.stream().map(FileRecord::chatId).distinct().forEach(countCache::invalidate))
+                            .compose(count -> this.updateAlbumDataOfRecords(newRecords).map(count));
+                })
+                .onSuccess(count -> log.trace("Successfully batch created file record: %d/%d".formatted(count, fileRecords.size())))
+                .onFailure(err -> log.error("Failed to batch create file record: %s".formatted(err.getMessage())));
+    }
+
+    /**
+     * Multi-row insert, rows conflicting with a concurrently created record are skipped.
+     */
+    private Future<Integer> insertIgnore(List<FileRecord> fileRecords) {
+        String columns = String.join(", ", INSERT_COLUMNS);
+        Map<String, Object> params = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < fileRecords.size(); i++) {
+            Map<String, Object> row = FileRecord.toMap(fileRecords.get(i));
+            int index = i;
+            values.add(INSERT_COLUMNS.stream()
+                    .map(column -> {
+                        params.put(column + "_" + index, row.get(column));
+                        return "#{%s_%d}".formatted(column, index);
+                    })
+                    .collect(Collectors.joining(", ", "(", ")")));
+        }
+        String sql = Config.isMysql() ?
+                "INSERT IGNORE INTO file_record(%s) VALUES %s".formatted(columns, String.join(", ", values)) :
+                "INSERT INTO file_record(%s) VALUES %s ON CONFLICT DO NOTHING".formatted(columns, String.join(", ", values));
+        return SqlTemplate
+                .forUpdate(sqlClient, sql)
+                .execute(params)
+                .map(SqlResult::rowCount);
+    }
+
+    private Future<Void> updateAlbumDataOfRecords(List<FileRecord> fileRecords) {
+        // media album id -> records of the album in this batch
+        Map<Long, List<FileRecord>> albums = fileRecords.stream()
+                .filter(r -> r.mediaAlbumId() > 0 && !Objects.equals(r.type(), "thumbnail"))
+                .collect(Collectors.groupingBy(FileRecord::mediaAlbumId, LinkedHashMap::new, Collectors.toList()));
+        if (albums.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        return Future.all(albums.entrySet().stream()
+                        .map(e -> {
+                            String caption = e.getValue().stream()
+                                    .map(FileRecord::caption)
+                                    .filter(StrUtil::isNotBlank)
+                                    .findFirst()
+                                    .orElse(null);
+                            long reactionCount = e.getValue().stream()
+                                    .mapToLong(FileRecord::reactionCount)
+                                    .max()
+                                    .orElse(0);
+                            return this.updateAlbumDataByMediaAlbumId(e.getKey(), caption, reactionCount);
+                        })
+                        .toList())
+                .mapEmpty();
+    }
+
     @Override
     public Future<Tuple3<List<FileRecord>, Long, Long>> getFiles(long chatId, Map<String, String> filter) {
+        String sort = filter.get("sort");
+        String order = filter.get("order");
+
+        Long fromMessageId = Convert.toLong(filter.get("fromMessageId"), 0L);
+        int limit = Convert.toInt(filter.get("limit"), 20);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("limit", limit);
+        String whereClause = buildFilterClause(chatId, filter, params);
+        String from = "file_record";
+        String orderBy = "message_id DESC";
+        // Relevance is not a column, so these results can't be continued by keyset and only the first page is returned
+        boolean relevanceSort = Objects.equals(sort, "relevance") && FileSearchIndex.isFullText(filter.get("search"));
+        boolean customSort = !Objects.equals(sort, "relevance") && StrUtil.isNotBlank(sort) && StrUtil.isNotBlank(order);
+        if (relevanceSort) {
+            from = FileSearchIndex.rankedFrom();
+            orderBy = FileSearchIndex.rankOrder() + ", message_id DESC";
+        } else if (customSort) {
+            orderBy = "%s %s".formatted(sort, order);
+            if (Objects.equals(sort, "completion_date")) {
+                // For completion_date, we need to ensure the date is in milliseconds
+                whereClause += " AND completion_date IS NOT NULL";
+            }
+        }
+        String countClause = whereClause;
+        String countMode = StrUtil.blankToDefault(filter.get("count"), "exact");
+        String countKey = FileCountCache.key(chatId, filter);
+        if (fromMessageId > 0 && !relevanceSort) {
+            params.put("fromMessageId", fromMessageId);
+            if (customSort) {
+                long fromSortField = Convert.toLong(filter.get("fromSortField"));
+                whereClause += " AND (%s %s %s OR (%s = %s AND message_id < #{fromMessageId}))".formatted(sort,
+                        Objects.equals(order, "asc") ? ">" : "<",
+                        fromSortField,
+                        sort,
+                        fromSortField);
+            } else {
+                whereClause += " AND message_id < #{fromMessageId}";
+            }
+        }
+        log.trace("Get files with where: %s params: %s".formatted(whereClause, params));
+        return Future.all(
+                SqlTemplate
+                        .forQuery(sqlClient, """
+                                SELECT file_record.* FROM %s WHERE %s ORDER BY %s LIMIT #{limit}
+                                """.formatted(from, whereClause, orderBy))
+                        .mapTo(FileRecord.ROW_MAPPER)
+                        .execute(params)
+                        .onFailure(err -> log.error("Failed to get file record: %s".formatted(err.getMessage())))
+                        .map(IterUtil::toList)
+                ,
+                countFiles(chatId, countClause, params, countMode, countKey)
+        ).map(r -> {
+            List<FileRecord> fileRecords = r.resultAt(0);
+            long nextFromMessageId = CollUtil.isEmpty(fileRecords) || relevanceSort ? 0 : fileRecords.getLast().messageId();
+            return Tuple.tuple(fileRecords, nextFromMessageId, r.resultAt(1));
+        });
+    }
+
+    /**
+     * @param countMode none: skip counting, estimate: any cached count, exact: a count younger than the cache ttl
+     * @return the count, null if mode is none
+     */
+    private Future<Long> countFiles(long chatId, String countClause, Map<String, Object> params, String countMode, String countKey) {
+        if (Objects.equals(countMode, "none")) {
+            return Future.succeededFuture(null);
+        }
+        Long cachedCount = countCache.get(countKey, Objects.equals(countMode, "estimate"));
+        if (cachedCount != null) {
+            return Future.succeededFuture(cachedCount);
+        }
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT COUNT(*) FROM file_record WHERE %s
+                        """.formatted(countClause))
+                .mapTo(rs -> rs.getLong(0))
+                .execute(params)
+                .onFailure(err -> log.error("Failed to get file record count: %s".formatted(err.getMessage())))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : 0L)
+                .onSuccess(count -> countCache.put(chatId, countKey, count));
+    }
+
+    @Override
+    public Future<List<FileRecord>> getFilesAfter(long chatId, Map<String, String> filter, FileKey from, int limit) {
+        Map<String, Object> params = new HashMap<>();
+        String whereClause = buildFilterClause(chatId, filter, params);
+        // the leading bound lets the planner range scan the chat index, the row value breaks the ties
+        whereClause += " AND chat_id >= #{fromChatId}"
+                       + " AND (chat_id, message_id, telegram_id, unique_id) > (#{fromChatId}, #{fromMessageId}, #{fromTelegramId}, #{fromUniqueId})";
+        params.put("fromChatId", from.chatId());
+        params.put("fromMessageId", from.messageId());
+        params.put("fromTelegramId", from.telegramId());
+        params.put("fromUniqueId", from.uniqueId());
+        params.put("limit", limit);
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_record WHERE %s ORDER BY chat_id, message_id, telegram_id, unique_id LIMIT #{limit}
+                        """.formatted(whereClause))
+                .mapTo(FileRecord.ROW_MAPPER)
+                .execute(params)
+                .onFailure(err -> log.error("Failed to get file record: %s".formatted(err.getMessage())))
+                .map(IterUtil::toList);
+    }
+
+    /**
+     * Build the where clause of the file filter, shared by the page query and the export.
+     */
+    private String buildFilterClause(long chatId, Map<String, String> filter, Map<String, Object> params) {
         String search = filter.get("search");
         String type = filter.get("type");
         String downloadStatus = filter.get("downloadStatus");
         String transferStatus = filter.get("transferStatus");
-        List<String> tags = StrUtil.split(filter.get("tags"), ",");
+        List<String> tags = FileTagRecord.split(filter.get("tags"));
         long messageThreadId = Convert.toLong(filter.get("messageThreadId"), 0L);
         String dateType = filter.get("dateType");
         String dateRange = filter.get("dateRange");
         String sizeRange = filter.get("sizeRange");
         String sizeUnit = filter.get("sizeUnit");
-        String sort = filter.get("sort");
-        String order = filter.get("order");
-
-        Long fromMessageId = Convert.toLong(filter.get("fromMessageId"), 0L);
-        int limit = Convert.toInt(filter.get("limit"), 20);
 
         String whereClause = "type != 'thumbnail'";
-        Map<String, Object> params = new HashMap<>();
-        params.put("limit", limit);
         if (chatId != 0) {
             whereClause += " AND chat_id = #{chatId}";
             params.put("chatId", chatId);
         }
         if (StrUtil.isNotBlank(search)) {
-            whereClause += " AND (file_name LIKE #{search} OR caption LIKE #{search})";
-            params.put("search", "%%" + search + "%%");
+            whereClause += " AND " + FileSearchIndex.condition(search, params);
         }
         if (StrUtil.isNotBlank(type) && !Objects.equals(type, "all")) {
             if (Objects.equals(type, "media")) {
@@ -123,11 +321,13 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
             params.put("transferStatus", transferStatus);
         }
         if (CollUtil.isNotEmpty(tags)) {
-            String tagClause = tags.stream()
-                    .filter(StrUtil::isNotBlank)
-                    .map(tag -> "tags LIKE '%%" + tag + "%%'")
-                    .collect(Collectors.joining(" OR "));
-            whereClause += " AND (%s)".formatted(tagClause);
+            String tagPlaceholders = IntStream.range(0, tags.size())
+                    .mapToObj(i -> "#{tag" + i + "}")
+                    .collect(Collectors.joining(","));
+            for (int i = 0; i < tags.size(); i++) {
+                params.put("tag" + i, tags.get(i));
+            }
+            whereClause += " AND unique_id IN (SELECT unique_id FROM file_tag WHERE tag IN (%s))".formatted(tagPlaceholders);
         }
         if (messageThreadId != 0) {
             whereClause += " AND message_thread_id = #{messageThreadId}";
@@ -163,53 +363,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 params.put("maxSize", maxSize);
             }
         }
-        String orderBy = "message_id DESC";
-        boolean customSort = StrUtil.isNotBlank(sort) && StrUtil.isNotBlank(order);
-        if (customSort) {
-            orderBy = "%s %s".formatted(sort, order);
-            if (Objects.equals(sort, "completion_date")) {
-                // For completion_date, we need to ensure the date is in milliseconds
-                whereClause += " AND completion_date IS NOT NULL";
-            }
-        }
-        String countClause = whereClause;
-        if (fromMessageId > 0) {
-            params.put("fromMessageId", fromMessageId);
-            if (customSort) {
-                long fromSortField = Convert.toLong(filter.get("fromSortField"));
-                whereClause += " AND (%s %s %s OR (%s = %s AND message_id < #{fromMessageId}))".formatted(sort,
-                        Objects.equals(order, "asc") ? ">" : "<",
-                        fromSortField,
-                        sort,
-                        fromSortField);
-            } else {
-                whereClause += " AND message_id < #{fromMessageId}";
-            }
-        }
-        log.trace("Get files with where: %s params: %s".formatted(whereClause, params));
-        return Future.all(
-                SqlTemplate
-                        .forQuery(sqlClient, """
-                                SELECT * FROM file_record WHERE %s ORDER BY %s LIMIT #{limit}
-                                """.formatted(whereClause, orderBy))
-                        .mapTo(FileRecord.ROW_MAPPER)
-                        .execute(params)
-                        .onFailure(err -> log.error("Failed to get file record: %s".formatted(err.getMessage())))
-                        .map(IterUtil::toList)
-                ,
-                SqlTemplate
-                        .forQuery(sqlClient, """
-                                SELECT COUNT(*) FROM file_record WHERE %s
-                                """.formatted(countClause))
-                        .mapTo(rs -> rs.getLong(0))
-                        .execute(params)
-                        .onFailure(err -> log.error("Failed to get file record count: %s".formatted(err.getMessage())))
-                        .map(rs -> rs.size() > 0 ? rs.iterator().next() : 0L)
-        ).map(r -> {
-            List<FileRecord> fileRecords = r.resultAt(0);
-            long nextFromMessageId = CollUtil.isEmpty(fileRecords) ? 0 : fileRecords.getLast().messageId();
-            return Tuple.tuple(fileRecords, nextFromMessageId, r.resultAt(1));
-        });
+        return whereClause;
     }
 
     @Override
@@ -568,6 +722,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                             .onFailure(err ->
                                     log.error("Failed to update file record: %s".formatted(err.getMessage()))
                             )
+                            .onSuccess(_ -> countCache.invalidate(record.chatId()))
                             .map(r -> {
                                 JsonObject result = JsonObject.of();
                                 if (pathUpdated) {
@@ -584,6 +739,41 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Integer> batchUpdateDownloadStatus(List<DownloadStatusUpdate> updates) {
+        if (CollUtil.isEmpty(updates)) {
+            return Future.succeededFuture(0);
+        }
+        List<Map<String, Object>> params = updates.stream()
+                .<Map<String, Object>>map(update -> MapUtil.ofEntries(MapUtil.entry("fileId", update.fileId()),
+                        MapUtil.entry("uniqueId", update.uniqueId()),
+                        MapUtil.entry("localPath", update.localPath()),
+                        MapUtil.entry("downloadStatus", update.downloadStatus().name()),
+                        MapUtil.entry("completionDate", update.completionDate())
+                ))
+                .toList();
+        Function<SqlClient, Future<Integer>> batchUpdate = client -> SqlTemplate
+                .forUpdate(client, """
+                        UPDATE file_record SET id = #{fileId},
+                                               local_path = #{localPath},
+                                               download_status = #{downloadStatus},
+                                               completion_date = #{completionDate}
+                        WHERE unique_id = #{uniqueId}
+                        """)
+                .executeBatch(params)
+                .map(rs -> {
+                    int count = 0;
+                    for (SqlResult<Void> r = rs; r != null; r = r.next()) {
+                        count += r.rowCount();
+                    }
+                    return count;
+                });
+        return (sqlClient instanceof Pool pool ? pool.withTransaction(batchUpdate::apply) : batchUpdate.apply(sqlClient))
+                .onSuccess(_ -> updates.stream().map(DownloadStatusUpdate::chatId).distinct().forEach(countCache::invalidate))
+                .onSuccess(count -> log.debug("Successfully batch updated file download status: %d".formatted(count)))
+                .onFailure(err -> log.error("Failed to batch update file download status: %s".formatted(err.getMessage())));
+    }
+
     @Override
     public Future<JsonObject> updateTransferStatus(String uniqueId,
                                                    FileRecord.TransferStatus transferStatus,
@@ -616,6 +806,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                             .onFailure(err ->
                                     log.error("Failed to update file record: %s".formatted(err.getMessage()))
                             )
+                            .onSuccess(_ -> countCache.invalidate(record.chatId()))
                             .map(r -> {
                                 JsonObject result = JsonObject.of();
                                 if (pathUpdated) {
@@ -631,6 +822,22 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Integer> updateTransferStatus(FileRecord.TransferStatus from, FileRecord.TransferStatus to) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        UPDATE file_record SET transfer_status = #{to} WHERE transfer_status = #{from}
+                        """)
+                .execute(Map.of("from", from.name(), "to", to.name()))
+                .onFailure(err -> log.error("Failed to update file record: %s".formatted(err.getMessage())))
+                .onSuccess(r -> {
+                    if (r.rowCount() > 0) {
+                        countCache.invalidateAll();
+                    }
+                })
+                .map(SqlResult::rowCount);
+    }
+
     @Override
     public Future<Void> updateFileId(int fileId, String uniqueId) {
         if (fileId <= 0 || StrUtil.isBlank(uniqueId)) {
@@ -709,13 +916,29 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
         if (StrUtil.isBlank(uniqueId)) {
             return Future.succeededFuture();
         }
-        return SqlTemplate
-                .forUpdate(sqlClient, """
+        List<Map<String, Object>> tagParams = FileTagRecord.split(tags).stream()
+                .<Map<String, Object>>map(tag -> Map.of("uniqueId", uniqueId, "tag", tag))
+                .toList();
+        Function<SqlClient, Future<Void>> update = client -> SqlTemplate
+                .forUpdate(client, """
                         UPDATE file_record SET tags = #{tags} WHERE unique_id = #{uniqueId}
                         """)
-                .execute(Map.of("uniqueId", uniqueId, "tags", tags))
-                .onFailure(err -> log.error("Failed to update file record: %s".formatted(err.getMessage())))
+                .execute(MapUtil.ofEntries(MapUtil.entry("uniqueId", uniqueId), MapUtil.entry("tags", tags)))
+                .compose(_ -> SqlTemplate
+                        .forUpdate(client, """
+                                DELETE FROM file_tag WHERE unique_id = #{uniqueId}
+                                """)
+                        .execute(Map.of("uniqueId", uniqueId)))
+                .compose(_ -> tagParams.isEmpty() ? Future.succeededFuture() : SqlTemplate
+                        .forUpdate(client, """
+                                INSERT INTO file_tag(unique_id, tag) VALUES (#{uniqueId}, #{tag})
+                                """)
+                        .executeBatch(tagParams))
                 .mapEmpty();
+        return (sqlClient instanceof Pool pool ? pool.withTransaction(update::apply) : update.apply(sqlClient))
+                // the chat is unknown here, tag updates are rare
+                .onSuccess(_ -> countCache.invalidateAll())
+                .onFailure(err -> log.error("Failed to update file record: %s".formatted(err.getMessage())));
     }
 
     @Override
@@ -728,6 +951,13 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                         DELETE FROM file_record WHERE unique_id = #{uniqueId}
                         """)
                 .execute(Map.of("uniqueId", uniqueId))
+                .compose(_ -> SqlTemplate
+                        .forUpdate(sqlClient, """
+                                DELETE FROM file_tag WHERE unique_id = #{uniqueId}
+                                """)
+                        .execute(Map.of("uniqueId", uniqueId)))
+                // the chat is unknown here, deletes are rare
+                .onSuccess(_ -> countCache.invalidateAll())
                 .onFailure(err -> log.error("Failed to delete file record: %s".formatted(err.getMessage()))
                 )
                 .mapEmpty();
@@ -0,0 +1,207 @@
+package telegram.files;
+
+import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.sun.net.httpserver.HttpServer;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.ClassificationRecord;
+import telegram.files.repository.ClassificationRepository;
+import telegram.files.repository.FileRecord;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AIClassifierTest {
+    private static final String PROMPT_TEMPLATE = "Classify the file: {file_name}";
+
+    private static final Pattern FILE_NAME = Pattern.compile("classify the file: (\\S+)", Pattern.CASE_INSENSITIVE);
+
+    private HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger batchRequests = new AtomicInteger();
+
+    private final InMemoryClassificationRepository repository = new InMemoryClassificationRepository();
+
+    static class InMemoryClassificationRepository implements ClassificationRepository {
+        final Map<String, ClassificationRecord> records = new ConcurrentHashMap<>();
+
+        @Override
+        public Future<ClassificationRecord> getByFingerprint(String fingerprint, long since) {
+            ClassificationRecord record = records.get(fingerprint);
+            return Future.succeededFuture(record != null && record.createdAt() >= since ? record : null);
+        }
+
+        @Override
+        public Future<Void> createOrUpdate(ClassificationRecord record) {
+            records.put(record.fingerprint(), record);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<Integer> deleteBefore(long time) {
+            int size = records.size();
+            records.values().removeIf(r -> r.createdAt() < time);
+            return Future.succeededFuture(size - records.size());
+        }
+    }
+
+    /**
+     * Stub of the chat completions API, classifies a file by the extension of its name.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            JsonObject request = new JsonObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String prompt = request.getJsonArray("messages").getJsonObject(0).getString("content");
+            Matcher matcher = FILE_NAME.matcher(prompt);
+            JsonObject content;
+            if (prompt.contains("File 1:")) {
+                batchRequests.incrementAndGet();
+                JsonArray results = new JsonArray();
+                for (int index = 1; matcher.find(); index++) {
+                    results.add(JsonObject.of("index", index, "path", classify(matcher.group(1)), "reason", "stub"));
+                }
+                content = JsonObject.of("results", results);
+            } else {
+                assertTrue(matcher.find());
+                content = JsonObject.of("path", classify(matcher.group(1)), "reason", "stub");
+            }
+            JsonObject message = JsonObject.of("role", "assistant", "content", content.encode(), "refusal", null);
+            byte[] response = JsonObject.of(
+                    "id", "chatcmpl-stub",
+                    "object", "chat.completion",
+                    "created", 0,
+                    "model", "stub",
+                    "choices", JsonArray.of(JsonObject.of("index", 0, "finish_reason", "stop", "logprobs", null, "message", message))
+            ).encode().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private static String classify(String fileName) {
+        if (fileName.endsWith(".txt")) {
+            // a path with the file name
+            return "documents/notes/" + fileName;
+        }
+        return fileName.toLowerCase().endsWith(".jpg") ? "images" : "documents";
+    }
+
+    private AIClassifier classifier(long ttl, int batchSize) {
+        return new AIClassifier(OpenAIOkHttpClient.builder()
+                .apiKey("stub")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .maxRetries(0)
+                .build(), "stub", () -> repository, ttl, batchSize);
+    }
+
+    private static FileRecord fileRecord(String fileName, long mediaAlbumId) {
+        FileRecord fileRecord = mock(FileRecord.class);
+        when(fileRecord.fileName()).thenReturn(fileName);
+        when(fileRecord.chatId()).thenReturn(1L);
+        when(fileRecord.mediaAlbumId()).thenReturn(mediaAlbumId);
+        return fileRecord;
+    }
+
+    @Test
+    void testCacheByPromptFingerprint() {
+        AIClassifier classifier = classifier(TimeUnit.DAYS.toMillis(1), 1);
+        assertEquals("documents", classifier.classify(fileRecord("report.pdf", 0), PROMPT_TEMPLATE).path);
+        assertEquals("documents", classifier.classify(fileRecord("report.pdf", 0), "Classify the file:  {file_name}\n").path);
+        assertEquals(1, requests.get());
+        // the case of a file name matters
+        assertEquals("documents", classifier.classify(fileRecord("Report.pdf", 0), PROMPT_TEMPLATE).path);
+        assertEquals(2, requests.get());
+
+        // persisted, reused after a restart
+        assertEquals("documents", classifier(TimeUnit.DAYS.toMillis(1), 1).classify(fileRecord("report.pdf", 0), PROMPT_TEMPLATE).path);
+        assertEquals(2, requests.get());
+
+        assertEquals("images", classifier.classify(fileRecord("photo.jpg", 0), PROMPT_TEMPLATE).path);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void testReusedPathOfFile() {
+        AIClassifier classifier = classifier(TimeUnit.DAYS.toMillis(1), 1);
+        assertEquals("documents/notes/notes.txt", classifier.classify(fileRecord("notes.txt", 0), PROMPT_TEMPLATE).path);
+        // another file with the same prompt goes to the directory, not to the path of the first file
+        assertEquals("documents/notes", classifier.classify(fileRecord("notes.txt", 0), PROMPT_TEMPLATE).path);
+        assertEquals("documents/notes", classifier.classify(fileRecord("notes.txt", 12), PROMPT_TEMPLATE).path);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testExpired() throws InterruptedException {
+        AIClassifier classifier = classifier(50, 1);
+        classifier.classify(fileRecord("report.pdf", 0), PROMPT_TEMPLATE);
+        Thread.sleep(100);
+        classifier.classify(fileRecord("report.pdf", 0), PROMPT_TEMPLATE);
+        assertEquals(2, requests.get());
+
+        classifier = classifier(0, 1);
+        classifier.classify(fileRecord("report.pdf", 0), PROMPT_TEMPLATE);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void testAlbumReuse() {
+        AIClassifier classifier = classifier(TimeUnit.DAYS.toMillis(1), 1);
+        assertEquals("images", classifier.classify(fileRecord("a.jpg", 10), PROMPT_TEMPLATE).path);
+        // classified as the first file of the album
+        assertEquals("images", classifier.classify(fileRecord("b.pdf", 10), PROMPT_TEMPLATE).path);
+        assertEquals(1, requests.get());
+
+        assertEquals("documents", classifier.classify(fileRecord("b.pdf", 11), PROMPT_TEMPLATE).path);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void testBatch() throws Exception {
+        AIClassifier classifier = classifier(TimeUnit.DAYS.toMillis(1), 3);
+        List<String> fileNames = List.of("a.jpg", "b.pdf", "c.jpg");
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<java.util.concurrent.Future<Transfer.AIClassificationResult>> results = fileNames.stream()
+                    .map(fileName -> executor.submit(() -> classifier.classify(fileRecord(fileName, 0), PROMPT_TEMPLATE)))
+                    .toList();
+            for (int i = 0; i < fileNames.size(); i++) {
+                assertEquals(classify(fileNames.get(i)), results.get(i).get(10, TimeUnit.SECONDS).path);
+            }
+        }
+        assertEquals(1, requests.get());
+        assertEquals(1, batchRequests.get());
+    }
+
+    @Test
+    void testNormalize() {
+        assertEquals("Classify the FILE: a b.pdf", AIClassifier.normalize("  Classify the FILE:\n a \t b.pdf "));
+    }
+}
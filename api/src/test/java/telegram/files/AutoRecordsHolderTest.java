@@ -101,6 +101,29 @@ public class AutoRecordsHolderTest {
         ));
     }
 
+    @Test
+    public void testOnAutoRecordsUpdate_UpdatingEnabledItems() {
+        automation1.download.enabled = true;
+        autoRecordsHolder.onAutoRecordsUpdate(settingAutoRecords1);
+        SettingAutoRecords autoRecords = autoRecordsHolder.autoRecords();
+        assertNotNull(autoRecords.getDownloadEnabledItem(automation1.telegramId, automation1.chatId));
+        assertNull(autoRecords.getPreloadEnabledItem(automation1.telegramId, automation1.chatId));
+
+        SettingAutoRecords.Automation disabled = new SettingAutoRecords.Automation();
+        disabled.telegramId = automation1.telegramId;
+        disabled.chatId = automation1.chatId;
+        disabled.preload = new SettingAutoRecords.PreloadConfig();
+        disabled.preload.enabled = true;
+        disabled.download = new SettingAutoRecords.DownloadConfig();
+        disabled.transfer = new SettingAutoRecords.TransferConfig();
+        autoRecordsHolder.onAutoRecordsUpdate(new SettingAutoRecords(new ArrayList<>(List.of(disabled))));
+
+        assertNull(autoRecords.getDownloadEnabledItem(automation1.telegramId, automation1.chatId));
+        assertNotNull(autoRecords.getPreloadEnabledItem(automation1.telegramId, automation1.chatId));
+        assertTrue(autoRecords.getDownloadEnabledItems().stream().noneMatch(i -> i.chatId == automation1.chatId));
+        assertNull(autoRecords.getItem(automation1.telegramId, 0));
+    }
+
     @Test
     public void testRegisterOnRemoveListener() {
         // Prepare test listener
@@ -0,0 +1,157 @@
+package telegram.files;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of {@link AvgSpeed#update} per download progress compared with the former TreeMap implementation,
+ * with a growing number of progress updates per second.
+ */
+public class AvgSpeedBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 1_000_000;
+
+    private static final int ITERATIONS = 5_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        List<Integer> rates = args.length == 0 ? List.of(1, 10, 25) :
+                Arrays.stream(args).map(Integer::parseInt).toList();
+
+        System.out.printf("%-14s %14s %14s %16s %16s%n", "updates/s", "ring(ns)", "treemap(ns)", "ring(B/update)", "treemap(B/update)");
+        for (int rate : rates) {
+            long[] sizes = new long[ITERATIONS];
+            long[] timestamps = new long[ITERATIONS];
+            Random random = new Random(42);
+            long size = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                size += random.nextInt(2 << 20);
+                sizes[i] = size;
+                timestamps[i] = i * 1000L / rate;
+            }
+
+            AvgSpeed ring = new AvgSpeed();
+            TreeMapAvgSpeed treeMap = new TreeMapAvgSpeed(5 * 60, 6);
+            double[] ringResult = measure(sizes, timestamps, (s, t) -> {
+                ring.update(s, t);
+                return ring.getMaxSpeed();
+            });
+            double[] treeMapResult = measure(sizes, timestamps, (s, t) -> {
+                treeMap.update(s, t);
+                return treeMap.speedPoints.size();
+            });
+            System.out.printf("%-14d %14.2f %14.2f %16.1f %16.1f%n",
+                    rate, ringResult[0], treeMapResult[0], ringResult[1], treeMapResult[1]);
+        }
+    }
+
+    /**
+     * @return nanos and allocated bytes per update
+     */
+    private static double[] measure(long[] sizes, long[] timestamps, LongBinaryOperator update) {
+        long blackhole = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            blackhole += update.applyAsLong(sizes[i], timestamps[i]);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = WARMUP_ITERATIONS; i < sizes.length; i++) {
+            blackhole += update.applyAsLong(sizes[i], timestamps[i]);
+        }
+        int iterations = sizes.length - WARMUP_ITERATIONS;
+        double nanos = (System.nanoTime() - start) / (double) iterations;
+        double bytes = (THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocated) / (double) iterations;
+        if (blackhole == Long.MIN_VALUE) {
+            System.out.println(blackhole);
+        }
+        return new double[]{nanos, bytes};
+    }
+
+    /**
+     * Update path of the former implementation, points in a TreeMap and smoothing over streams.
+     */
+    private static class TreeMapAvgSpeed {
+        private final int interval;
+
+        private final int smoothingWindowSize;
+
+        final TreeMap<Long, SpeedPoint> speedPoints = new TreeMap<>();
+
+        record SpeedPoint(long downloadedSize, long speed, long timestamp) {
+        }
+
+        TreeMapAvgSpeed(int interval, int smoothingWindowSize) {
+            this.interval = interval;
+            this.smoothingWindowSize = smoothingWindowSize;
+        }
+
+        void update(long downloadedSize, long timestamp) {
+            if (downloadedSize <= 0) {
+                speedPoints.headMap(timestamp - interval * 1000L).clear();
+                return;
+            }
+            long speed = calculateInstantSpeed(downloadedSize, timestamp);
+            if (speedPoints.size() >= smoothingWindowSize) {
+                speed = smoothSpeed(speed);
+            }
+            speedPoints.put(timestamp, new SpeedPoint(downloadedSize, speed, timestamp));
+            speedPoints.headMap(timestamp - interval * 1000L).clear();
+        }
+
+        private long calculateInstantSpeed(long currentSize, long currentTime) {
+            if (speedPoints.isEmpty()) {
+                return 0;
+            }
+            int pointsToConsider = Math.min(smoothingWindowSize, speedPoints.size());
+            SpeedPoint earliestPoint = speedPoints.values().stream()
+                    .skip(speedPoints.size() - pointsToConsider)
+                    .toList()
+                    .getFirst();
+            long timeDiff = currentTime - earliestPoint.timestamp;
+            if (timeDiff <= 0) {
+                return 0;
+            }
+            long bytesDiff = currentSize - earliestPoint.downloadedSize;
+            if (bytesDiff < 0) {
+                bytesDiff = currentSize;
+            }
+            return (bytesDiff * 1000L) / timeDiff;
+        }
+
+        private long smoothSpeed(long currentSpeed) {
+            List<Long> recentSpeeds = speedPoints.values().stream()
+                    .skip(Math.max(0, speedPoints.size() - smoothingWindowSize))
+                    .map(point -> point.speed)
+                    .collect(Collectors.toList());
+            recentSpeeds.add(currentSpeed);
+            double mean = recentSpeeds.stream().mapToLong(Long::longValue).average().orElse(currentSpeed);
+            double standardDeviation = Math.sqrt(recentSpeeds.stream()
+                    .mapToDouble(speed -> (speed - mean) * (speed - mean))
+                    .average()
+                    .orElse(0.0));
+            List<Long> filteredSpeeds = recentSpeeds.stream()
+                    .filter(speed -> speed >= mean - 3 * standardDeviation && speed <= mean + 3 * standardDeviation)
+                    .toList();
+            if (filteredSpeeds.isEmpty()) {
+                return currentSpeed;
+            }
+            double totalWeight = 0;
+            double weightedSum = 0;
+            int size = filteredSpeeds.size();
+            for (int i = 0; i < size; i++) {
+                double weight = (i + 1.0) / size;
+                weightedSum += filteredSpeeds.get(i) * weight;
+                totalWeight += weight;
+            }
+            return (long) (weightedSum / totalWeight);
+        }
+    }
+}
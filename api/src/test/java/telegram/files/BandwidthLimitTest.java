@@ -0,0 +1,83 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingBandwidthLimit;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthLimitTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void testUnlimited() {
+        TokenBucket bucket = new TokenBucket();
+        bucket.consume(1000 * MB, 1000);
+        assertFalse(bucket.isExhausted());
+        assertTrue(bucket.canResume());
+    }
+
+    @Test
+    void testExhaustAndRefill() {
+        TokenBucket bucket = new TokenBucket();
+        bucket.setRate(10 * MB);
+        // starts full with 2 seconds of burst
+        assertFalse(bucket.isExhausted());
+        bucket.refill(1000);
+        bucket.refill(3000);
+        assertFalse(bucket.isExhausted());
+
+        bucket.consume(25 * MB, 3000);
+        assertTrue(bucket.isExhausted());
+        assertFalse(bucket.canResume());
+
+        // -5 MB + 10 MB/s * 1 s
+        bucket.refill(4000);
+        assertFalse(bucket.isExhausted());
+        assertFalse(bucket.canResume());
+        assertEquals(25 * MB, bucket.getMeasuredRate());
+
+        // half of the burst is back
+        bucket.refill(5000);
+        assertTrue(bucket.canResume());
+    }
+
+    @Test
+    void testLimitAfterUnlimited() {
+        TokenBucket bucket = new TokenBucket();
+        bucket.consume(1000 * MB, 1000);
+        bucket.setRate(10 * MB);
+        assertFalse(bucket.isExhausted());
+        assertTrue(bucket.canResume());
+
+        // a lower limit keeps the bytes consumed
+        bucket.consume(19 * MB, 1000);
+        bucket.setRate(2 * MB);
+        assertFalse(bucket.canResume());
+    }
+
+    @Test
+    void testPeriods() {
+        SettingBandwidthLimit setting = new SettingBandwidthLimit(0, 0);
+        SettingBandwidthLimit.Period businessHours = new SettingBandwidthLimit.Period();
+        businessHours.startTime = "09:00";
+        businessHours.endTime = "18:00";
+        businessHours.globalRate = 20 * MB;
+        businessHours.accountRate = 10 * MB;
+        SettingBandwidthLimit.Period overnight = new SettingBandwidthLimit.Period();
+        overnight.startTime = "23:00";
+        overnight.endTime = "02:00";
+        overnight.accountRate = MB;
+        setting.periods = List.of(businessHours, overnight);
+
+        assertEquals(20 * MB, setting.getGlobalRate(LocalTime.of(9, 0)));
+        assertEquals(10 * MB, setting.getAccountRate(LocalTime.of(17, 59)));
+        assertEquals(0, setting.getAccountRate(LocalTime.of(18, 0)));
+        assertEquals(MB, setting.getAccountRate(LocalTime.of(1, 0)));
+        assertEquals(MB, setting.getAccountRate(LocalTime.of(23, 30)));
+        assertEquals(0, setting.getAccountRate(LocalTime.of(3, 0)));
+    }
+}
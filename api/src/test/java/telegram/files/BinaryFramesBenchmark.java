@@ -0,0 +1,97 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Payload bytes and encode time of a tick of file progress, as one {@link EventPayload#TYPE_FILE} json message
+ * per file like before, as one json {@link EventPayload#TYPE_FILE_PROGRESS} frame and as one {@link BinaryFrames} frame.
+ */
+public class BinaryFramesBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+
+    private static final int ITERATIONS = 100_000;
+
+    public static void main(String[] args) {
+        List<Integer> sizes = args.length == 0 ? List.of(1, 10, 100) :
+                Arrays.stream(args).map(Integer::parseInt).toList();
+
+        System.out.printf("%-8s %14s %14s %14s %14s %14s %14s%n", "files",
+                "json(B)", "batch(B)", "binary(B)", "json(ns)", "batch(ns)", "binary(ns)");
+        for (int size : sizes) {
+            List<JsonObject> files = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                files.add(file(i));
+            }
+            long timestamp = System.currentTimeMillis();
+
+            long[] jsonBytes = new long[1];
+            double json = measure(() -> {
+                long bytes = 0;
+                for (JsonObject file : files) {
+                    bytes += JsonObject.of("type", EventPayload.TYPE_FILE, "data", JsonObject.of("file", file), "timestamp", timestamp)
+                            .encode().length();
+                }
+                jsonBytes[0] = bytes;
+                return bytes;
+            });
+            long[] batchBytes = new long[1];
+            double batch = measure(() -> {
+                batchBytes[0] = JsonObject.of("type", EventPayload.TYPE_FILE_PROGRESS, "data", JsonObject.of("files", files), "timestamp", timestamp)
+                        .encode().length();
+                return batchBytes[0];
+            });
+            long[] binaryBytes = new long[1];
+            double binary = measure(() -> {
+                binaryBytes[0] = BinaryFrames.fileProgress(timestamp, files).length();
+                return binaryBytes[0];
+            });
+            System.out.printf("%-8d %14d %14d %14d %14.0f %14.0f %14.0f%n", size,
+                    jsonBytes[0], batchBytes[0], binaryBytes[0], json, batch, binary);
+        }
+    }
+
+    private static JsonObject file(int id) {
+        return JsonObject.of(
+                "id", id,
+                "size", 1_572_864_000L + id,
+                "expectedSize", 1_572_864_000L + id,
+                "local", JsonObject.of(
+                        "path", "",
+                        "canBeDownloaded", true,
+                        "canBeDeleted", false,
+                        "isDownloadingActive", true,
+                        "isDownloadingCompleted", false,
+                        "downloadOffset", 0L,
+                        "downloadedPrefixSize", 524_288_000L,
+                        "downloadedSize", 524_288_000L),
+                "remote", JsonObject.of(
+                        "id", "BQACAgUAAxkBAAIBY2Vh7x9kAAE" + id,
+                        "uniqueId", "AgADXxMAAk" + id,
+                        "isUploadingActive", false,
+                        "isUploadingCompleted", true,
+                        "uploadedSize", 1_572_864_000L + id),
+                "constructor", 1263291956);
+    }
+
+    private static double measure(LongSupplier encode) {
+        long blackhole = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            blackhole += encode.getAsLong();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            blackhole += encode.getAsLong();
+        }
+        double nanos = (System.nanoTime() - start) / (double) ITERATIONS;
+        if (blackhole == Long.MIN_VALUE) {
+            System.out.println(blackhole);
+        }
+        return nanos;
+    }
+}
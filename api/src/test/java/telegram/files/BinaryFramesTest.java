@@ -0,0 +1,50 @@
+package telegram.files;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinaryFramesTest {
+
+    @Test
+    void testFileProgress() {
+        Buffer buffer = BinaryFrames.fileProgress(1700000000000L, List.of(
+                JsonObject.of("id", 7, "size", 0L, "expectedSize", 5000L,
+                        "local", JsonObject.of("downloadedSize", 1200L, "isDownloadingActive", true, "isDownloadingCompleted", false)),
+                JsonObject.of("id", 8, "size", 300L, "expectedSize", 300L,
+                        "local", JsonObject.of("downloadedSize", 300L, "isDownloadingActive", false, "isDownloadingCompleted", true))
+        ));
+
+        assertEquals(BinaryFrames.HEADER_SIZE + 2 + 2 * BinaryFrames.FILE_SIZE, buffer.length());
+        assertEquals(EventPayload.TYPE_FILE_PROGRESS, buffer.getUnsignedByte(0));
+        assertEquals(1700000000000L, buffer.getLong(1));
+        assertEquals(2, buffer.getUnsignedShort(9));
+
+        int offset = 11;
+        assertEquals(7, buffer.getInt(offset));
+        assertEquals(5000L, buffer.getLong(offset + 4));
+        assertEquals(1200L, buffer.getLong(offset + 12));
+        assertEquals(BinaryFrames.FLAG_ACTIVE, buffer.getUnsignedByte(offset + 20));
+
+        offset += BinaryFrames.FILE_SIZE;
+        assertEquals(8, buffer.getInt(offset));
+        assertEquals(300L, buffer.getLong(offset + 4));
+        assertEquals(BinaryFrames.FLAG_COMPLETED, buffer.getUnsignedByte(offset + 20));
+    }
+
+    @Test
+    void testFileDownload() {
+        Buffer buffer = BinaryFrames.fileDownload(JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "timestamp", 42L,
+                "data", JsonObject.of("totalSize", 9000L, "totalCount", 3, "downloadedSize", 4500L)));
+
+        assertEquals(EventPayload.TYPE_FILE_DOWNLOAD, buffer.getUnsignedByte(0));
+        assertEquals(42L, buffer.getLong(1));
+        assertEquals(9000L, buffer.getLong(9));
+        assertEquals(3, buffer.getInt(17));
+        assertEquals(4500L, buffer.getLong(21));
+    }
+}
@@ -0,0 +1,133 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import telegram.files.repository.ContentRecord;
+import telegram.files.repository.ContentRepository;
+import telegram.files.repository.FileRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ContentStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private InMemoryContentRepository repository;
+
+    private ContentStore contentStore;
+
+    static class InMemoryContentRepository implements ContentRepository {
+        final Map<String, ContentRecord> records = new LinkedHashMap<>();
+
+        @Override
+        public Future<Boolean> createIfNotExist(ContentRecord record) {
+            return Future.succeededFuture(records.putIfAbsent(record.uniqueId(), record) == null);
+        }
+
+        @Override
+        public Future<ContentRecord> getByUniqueId(String uniqueId) {
+            return Future.succeededFuture(records.get(uniqueId));
+        }
+
+        @Override
+        public Future<List<ContentRecord>> getByHash(String hash, long size) {
+            return Future.succeededFuture(records.values().stream()
+                    .filter(r -> r.hash().equals(hash) && r.size() == size)
+                    .toList());
+        }
+
+        @Override
+        public Future<Void> updatePath(String uniqueId, String path, boolean linked) {
+            ContentRecord r = records.get(uniqueId);
+            records.put(uniqueId, new ContentRecord(r.uniqueId(), r.hash(), r.size(), path, linked, r.createdAt()));
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<JsonObject> getStatistics() {
+            return Future.succeededFuture(JsonObject.of());
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryContentRepository();
+        contentStore = new ContentStore(() -> repository, ContentStore.Mode.link, FileHasher.Algorithm.XXH64);
+    }
+
+    private FileRecord fileRecord(String uniqueId, String content) throws IOException {
+        Path path = tempDir.resolve(uniqueId + ".jpg");
+        Files.writeString(path, content);
+        FileRecord fileRecord = mock(FileRecord.class);
+        when(fileRecord.uniqueId()).thenReturn(uniqueId);
+        when(fileRecord.localPath()).thenReturn(path.toString());
+        return fileRecord;
+    }
+
+    @Test
+    void testIndexLinksDuplicate() throws IOException {
+        FileRecord first = fileRecord("a", "same content");
+        FileRecord second = fileRecord("b", "same content");
+        FileRecord other = fileRecord("c", "other content");
+
+        assertFalse(contentStore.index(first).linked());
+        assertTrue(contentStore.index(second).linked());
+        assertFalse(contentStore.index(other).linked());
+
+        assertTrue(Files.isSameFile(Path.of(first.localPath()), Path.of(second.localPath())));
+        assertFalse(Files.isSameFile(Path.of(first.localPath()), Path.of(other.localPath())));
+        assertEquals("same content", Files.readString(Path.of(second.localPath())));
+        // indexed once
+        assertSame(repository.records.get("b"), contentStore.index(second));
+    }
+
+    @Test
+    void testIndexOnlyMode() throws IOException {
+        contentStore = new ContentStore(() -> repository, ContentStore.Mode.index, FileHasher.Algorithm.XXH64);
+        FileRecord first = fileRecord("a", "same content");
+        FileRecord second = fileRecord("b", "same content");
+        contentStore.index(first);
+        assertFalse(contentStore.index(second).linked());
+        assertFalse(Files.isSameFile(Path.of(first.localPath()), Path.of(second.localPath())));
+        assertEquals(repository.records.get("a").hash(), repository.records.get("b").hash());
+    }
+
+    @Test
+    void testTransferLink() throws IOException {
+        FileRecord first = fileRecord("a", "same content");
+        contentStore.index(first);
+        Path stored = tempDir.resolve("nas").resolve("a.jpg");
+        Files.createDirectories(stored.getParent());
+        Files.move(Path.of(first.localPath()), stored);
+        contentStore.moved(first, stored.toString());
+
+        FileRecord second = fileRecord("b", "same content");
+        Path target = tempDir.resolve("nas").resolve("chat").resolve("b.jpg");
+        assertTrue(contentStore.link(second, target));
+        assertTrue(Files.isSameFile(stored, target));
+        assertEquals(target.toString(), repository.records.get("b").path());
+        assertTrue(repository.records.get("b").linked());
+
+        // nothing stored with the content
+        FileRecord other = fileRecord("c", "other content");
+        assertFalse(contentStore.link(other, tempDir.resolve("nas").resolve("c.jpg")));
+    }
+
+    @Test
+    void testDisabled() throws IOException {
+        contentStore = new ContentStore(() -> repository, ContentStore.Mode.off, FileHasher.Algorithm.XXH64);
+        assertNull(contentStore.index(fileRecord("a", "content")));
+        assertFalse(contentStore.link(fileRecord("b", "content"), tempDir.resolve("b2.jpg")));
+        assertTrue(repository.records.isEmpty());
+    }
+}
@@ -12,9 +12,14 @@ import io.vertx.sqlclient.SqlClient;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+import telegram.files.repository.FileTagRecord;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.TelegramRecord;
 
+import java.util.List;
+import java.util.Map;
+
 @ExtendWith(VertxExtension.class)
 public class DataVerticleTest {
 
@@ -198,4 +203,189 @@ public class DataVerticleTest {
                 })));
     }
 
+    @Test
+    @DisplayName("Test reset interrupted transfers")
+    void resetTransferStatusTest(Vertx vertx, VertxTestContext testContext) {
+        DataVerticle.fileRepository.createIfNotExistBatch(List.of(
+                        batchFileRecord(1, "unique_id_1", 1, 0, null),
+                        batchFileRecord(2, "unique_id_2", 2, 0, null),
+                        batchFileRecord(3, "unique_id_3", 3, 0, null)
+                ))
+                .compose(_ -> DataVerticle.fileRepository.updateTransferStatus("unique_id_1", FileRecord.TransferStatus.transferring, null))
+                .compose(_ -> DataVerticle.fileRepository.updateTransferStatus("unique_id_2", FileRecord.TransferStatus.transferring, null))
+                .compose(_ -> DataVerticle.fileRepository.updateTransferStatus(FileRecord.TransferStatus.transferring, FileRecord.TransferStatus.idle))
+                .compose(count -> {
+                    testContext.verify(() -> Assertions.assertEquals(2, count));
+                    return DataVerticle.fileRepository.getFilesByUniqueId(List.of("unique_id_1", "unique_id_2", "unique_id_3"));
+                })
+                .onComplete(testContext.succeeding(files -> testContext.verify(() -> {
+                    Assertions.assertEquals(3, files.size());
+                    files.values().forEach(f -> Assertions.assertEquals(FileRecord.TransferStatus.idle.name(), f.transferStatus()));
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test batch create file record if not exist")
+    void createIfNotExistBatchTest(Vertx vertx, VertxTestContext testContext) {
+        FileRecord exist = batchFileRecord(1, "unique_id_1", 1, 0, "caption");
+        List<FileRecord> fileRecords = List.of(
+                batchFileRecord(1, "unique_id_1", 1, 0, "caption"),
+                batchFileRecord(2, "unique_id_2", 2, 5, null),
+                // the same file forwarded in another message
+                batchFileRecord(2, "unique_id_2", 3, 5, null),
+                batchFileRecord(3, "unique_id_3", 4, 5, "album caption")
+        );
+        DataVerticle.fileRepository.create(exist)
+                .compose(_ -> DataVerticle.fileRepository.createIfNotExistBatch(fileRecords))
+                .compose(count -> {
+                    testContext.verify(() -> Assertions.assertEquals(2, count));
+                    return DataVerticle.fileRepository.createIfNotExistBatch(fileRecords);
+                })
+                .compose(count -> {
+                    testContext.verify(() -> Assertions.assertEquals(0, count));
+                    return DataVerticle.fileRepository.getByUniqueId("unique_id_2");
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(2, r.messageId());
+                    Assertions.assertEquals("album caption", r.caption());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test get files after keyset")
+    void getFilesAfterTest(Vertx vertx, VertxTestContext testContext) {
+        List<FileRecord> fileRecords = List.of(
+                batchFileRecord(1, "unique_id_1", 1, 0, null),
+                batchFileRecord(2, "unique_id_2", 2, 0, null),
+                // the same message stored by another account, on the page boundary
+                new FileRecord(
+                        4, "unique_id_4", 2, 1, 2, 0, 1, false, 1, 0, "photo", "mime_type", "file_name", "thumbnail", "thumbnailUniqueId", null, "extra", null, FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+                ),
+                batchFileRecord(3, "unique_id_3", 3, 0, null)
+        );
+        DataVerticle.fileRepository.createIfNotExistBatch(fileRecords)
+                .compose(_ -> DataVerticle.fileRepository.getFilesAfter(0, Map.of(), FileRepository.FileKey.FIRST, 2))
+                .compose(page -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of("unique_id_1", "unique_id_2"), page.stream().map(FileRecord::uniqueId).toList()));
+                    return DataVerticle.fileRepository.getFilesAfter(0, Map.of(), FileRepository.FileKey.of(page.getLast()), 2);
+                })
+                .onComplete(testContext.succeeding(page -> testContext.verify(() -> {
+                    Assertions.assertEquals(List.of("unique_id_4", "unique_id_3"), page.stream().map(FileRecord::uniqueId).toList());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test get files count modes")
+    void getFilesCountTest(Vertx vertx, VertxTestContext testContext) {
+        DataVerticle.fileRepository.create(batchFileRecord(1, "unique_id_1", 1, 0, null))
+                .compose(_ -> DataVerticle.fileRepository.getFiles(1, Map.of()))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(1L, r.v3));
+                    return DataVerticle.fileRepository.create(batchFileRecord(2, "unique_id_2", 2, 0, null));
+                })
+                .compose(_ -> DataVerticle.fileRepository.getFiles(1, Map.of("count", "estimate")))
+                .compose(r -> {
+                    // the cached count is expired by create, but still served as estimate
+                    testContext.verify(() -> Assertions.assertEquals(1L, r.v3));
+                    return DataVerticle.fileRepository.getFiles(1, Map.of("count", "exact", "fromMessageId", "2"));
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(2L, r.v3));
+                    return DataVerticle.fileRepository.getFiles(1, Map.of("count", "none"));
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertNull(r.v3);
+                    Assertions.assertEquals(2, r.v1.size());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test search files by file name and caption")
+    void searchFilesTest(Vertx vertx, VertxTestContext testContext) {
+        List<FileRecord> fileRecords = List.of(
+                batchFileRecord(1, "unique_id_1", 1, 5, "Summer holiday"),
+                batchFileRecord(2, "unique_id_2", 2, 5, null),
+                batchFileRecord(3, "unique_id_3", 3, 0, "Work notes")
+        );
+        DataVerticle.fileRepository.createIfNotExistBatch(fileRecords)
+                .compose(_ -> DataVerticle.fileRepository.getFiles(0, Map.of("search", "holiday")))
+                .compose(r -> {
+                    // the album caption is copied to the second record, the index follows the update
+                    testContext.verify(() -> Assertions.assertEquals(List.of(2L, 1L), r.v1.stream().map(FileRecord::messageId).toList()));
+                    return DataVerticle.fileRepository.getFiles(0, Map.of("search", "NOTES", "sort", "relevance", "order", "desc"));
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of(3L), r.v1.stream().map(FileRecord::messageId).toList()));
+                    return DataVerticle.fileRepository.deleteByUniqueId("unique_id_3")
+                            .compose(_ -> DataVerticle.fileRepository.getFiles(0, Map.of("search", "notes")));
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertTrue(r.v1.isEmpty()));
+                    // VACUUM may renumber the rowids of file_record, the index must not depend on them
+                    return Config.isSqlite() ? DataVerticle.pool.query("VACUUM").execute()
+                            .compose(_ -> DataVerticle.fileRepository.getFiles(0, Map.of("search", "holiday"))) :
+                            DataVerticle.fileRepository.getFiles(0, Map.of("search", "holiday"));
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of(2L, 1L), r.v1.stream().map(FileRecord::messageId).toList()));
+                    // too short for the full-text index
+                    return DataVerticle.fileRepository.getFiles(0, Map.of("search", "Su"));
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(List.of(2L, 1L), r.v1.stream().map(FileRecord::messageId).toList());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test filter files by tags")
+    void filterFilesByTagsTest(Vertx vertx, VertxTestContext testContext) {
+        List<FileRecord> fileRecords = List.of(
+                batchFileRecord(1, "unique_id_1", 1, 0, null),
+                batchFileRecord(2, "unique_id_2", 2, 0, null),
+                batchFileRecord(3, "unique_id_3", 3, 0, null)
+        );
+        DataVerticle.fileRepository.createIfNotExistBatch(fileRecords)
+                .compose(_ -> DataVerticle.fileRepository.updateTags("unique_id_1", "cat,dog"))
+                .compose(_ -> DataVerticle.fileRepository.updateTags("unique_id_2", "category"))
+                .compose(_ -> DataVerticle.fileRepository.updateTags("unique_id_3", "dog"))
+                .compose(_ -> DataVerticle.fileRepository.updateTags("unique_id_3", "bird"))
+                .compose(_ -> DataVerticle.fileRepository.getFiles(0, Map.of("tags", "cat")))
+                .compose(r -> {
+                    // no substring match on "category"
+                    testContext.verify(() -> Assertions.assertEquals(List.of(1L), r.v1.stream().map(FileRecord::messageId).toList()));
+                    return DataVerticle.fileRepository.getFiles(0, Map.of("tags", "dog,bird"));
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(List.of(3L, 1L), r.v1.stream().map(FileRecord::messageId).toList());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test backfill file tags")
+    void backfillFileTagsTest(Vertx vertx, VertxTestContext testContext) {
+        FileRecord fileRecord = new FileRecord(
+                1, "unique_id", 1, 1, 1, 0, 1, false, 1, 0, "photo", "mime_type", "file_name", "thumbnail", "thumbnailUniqueId", null, null, null,
+                FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, "a, b,", 0, 0, 0
+        );
+        DataVerticle.fileRepository.create(fileRecord)
+                .compose(_ -> FileTagRecord.backfill(DataVerticle.pool))
+                .compose(_ -> DataVerticle.fileRepository.getFiles(0, Map.of("tags", "b")))
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(1, r.v1.size());
+                    testContext.completeNow();
+                })));
+    }
+
+    private static FileRecord batchFileRecord(int id, String uniqueId, long messageId, long mediaAlbumId, String caption) {
+        return new FileRecord(
+                id, uniqueId, 1, 1, messageId, mediaAlbumId, 1, false, 1, 0, "photo", "mime_type", "file_name", "thumbnail", "thumbnailUniqueId", caption, "extra", null, FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+        );
+    }
+
 }
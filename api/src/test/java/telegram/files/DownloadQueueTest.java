@@ -0,0 +1,111 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadQueueTest {
+
+    private static TdApi.Message message(long chatId, long id) {
+        TdApi.Message message = new TdApi.Message();
+        message.chatId = chatId;
+        message.id = id;
+        return message;
+    }
+
+    private static List<TdApi.Message> messages(long chatId, int count) {
+        return IntStream.range(0, count).mapToObj(i -> message(chatId, i)).toList();
+    }
+
+    private static List<Long> pollChatIds(DownloadQueue queue, int count) {
+        List<Long> chatIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TdApi.Message message = queue.poll();
+            if (message == null) break;
+            chatIds.add(message.chatId);
+        }
+        return chatIds;
+    }
+
+    @Test
+    void testLiveBeforeHistorical() {
+        DownloadQueue queue = new DownloadQueue(100, _ -> 1);
+        assertEquals(10, queue.addHistorical(messages(1, 10)));
+        queue.addLive(message(2, 100));
+
+        assertEquals(2, queue.poll().chatId);
+        assertEquals(1, queue.poll().chatId);
+        assertEquals(8, queue.historicalSize(1));
+    }
+
+    @Test
+    void testRoundRobinAcrossChats() {
+        DownloadQueue queue = new DownloadQueue(100, _ -> 1);
+        queue.addHistorical(messages(1, 5));
+        queue.addHistorical(messages(2, 2));
+        queue.addHistorical(messages(3, 1));
+
+        assertEquals(List.of(1L, 2L, 3L, 1L, 2L, 1L, 1L, 1L), pollChatIds(queue, 10));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void testWeights() {
+        DownloadQueue queue = new DownloadQueue(100, chatId -> chatId == 1 ? 3 : 0);
+        queue.addHistorical(messages(1, 6));
+        queue.addHistorical(messages(2, 6));
+
+        assertEquals(List.of(1L, 1L, 1L, 2L, 1L, 1L, 1L, 2L), pollChatIds(queue, 8));
+    }
+
+    @Test
+    void testCapacity() {
+        DownloadQueue queue = new DownloadQueue(5, _ -> 1);
+        assertEquals(3, queue.addHistorical(messages(1, 3)));
+        assertEquals(2, queue.addHistorical(messages(2, 3)));
+        assertEquals(0, queue.remainingCapacity());
+
+        // live messages push out the longest history
+        assertTrue(queue.addLive(message(3, 100)));
+        assertEquals(2, queue.historicalSize(1));
+        assertEquals(5, queue.size());
+
+        DownloadQueue liveOnly = new DownloadQueue(1, _ -> 1);
+        assertTrue(liveOnly.addLive(message(1, 1)));
+        assertFalse(liveOnly.addLive(message(1, 2)));
+        assertEquals(1, liveOnly.getStats().getLong("dropped"));
+    }
+
+    @Test
+    void testRemoveChat() {
+        DownloadQueue queue = new DownloadQueue(100, _ -> 1);
+        queue.addHistorical(messages(1, 3));
+        queue.addHistorical(messages(2, 3));
+        queue.addLive(message(1, 100));
+        queue.removeChat(1);
+
+        assertEquals(3, queue.size());
+        assertEquals(List.of(2L, 2L, 2L), pollChatIds(queue, 10));
+        assertEquals(0, queue.getStats().getJsonArray("chats").size());
+    }
+
+    @Test
+    void testPollAdmissible() {
+        DownloadQueue queue = new DownloadQueue(100, _ -> 1);
+        queue.addHistorical(messages(1, 3));
+        queue.addHistorical(List.of(message(2, 10), message(2, 11)));
+
+        TdApi.Message message = queue.poll(m -> m.chatId == 2);
+        assertEquals(10, message.id);
+        assertEquals(3, queue.historicalSize(1));
+        assertNull(queue.poll(m -> m.chatId == 3));
+        assertEquals(4, queue.size());
+        // skipped messages keep their order
+        assertEquals(0, queue.poll().id);
+    }
+}
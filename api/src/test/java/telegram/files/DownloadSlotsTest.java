@@ -0,0 +1,118 @@
+package telegram.files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingDownloadAllocation;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadSlotsTest {
+    private DownloadSlots downloadSlots;
+
+    @BeforeEach
+    void setUp() {
+        downloadSlots = new DownloadSlots();
+    }
+
+    @Test
+    void testAcquire() {
+        assertTrue(downloadSlots.acquire(1));
+        assertFalse(downloadSlots.acquire(1));
+        assertTrue(downloadSlots.acquire(2));
+        assertEquals(2, downloadSlots.used());
+        assertEquals(3, downloadSlots.surplus(5, Set.of()));
+        assertEquals(0, downloadSlots.surplus(1, Set.of()));
+    }
+
+    @Test
+    void testSurplusWithDownloadsOutsideSlots() {
+        downloadSlots.acquire(1);
+        downloadSlots.acquire(2);
+        // 1 and 2 are active in their slots, 10, 11 and 12 were resumed after a restart
+        Set<Integer> downloading = Set.of(1, 2, 10, 11, 12);
+        assertEquals(0, downloadSlots.surplus(5, downloading));
+
+        downloadSlots.onFileUpdated(1, true, false);
+        downloadSlots.onFileUpdated(1, false, true);
+        assertEquals(1, downloadSlots.surplus(5, Set.of(2, 10, 11, 12)));
+    }
+
+    @Test
+    void testReleaseAfterActive() {
+        downloadSlots.acquire(1);
+        // update before the download starts keeps the slot
+        assertFalse(downloadSlots.onFileUpdated(1, false, false));
+        assertFalse(downloadSlots.onFileUpdated(1, true, false));
+        assertEquals(1, downloadSlots.used());
+
+        assertTrue(downloadSlots.onFileUpdated(1, false, false));
+        assertEquals(0, downloadSlots.used());
+        assertFalse(downloadSlots.onFileUpdated(1, false, false));
+    }
+
+    @Test
+    void testReleaseOnCompleted() {
+        downloadSlots.acquire(1);
+        assertTrue(downloadSlots.onFileUpdated(1, false, true));
+        assertEquals(0, downloadSlots.used());
+        // files without a slot are ignored
+        assertFalse(downloadSlots.onFileUpdated(2, false, true));
+    }
+
+    @Test
+    void testPrune() {
+        downloadSlots.acquire(1);
+        downloadSlots.acquire(2);
+        downloadSlots.onFileUpdated(2, true, false);
+
+        assertEquals(0, downloadSlots.prune(60 * 1000));
+        assertEquals(1, downloadSlots.prune(-1));
+        assertEquals(1, downloadSlots.used());
+    }
+
+    @Test
+    void testUtilization() {
+        assertEquals(0, downloadSlots.getUtilization());
+        downloadSlots.acquire(1);
+        downloadSlots.sample(4, 1000);
+        downloadSlots.acquire(2);
+        downloadSlots.acquire(3);
+        downloadSlots.sample(4, 2000);
+
+        assertEquals(0.5, downloadSlots.getUtilization(), 0.0001);
+        assertEquals(2, downloadSlots.getStats().getJsonArray("samples").size());
+        assertEquals(3, downloadSlots.getStats().getInteger("used"));
+    }
+
+    @Test
+    void testCanAcquireBySize() {
+        long mb = 1024 * 1024;
+        // 5 slots, 2 reserved for files up to 10 MB, 300 MB in flight
+        SettingDownloadAllocation allocation = new SettingDownloadAllocation(SettingDownloadAllocation.Mode.size, 300 * mb, 10 * mb, 40);
+        assertEquals(2, allocation.reservedSlots(5));
+
+        // one large file is always let through
+        assertTrue(downloadSlots.canAcquire(4096 * mb, 5, allocation));
+        downloadSlots.acquire(1, 4096 * mb);
+        // bytes budget is used up
+        assertFalse(downloadSlots.canAcquire(100 * mb, 5, allocation));
+        assertTrue(downloadSlots.canAcquire(mb, 5, allocation));
+        downloadSlots.release(1);
+
+        downloadSlots.acquire(1, 100 * mb);
+        downloadSlots.acquire(2, 100 * mb);
+        downloadSlots.acquire(3, 50 * mb);
+        // slots left are reserved for small files
+        assertFalse(downloadSlots.canAcquire(20 * mb, 5, allocation));
+        assertTrue(downloadSlots.canAcquire(mb, 5, allocation));
+        downloadSlots.acquire(4, mb);
+        downloadSlots.acquire(5, mb);
+        assertFalse(downloadSlots.canAcquire(mb, 5, allocation));
+
+        // by count any free slot will do
+        assertTrue(downloadSlots.canAcquire(4096 * mb, 6, new SettingDownloadAllocation()));
+        assertEquals(252 * mb, downloadSlots.bytesInFlight());
+    }
+}
@@ -0,0 +1,121 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class FileDownloadStatusCacheTest {
+
+    private static final String UNIQUE_ID = "unique_id";
+
+    private FileRepository fileRepository;
+
+    private final Map<String, FileRecord> records = new HashMap<>();
+
+    private final List<JsonObject> events = new ArrayList<>();
+
+    private FileDownloadStatusCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.getFilesByUniqueId(anyList()))
+                .thenAnswer(invocation -> {
+                    List<String> uniqueIds = invocation.getArgument(0);
+                    Map<String, FileRecord> found = new HashMap<>();
+                    uniqueIds.stream().filter(records::containsKey).forEach(id -> found.put(id, records.get(id)));
+                    return Future.succeededFuture(found);
+                });
+        when(fileRepository.batchUpdateDownloadStatus(anyList()))
+                .thenAnswer(invocation -> Future.succeededFuture(invocation.<List<?>>getArgument(0).size()));
+
+        records.clear();
+        events.clear();
+        records.put(UNIQUE_ID, record(FileRecord.DownloadStatus.idle, null));
+        cache = new FileDownloadStatusCache("test", fileRepository, (_, result) -> events.add(result));
+    }
+
+    @Test
+    void progressTicksAreAbsorbedTest() {
+        assertFalse(cache.offer(file(true, false, null)));
+        cache.flush();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.offer(file(true, false, null)));
+        }
+        cache.flush();
+
+        verify(fileRepository, times(1)).getFilesByUniqueId(anyList());
+        assertEquals(1, cache.getChatId(UNIQUE_ID));
+        JsonObject stats = cache.getStats();
+        assertEquals(5, stats.getLong("absorbed"));
+        assertEquals(1, stats.getLong("flushedRows"));
+        // first flush: 3 round-trips replaced by 2, then 2 per absorbed tick
+        assertEquals(11, stats.getLong("savedRoundTrips"));
+    }
+
+    @Test
+    void completionIsFlushedTest() {
+        cache.offer(file(true, false, null));
+        cache.offer(file(true, false, null));
+        cache.offer(file(false, true, "/tmp/file"));
+        cache.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<FileRepository.DownloadStatusUpdate>> captor = ArgumentCaptor.forClass(List.class);
+        verify(fileRepository).batchUpdateDownloadStatus(captor.capture());
+        List<FileRepository.DownloadStatusUpdate> updates = captor.getValue();
+        assertEquals(1, updates.size());
+        assertEquals(FileRecord.DownloadStatus.completed, updates.getFirst().downloadStatus());
+        assertEquals("/tmp/file", updates.getFirst().localPath());
+
+        assertEquals(1, events.size());
+        assertEquals(FileRecord.DownloadStatus.completed.name(), events.getFirst().getString("downloadStatus"));
+        assertEquals("/tmp/file", events.getFirst().getString("localPath"));
+        assertEquals(2, cache.getStats().getLong("coalesced"));
+    }
+
+    @Test
+    void unknownFileIsNotUpdatedTest() {
+        records.clear();
+        cache.offer(file(true, false, null));
+        cache.flush();
+        assertTrue(cache.offer(file(true, false, null)));
+        assertEquals(0, cache.getChatId(UNIQUE_ID));
+
+        cache.invalidate(UNIQUE_ID);
+        assertFalse(cache.offer(file(true, false, null)));
+        assertTrue(events.isEmpty());
+    }
+
+    private static TdApi.File file(boolean downloading, boolean completed, String path) {
+        TdApi.File file = new TdApi.File();
+        file.id = 1;
+        file.local = new TdApi.LocalFile();
+        file.local.path = path;
+        file.local.canBeDownloaded = true;
+        file.local.isDownloadingActive = downloading;
+        file.local.isDownloadingCompleted = completed;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = UNIQUE_ID;
+        return file;
+    }
+
+    private static FileRecord record(FileRecord.DownloadStatus downloadStatus, String localPath) {
+        return new FileRecord(
+                1, UNIQUE_ID, 1, 1, 1, 1, 1, false, 1, 0, "photo", "mime_type", "file_name", "thumbnail", "thumbnailUniqueId", "caption", null, localPath,
+                downloadStatus.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+        );
+    }
+}
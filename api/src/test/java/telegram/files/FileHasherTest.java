@@ -0,0 +1,135 @@
+package telegram.files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHasherTest {
+    @TempDir
+    Path tempDir;
+
+    private FileHasher fileHasher;
+
+    @BeforeEach
+    void setUp() {
+        fileHasher = new FileHasher(100);
+    }
+
+    private File file(String name, byte[] content) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.write(path, content);
+        return path.toFile();
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long xxh64(String input) {
+        XXHash64 xxHash64 = new XXHash64();
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        xxHash64.update(bytes, 0, bytes.length);
+        return xxHash64.digest();
+    }
+
+    @Test
+    void testXXHash64KnownValues() {
+        assertEquals(0xef46db3751d8e999L, xxh64(""));
+        assertEquals(0xd24ec4f1a98c6e5bL, xxh64("a"));
+        assertEquals(0x44bc2cf5ad770999L, xxh64("abc"));
+    }
+
+    @Test
+    void testXXHash64Chunked() {
+        byte[] bytes = random(1000, 1);
+        XXHash64 oneShot = new XXHash64();
+        oneShot.update(bytes, 0, bytes.length);
+
+        XXHash64 chunked = new XXHash64();
+        for (int offset = 0; offset < bytes.length; offset += 7) {
+            chunked.update(bytes, offset, Math.min(7, bytes.length - offset));
+        }
+        assertEquals(oneShot.digest(), chunked.digest());
+
+        chunked.reset();
+        chunked.update(bytes, 0, bytes.length);
+        assertEquals(oneShot.digest(), chunked.digest());
+    }
+
+    @Test
+    void testHashLargerThanChunk() throws Exception {
+        byte[] bytes = random(FileHasher.CHUNK_SIZE * 2 + 123, 2);
+        File file = file("large.bin", bytes);
+
+        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(bytes));
+        assertEquals(expected, fileHasher.hash(file, FileHasher.Algorithm.MD5));
+
+        XXHash64 xxHash64 = new XXHash64();
+        xxHash64.update(bytes, 0, bytes.length);
+        assertEquals("%016x".formatted(xxHash64.digest()), fileHasher.hash(file, FileHasher.Algorithm.XXH64));
+    }
+
+    @Test
+    void testCache() throws IOException {
+        File file = file("a.bin", random(1000, 3));
+        String hash = fileHasher.hash(file, FileHasher.Algorithm.XXH64);
+        assertEquals(hash, fileHasher.hash(file, FileHasher.Algorithm.XXH64));
+        assertEquals(1, fileHasher.getStats().getLong("hits"));
+        assertEquals(1, fileHasher.getStats().getLong("misses"));
+
+        // rewritten, the cached hash is stale
+        Files.write(file.toPath(), random(1000, 4));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 1000));
+        assertNotEquals(hash, fileHasher.hash(file, FileHasher.Algorithm.XXH64));
+        assertEquals(2, fileHasher.getStats().getLong("misses"));
+    }
+
+    @Test
+    void testIsSameContent() throws IOException {
+        byte[] bytes = random(FileHasher.SAMPLE_SIZE * 4, 5);
+        File file1 = file("1.bin", bytes);
+        File file2 = file("2.bin", bytes.clone());
+        assertTrue(fileHasher.isSameContent(file1, file2, FileHasher.Algorithm.XXH64));
+
+        // a different sampled block is rejected before hashing
+        byte[] other = bytes.clone();
+        other[other.length - 1] ^= 1;
+        long hashed = fileHasher.getStats().getLong("bytesHashed");
+        assertFalse(fileHasher.isSameContent(file1, file("3.bin", other), FileHasher.Algorithm.XXH64));
+        assertEquals(1, fileHasher.getStats().getLong("sampleRejects"));
+        assertEquals(hashed, fileHasher.getStats().getLong("bytesHashed"));
+
+        // outside the samples
+        other = bytes.clone();
+        other[FileHasher.SAMPLE_SIZE + 1] ^= 1;
+        assertFalse(fileHasher.isSameContent(file1, file("4.bin", other), FileHasher.Algorithm.MD5));
+
+        assertFalse(fileHasher.isSameContent(file1, file("5.bin", random(10, 6)), FileHasher.Algorithm.XXH64));
+        assertFalse(fileHasher.isSameContent(file1, tempDir.resolve("missing").toFile(), FileHasher.Algorithm.XXH64));
+    }
+
+    @Test
+    void testContentEquals() throws IOException {
+        byte[] bytes = random(FileHasher.CHUNK_SIZE + 10, 7);
+        File file1 = file("1.bin", bytes);
+        assertTrue(fileHasher.contentEquals(file1.toPath(), file("2.bin", bytes.clone()).toPath()));
+
+        bytes[FileHasher.CHUNK_SIZE + 5] ^= 1;
+        assertFalse(fileHasher.contentEquals(file1.toPath(), file("3.bin", bytes).toPath()));
+        assertTrue(fileHasher.contentEquals(file("4.bin", new byte[0]).toPath(), file("5.bin", new byte[0]).toPath()));
+    }
+}
@@ -0,0 +1,91 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMoverTest {
+    @TempDir
+    Path tempDir;
+
+    private final FileMover fileMover = new FileMover(true);
+
+    private Path source(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        Path source = tempDir.resolve("source.bin");
+        Files.write(source, bytes);
+        return source;
+    }
+
+    @Test
+    void testRename() throws IOException {
+        Path source = source(1000);
+        byte[] bytes = Files.readAllBytes(source);
+        Path target = tempDir.resolve("nas").resolve("chat").resolve("target.bin");
+
+        FileMover.Result result = fileMover.move(source, target, false, null);
+        assertTrue(result.renamed());
+        assertFalse(Files.exists(source));
+        assertArrayEquals(bytes, Files.readAllBytes(target));
+
+        Path other = source(10);
+        assertThrows(FileAlreadyExistsException.class, () -> fileMover.move(other, target, false, null));
+        assertTrue(fileMover.move(other, target, true, null).renamed());
+        assertEquals(10, Files.size(target));
+    }
+
+    @Test
+    void testCopy() throws IOException {
+        Path source = source(100_000);
+        Path target = tempDir.resolve("target.bin");
+        List<long[]> progress = new ArrayList<>();
+
+        assertEquals(0, fileMover.copy(source, target, (transferred, total) -> progress.add(new long[]{transferred, total})));
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        assertFalse(Files.exists(tempDir.resolve(".target.bin" + FileMover.PART_SUFFIX)));
+        assertFalse(Files.exists(tempDir.resolve(".target.bin" + FileMover.STATE_SUFFIX)));
+        assertArrayEquals(new long[]{100_000, 100_000}, progress.getLast());
+    }
+
+    @Test
+    void testResume() throws IOException {
+        Path source = source(100_000);
+        byte[] bytes = Files.readAllBytes(source);
+        Path target = tempDir.resolve("target.bin");
+        Path part = tempDir.resolve(".target.bin" + FileMover.PART_SUFFIX);
+        Path state = tempDir.resolve(".target.bin" + FileMover.STATE_SUFFIX);
+
+        // synced up to 40000, garbage written after the checkpoint
+        byte[] partial = Arrays.copyOf(bytes, 60_000);
+        Arrays.fill(partial, 40_000, 60_000, (byte) 0);
+        Files.write(part, partial);
+        JsonObject saved = JsonObject.of("source", source.toAbsolutePath().toString(),
+                "size", 100_000L,
+                "modified", Files.getLastModifiedTime(source).toMillis(),
+                "offset", 40_000L);
+        Files.writeString(state, saved.encode());
+
+        assertEquals(40_000, fileMover.copy(source, target, null));
+        assertArrayEquals(bytes, Files.readAllBytes(target));
+        assertFalse(Files.exists(state));
+
+        // state of another source, the copy starts over
+        Files.write(part, partial);
+        Files.writeString(state, saved.copy().put("size", 99_999L).encode());
+        Files.delete(target);
+        assertEquals(0, fileMover.copy(source, target, null));
+        assertArrayEquals(bytes, Files.readAllBytes(target));
+    }
+}
@@ -0,0 +1,174 @@
+package telegram.files;
+
+import cn.hutool.core.collection.IterUtil;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.sqlclient.PreparedQuery;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.Tuple;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+import telegram.files.repository.impl.FileRepositoryImpl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Verify that the hot queries of {@link FileRepositoryImpl} are served by an index.
+ * The statements are recorded from the repository methods, so the plans are those of the queries actually run.
+ * Only SQLite is checked, the Postgres and MySQL planners prefer sequential scans on an empty table.
+ */
+@ExtendWith(VertxExtension.class)
+public class FileRecordIndexTest {
+
+    private record Statement(String sql, Tuple params) {
+    }
+
+    private final List<Statement> statements = new CopyOnWriteArrayList<>();
+
+    private FileRepository fileRepository;
+
+    @BeforeEach
+    void deployVerticle(Vertx vertx, VertxTestContext testContext) {
+        Assumptions.assumeTrue(Config.isSqlite(), "EXPLAIN plans are only verified on SQLite");
+        vertx.deployVerticle(new DataVerticle())
+                .compose(_ -> {
+                    fileRepository = new FileRepositoryImpl(recording(DataVerticle.pool));
+                    // updates only run when the record exists and changes
+                    return DataVerticle.fileRepository.create(new FileRecord(
+                            1, "a", 1, 1, 1, 1, 1, false, 1, 0, "photo", "mime_type", "file_name", "thumbnail", "b", "caption", null, null,
+                            FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+                    ));
+                })
+                .onComplete(testContext.succeedingThenComplete());
+    }
+
+    @AfterEach
+    void tearDown(Vertx vertx, VertxTestContext testContext) {
+        DataVerticleTest.clear(vertx).onComplete(testContext.succeedingThenComplete());
+    }
+
+    @Test
+    @DisplayName("Every file record query uses an index")
+    void queriesUseIndexTest(Vertx vertx, VertxTestContext testContext) {
+        // query name -> call of the repository, the record is deleted last
+        Map<String, Supplier<Future<?>>> queries = new LinkedHashMap<>();
+        queries.put("getFiles", () -> fileRepository.getFiles(1, Map.of()));
+        queries.put("getFiles#fromMessageId", () -> fileRepository.getFiles(1, Map.of("fromMessageId", "100", "count", "none")));
+        queries.put("getFiles#search", () -> fileRepository.getFiles(0, Map.of("search", "holiday", "count", "none")));
+        queries.put("getFiles#tags", () -> fileRepository.getFiles(0, Map.of("tags", "a,b", "count", "none")));
+        queries.put("getFilesAfter", () -> fileRepository.getFilesAfter(0, Map.of(), new FileRepository.FileKey(1, 100, 1, "a"), 500));
+        queries.put("getFilesByUniqueId", () -> fileRepository.getFilesByUniqueId(List.of("a", "b")));
+        queries.put("getByPrimaryKey", () -> fileRepository.getByPrimaryKey(1, "a"));
+        queries.put("getByUniqueId", () -> fileRepository.getByUniqueId("a"));
+        queries.put("getMainFileByThread", () -> fileRepository.getMainFileByThread(1, 2, 3));
+        queries.put("getCaptionByMediaAlbumId", () -> fileRepository.getCaptionByMediaAlbumId(1));
+        queries.put("getReactionCountByMediaAlbumId", () -> fileRepository.getReactionCountByMediaAlbumId(1));
+        queries.put("getDownloadStatistics", () -> fileRepository.getDownloadStatistics(1));
+        queries.put("getCompletedRangeStatistics", () -> fileRepository.getCompletedRangeStatistics(1, 0, 1, 2));
+        queries.put("countByStatus", () -> fileRepository.countByStatus(1, FileRecord.DownloadStatus.downloading));
+        queries.put("countWithType", () -> fileRepository.countWithType(1, 2));
+        queries.put("updateDownloadStatus", () -> fileRepository.updateDownloadStatus(1, "a", "path", FileRecord.DownloadStatus.completed, 1L));
+        queries.put("updateAlbumDataByMediaAlbumId", () -> fileRepository.updateAlbumDataByMediaAlbumId(1, "c", 1));
+        queries.put("updateTags", () -> fileRepository.updateTags("a", "t"));
+        queries.put("deleteByUniqueId", () -> fileRepository.deleteByUniqueId("a"));
+
+        Future<Void> future = Future.succeededFuture();
+        for (Map.Entry<String, Supplier<Future<?>>> entry : queries.entrySet()) {
+            future = future
+                    .compose(_ -> {
+                        statements.clear();
+                        return entry.getValue().get();
+                    })
+                    .compose(_ -> explain(testContext, entry.getKey(), List.copyOf(statements)));
+        }
+        future.onComplete(testContext.succeedingThenComplete());
+    }
+
+    @Test
+    @DisplayName("Index creation is idempotent")
+    void createIndexesTwiceTest(Vertx vertx, VertxTestContext testContext) {
+        Future.all(DataVerticle.definitions.stream().map(d -> d.createIndexes(DataVerticle.pool)).toList())
+                .compose(_ -> DataVerticle.pool.query("""
+                        SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'file_record' AND name LIKE 'idx_%'
+                        """).execute())
+                .onComplete(testContext.succeeding(rs -> testContext.verify(() -> {
+                    Assertions.assertEquals(FileRecord.INDEXES.size(), rs.size());
+                    testContext.completeNow();
+                })));
+    }
+
+    private Future<Void> explain(VertxTestContext testContext, String name, List<Statement> recorded) {
+        // inserts have no plan to check
+        List<Statement> queries = recorded.stream()
+                .filter(s -> s.sql().contains("file_record") && !s.sql().stripLeading().toUpperCase(Locale.ROOT).startsWith("INSERT"))
+                .toList();
+        testContext.verify(() -> Assertions.assertFalse(queries.isEmpty(), "%s should query file_record: %s".formatted(name, recorded)));
+        Future<Void> future = Future.succeededFuture();
+        for (Statement statement : queries) {
+            future = future.compose(_ -> DataVerticle.pool
+                    .preparedQuery("EXPLAIN QUERY PLAN " + statement.sql())
+                    .execute(statement.params())
+                    .map(rs -> IterUtil.toList(rs).stream().map(row -> row.getString("detail")).toList())
+                    .onSuccess(details -> testContext.verify(() -> assertIndexed(name, statement.sql(), details)))
+                    .mapEmpty());
+        }
+        return future;
+    }
+
+    private static void assertIndexed(String name, String sql, List<String> details) {
+        Assertions.assertTrue(details.stream().noneMatch(d -> d.equals("SCAN file_record")),
+                "%s should not scan the whole table: %s %s".formatted(name, sql, details));
+        Assertions.assertTrue(details.stream().anyMatch(d -> d.contains("file_record USING")),
+                "%s should use an index: %s %s".formatted(name, sql, details));
+    }
+
+    /**
+     * The client with the prepared statements it executes recorded, a batch is recorded by its first parameters.
+     */
+    private SqlClient recording(SqlClient sqlClient) {
+        return proxy(SqlClient.class, sqlClient, (method, args, result) -> {
+            if (method.equals("preparedQuery") && result instanceof PreparedQuery<?> query) {
+                return recording(query, (String) args[0]);
+            }
+            return result;
+        });
+    }
+
+    private PreparedQuery<?> recording(PreparedQuery<?> query, String sql) {
+        return proxy(PreparedQuery.class, query, (method, args, result) -> {
+            if (method.equals("execute") && args != null && args.length == 1 && args[0] instanceof Tuple params) {
+                statements.add(new Statement(sql, params));
+            } else if (method.equals("executeBatch") && args[0] instanceof List<?> batch && !batch.isEmpty()) {
+                statements.add(new Statement(sql, (Tuple) batch.getFirst()));
+            }
+            return result instanceof PreparedQuery<?> mapped ? recording(mapped, sql) : result;
+        });
+    }
+
+    private interface Interceptor {
+        Object intercept(String method, Object[] args, Object result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object delegate, Interceptor interceptor) {
+        InvocationHandler handler = (_, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            return interceptor.intercept(method.getName(), args, result);
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,95 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.repository.FileRecord;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Compare the full-text search of getFiles with the former LIKE filter on a growing table.
+ * Runs against the database configured by the environment, which should be empty.
+ */
+public class FileSearchBenchmark {
+
+    private static final String[] WORDS = {
+            "holiday", "summer", "report", "invoice", "family", "concert", "lecture", "recipe", "travel", "project",
+            "meeting", "backup", "photo", "archive", "music", "podcast", "episode", "season", "draft", "final"
+    };
+
+    private static final List<String> TERMS = List.of("holiday", "invoice draft", "zzzz_not_found");
+
+    private static final int INSERT_BATCH_SIZE = 5000;
+
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        List<Integer> sizes = args.length == 0 ? List.of(100_000, 1_000_000, 5_000_000) :
+                Arrays.stream(args).map(Integer::parseInt).toList();
+
+        Vertx vertx = Vertx.vertx();
+        MessyUtils.await(vertx.deployVerticle(new DataVerticle()));
+
+        Random random = new Random(42);
+        int rows = 0;
+        System.out.printf("%-10s %-16s %12s %12s%n", "rows", "term", "like(ms)", "fulltext(ms)");
+        for (int size : sizes) {
+            while (rows < size) {
+                int count = Math.min(INSERT_BATCH_SIZE, size - rows);
+                insert(rows, count, random);
+                rows += count;
+            }
+            for (String term : TERMS) {
+                double like = measure(() -> like(term));
+                double fullText = measure(() -> DataVerticle.fileRepository.getFiles(0, Map.of("search", term, "count", "none")));
+                System.out.printf("%-10d %-16s %12.2f %12.2f%n", size, term, like, fullText);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void insert(int offset, int count, Random random) {
+        List<Map<String, Object>> params = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            String caption = IntStream.range(0, 6)
+                    .mapToObj(_ -> WORDS[random.nextInt(WORDS.length)])
+                    .reduce((a, b) -> a + " " + b)
+                    .orElseThrow();
+            FileRecord fileRecord = new FileRecord(
+                    i, "unique_id_" + i, 1, i % 50, i, 0, 1, false, 1, 0, "photo", "image/jpeg", "file_" + i + ".jpg", null, null, caption, null, null,
+                    FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+            );
+            params.add(FileRecord.toMap(fileRecord));
+        }
+        MessyUtils.await(DataVerticle.pool.withTransaction(client -> SqlTemplate
+                .forUpdate(client, """
+                        INSERT INTO file_record(id, unique_id, telegram_id, chat_id, message_id, media_album_id, date, has_sensitive_content,
+                                                size, downloaded_size, type, mime_type, file_name, caption, download_status, transfer_status)
+                        VALUES (#{id}, #{unique_id}, #{telegram_id}, #{chat_id}, #{message_id}, #{media_album_id}, #{date}, #{has_sensitive_content},
+                                #{size}, #{downloaded_size}, #{type}, #{mime_type}, #{file_name}, #{caption}, #{download_status}, #{transfer_status})
+                        """)
+                .executeBatch(params)));
+    }
+
+    private static Future<?> like(String term) {
+        return SqlTemplate.forQuery(DataVerticle.pool, """
+                        SELECT * FROM file_record
+                        WHERE type != 'thumbnail' AND (file_name LIKE #{search} OR caption LIKE #{search})
+                        ORDER BY message_id DESC LIMIT 20
+                        """)
+                .execute(Map.of("search", "%" + term + "%"));
+    }
+
+    private static double measure(Supplier<Future<?>> query) {
+        // warm up
+        MessyUtils.await(query.get());
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            MessyUtils.await(query.get());
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / ROUNDS;
+    }
+}
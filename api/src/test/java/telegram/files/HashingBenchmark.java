@@ -0,0 +1,83 @@
+package telegram.files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Compare the former mmap-whole-file MD5 with the chunked hashes of FileHasher, on files of the given sizes in MB.
+ * The former MD5 can't map files over 2 GB and fails on them.
+ */
+public class HashingBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<Long> sizes = args.length == 0 ? List.of(10L) :
+                Arrays.stream(args).map(Long::parseLong).toList();
+
+        System.out.printf("%-10s %-12s %12s %12s%n", "size(MB)", "hash", "ms", "MB/s");
+        for (long size : sizes) {
+            File file = createFile(size * 1024 * 1024);
+            try {
+                report(size, "mmap-md5", () -> legacyMD5(file));
+                for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+                    // no cache, every round reads the file
+                    report(size, algorithm.name().toLowerCase(), () -> new FileHasher(0).hash(file, algorithm));
+                }
+                FileHasher cached = new FileHasher(10);
+                cached.hash(file, FileHasher.Algorithm.XXH64);
+                report(size, "cached", () -> cached.hash(file, FileHasher.Algorithm.XXH64));
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private static File createFile(long size) throws IOException {
+        File file = File.createTempFile("hashing-benchmark", ".bin");
+        byte[] chunk = new byte[FileHasher.CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < size; written += chunk.length) {
+                raf.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static void report(long size, String name, Callable<String> hash) {
+        try {
+            // warm up
+            hash.call();
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                hash.call();
+            }
+            double ms = (System.nanoTime() - start) / 1_000_000.0 / ROUNDS;
+            System.out.printf("%-10d %-12s %12.2f %12.0f%n", size, name, ms, size / (ms / 1000));
+        } catch (Throwable e) {
+            System.out.printf("%-10d %-12s %12s %12s%n", size, name, "failed", e.getClass().getSimpleName());
+        }
+    }
+
+    private static String legacyMD5(File file) throws Exception {
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(buffer);
+            return HexFormat.of().formatHex(md.digest());
+        }
+    }
+}
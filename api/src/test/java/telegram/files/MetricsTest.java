@@ -0,0 +1,88 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    interface Repository {
+        Future<String> find(String id);
+
+        int count();
+    }
+
+    @Test
+    void testHistogramBuckets() {
+        Metrics.Histogram histogram = new Metrics.Histogram(new double[]{0.001, 0.01});
+        histogram.record(500_000);
+        histogram.record(5_000_000);
+        histogram.record(50_000_000);
+        assertEquals(3, histogram.count());
+
+        StringBuilder sb = new StringBuilder();
+        histogram.write(sb, "test_seconds", "method=\"find\"");
+        String text = sb.toString();
+        assertTrue(text.contains("test_seconds_bucket{method=\"find\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("test_seconds_bucket{method=\"find\",le=\"0.01\"} 2\n"));
+        assertTrue(text.contains("test_seconds_bucket{method=\"find\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("test_seconds_count{method=\"find\"} 3\n"));
+    }
+
+    @Test
+    void testCounterLabels() {
+        Metrics.CounterFamily family = new Metrics.CounterFamily("test_total", "Test", "type");
+        family.labels("a").increment();
+        family.labels("a").increment();
+        family.labels(String.class).increment();
+        assertSame(family.labels("String"), family.labels(String.class));
+
+        StringBuilder sb = new StringBuilder();
+        family.write(sb);
+        String text = sb.toString();
+        assertTrue(text.contains("# TYPE test_total counter\n"));
+        assertTrue(text.contains("test_total{type=\"a\"} 2\n"));
+        assertTrue(text.contains("test_total{type=\"String\"} 1\n"));
+    }
+
+    @Test
+    void testTimedUntilFutureCompletes() {
+        Metrics.HistogramFamily family = new Metrics.HistogramFamily("test_repository_seconds", "Test", "method");
+        Promise<String> promise = Promise.promise();
+        Repository repository = Metrics.timed(Repository.class, new Repository() {
+            @Override
+            public Future<String> find(String id) {
+                return promise.future();
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+        }, family);
+
+        Future<String> future = repository.find("1");
+        assertEquals(0, family.labels("find").count());
+        promise.complete("file");
+        assertEquals("file", future.result());
+        assertEquals(1, family.labels("find").count());
+
+        assertEquals(1, repository.count());
+        assertEquals(1, family.labels("count").count());
+        assertNotNull(repository.toString());
+    }
+
+    @Test
+    void testScrape() {
+        Metrics.gauge("test_queue_size", "Test", "telegram_id", () -> Map.of("1\"", 3));
+        Metrics.gauge("test_single", "Test", null, () -> Map.of("", 7));
+        String text = Metrics.scrape();
+        assertTrue(text.contains("# TYPE telegram_files_tdlib_request_seconds histogram\n"));
+        assertTrue(text.contains("test_queue_size{telegram_id=\"1\\\"\"} 3\n"));
+        assertTrue(text.contains("test_single 7\n"));
+    }
+}
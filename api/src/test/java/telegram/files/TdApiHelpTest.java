@@ -37,4 +37,16 @@ public class TdApiHelpTest {
         Assertions.assertInstanceOf(TdApi.SearchMessagesFilterEmpty.class, ((TdApi.SearchChatMessages) function).filter, "function is not equals SearchChatMessages");
     }
 
+    @Test
+    void canHaveThreadTest() {
+        TdApi.Message message = new TdApi.Message();
+        Assertions.assertFalse(TdApiHelp.canHaveThread(message), "plain message has no thread");
+
+        message.interactionInfo = new TdApi.MessageInteractionInfo();
+        Assertions.assertFalse(TdApiHelp.canHaveThread(message), "message without reply info has no thread");
+
+        message.interactionInfo.replyInfo = new TdApi.MessageReplyInfo();
+        Assertions.assertTrue(TdApiHelp.canHaveThread(message), "post with comments may have a thread");
+    }
+
 }
@@ -0,0 +1,138 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TdLibCacheTest {
+    private final TdLibCache cache = new TdLibCache(100, TdLibCache.TTL);
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private static TdApi.Message message(long chatId, long messageId, int fileId) {
+        TdApi.File file = new TdApi.File();
+        file.id = fileId;
+        TdApi.Document document = new TdApi.Document();
+        document.document = file;
+        TdApi.MessageDocument content = new TdApi.MessageDocument();
+        content.document = document;
+        TdApi.Message message = new TdApi.Message();
+        message.chatId = chatId;
+        message.id = messageId;
+        message.content = content;
+        return message;
+    }
+
+    private Future<TdApi.Message> getMessage(long chatId, long messageId) {
+        return cache.get(TdLibCache.key(new TdApi.GetMessage(chatId, messageId)), () -> {
+            requests.incrementAndGet();
+            return Future.succeededFuture(message(chatId, messageId, (int) messageId * 10));
+        });
+    }
+
+    @Test
+    void testKey() {
+        assertEquals(TdLibCache.key(new TdApi.GetMessage(1, 2)), TdLibCache.key(new TdApi.GetMessage(1, 2)));
+        assertNotEquals(TdLibCache.key(new TdApi.GetMessage(1, 2)), TdLibCache.key(new TdApi.GetMessageThread(1, 2)));
+        assertNotNull(TdLibCache.key(new TdApi.GetFile(3)));
+        assertNull(TdLibCache.key(new TdApi.GetMe()));
+    }
+
+    @Test
+    void testInvalidatedByUpdates() {
+        TdApi.Message message = getMessage(1, 2).result();
+        assertSame(message, getMessage(1, 2).result());
+        assertEquals(1, requests.get());
+
+        cache.onUpdate(new TdApi.UpdateMessageContent(1, 2, new TdApi.MessageText()));
+        assertNotSame(message, getMessage(1, 2).result());
+        assertEquals(2, requests.get());
+
+        // the file of the message changed
+        TdApi.File file = new TdApi.File();
+        file.id = 20;
+        cache.onUpdate(new TdApi.UpdateFile(file));
+        getMessage(1, 2);
+        assertEquals(3, requests.get());
+
+        cache.onUpdate(new TdApi.UpdateDeleteMessages(1, new long[]{2}, true, false));
+        getMessage(1, 2);
+        assertEquals(4, requests.get());
+
+        // another message
+        cache.onUpdate(new TdApi.UpdateMessageContent(1, 3, new TdApi.MessageText()));
+        getMessage(1, 2);
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    void testSharedRequest() {
+        Promise<TdApi.Message> promise = Promise.promise();
+        TdLibCache.Key key = TdLibCache.key(new TdApi.GetMessage(1, 2));
+        Future<TdApi.Message> first = cache.get(key, () -> {
+            requests.incrementAndGet();
+            return promise.future();
+        });
+        Future<TdApi.Message> second = cache.get(key, () -> {
+            requests.incrementAndGet();
+            return Future.succeededFuture();
+        });
+        assertEquals(1, requests.get());
+        TdApi.Message message = message(1, 2, 20);
+        promise.complete(message);
+        assertSame(message, first.result());
+        assertSame(message, second.result());
+    }
+
+    @Test
+    void testUpdateDuringRequest() {
+        Promise<TdApi.Message> promise = Promise.promise();
+        TdLibCache.Key key = TdLibCache.key(new TdApi.GetMessage(1, 2));
+        cache.get(key, () -> promise.future());
+        cache.onUpdate(new TdApi.UpdateMessageContent(1, 2, new TdApi.MessageText()));
+        promise.complete(message(1, 2, 20));
+        // possibly out of date, not kept
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testGetMessages() {
+        getMessage(1, 2);
+        List<long[]> loaded = new ArrayList<>();
+        TdApi.Messages messages = cache.getMessages(1, new long[]{2, 3, 4}, messageIds -> {
+            loaded.add(messageIds);
+            return Future.succeededFuture(new TdApi.Messages(1, new TdApi.Message[]{message(1, 3, 30), null}));
+        }).result();
+        assertArrayEquals(new long[]{3, 4}, loaded.getFirst());
+        assertEquals(2, messages.totalCount);
+        assertEquals(List.of(2L, 3L), Arrays.stream(messages.messages).filter(m -> m != null).map(m -> m.id).toList());
+        assertNull(messages.messages[2]);
+
+        // the page again, only the message not found is requested
+        cache.getMessages(1, new long[]{2, 3, 4}, messageIds -> {
+            loaded.add(messageIds);
+            return Future.succeededFuture(new TdApi.Messages(0, new TdApi.Message[]{null}));
+        });
+        assertArrayEquals(new long[]{4}, loaded.getLast());
+        getMessage(1, 3);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testBounded() {
+        TdLibCache small = new TdLibCache(2, TdLibCache.TTL);
+        for (int i = 0; i < 5; i++) {
+            TdApi.Message message = message(1, i, i + 100);
+            small.get(TdLibCache.key(new TdApi.GetMessage(1, i)), () -> Future.succeededFuture(message));
+        }
+        assertEquals(2, small.size());
+    }
+}
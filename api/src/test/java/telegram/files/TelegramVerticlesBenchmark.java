@@ -0,0 +1,65 @@
+package telegram.files;
+
+import telegram.files.repository.TelegramRecord;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Lookup cost of {@link TelegramVerticles} by telegram id, by its string form and by root id, with a growing number of accounts.
+ */
+public class TelegramVerticlesBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2_000_000;
+
+    private static final int ITERATIONS = 10_000_000;
+
+    private static final long TELEGRAM_ID_BASE = 5_000_000_000L;
+
+    public static void main(String[] args) {
+        List<Integer> sizes = args.length == 0 ? List.of(1, 10, 100) :
+                Arrays.stream(args).map(Integer::parseInt).toList();
+
+        System.out.printf("%-10s %16s %16s %16s%n", "accounts", "get(long)(ns)", "get(String)(ns)", "get(rootId)(ns)");
+        for (int size : sizes) {
+            for (int i = 0; i < size; i++) {
+                TelegramVerticles.add(new TelegramVerticle(new TelegramRecord(TELEGRAM_ID_BASE + i, "account" + i, "/tmp/account-" + i, null)));
+                TelegramVerticles.add(new TelegramVerticle("/tmp/account-pending" + i));
+            }
+            long[] telegramIds = new long[size];
+            String[] telegramIdStrings = new String[size];
+            String[] rootIds = new String[size];
+            for (int i = 0; i < size; i++) {
+                telegramIds[i] = TELEGRAM_ID_BASE + i;
+                telegramIdStrings[i] = String.valueOf(TELEGRAM_ID_BASE + i);
+                rootIds[i] = "pending" + i;
+            }
+            int[] order = new Random(42).ints(ITERATIONS, 0, size).toArray();
+
+            double byLong = measure(order, i -> TelegramVerticles.get(telegramIds[i]).isPresent());
+            double byString = measure(order, i -> TelegramVerticles.get(telegramIdStrings[i]).isPresent());
+            double byRootId = measure(order, i -> TelegramVerticles.get(rootIds[i]).isPresent());
+            System.out.printf("%-10d %16.2f %16.2f %16.2f%n", size, byLong, byString, byRootId);
+
+            List.copyOf(TelegramVerticles.getAll()).forEach(TelegramVerticles::remove);
+        }
+    }
+
+    private static double measure(int[] order, IntPredicate lookup) {
+        int found = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            if (lookup.test(order[i % order.length])) found++;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (lookup.test(order[i])) found++;
+        }
+        double nanos = (System.nanoTime() - start) / (double) ITERATIONS;
+        if (found != WARMUP_ITERATIONS + ITERATIONS) {
+            throw new IllegalStateException("Lookup missed %d accounts".formatted(WARMUP_ITERATIONS + ITERATIONS - found));
+        }
+        return nanos;
+    }
+}
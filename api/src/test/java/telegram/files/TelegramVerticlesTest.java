@@ -0,0 +1,59 @@
+package telegram.files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.TelegramRecord;
+
+import java.util.List;
+
+public class TelegramVerticlesTest {
+
+    @AfterEach
+    void tearDown() {
+        List.copyOf(TelegramVerticles.getAll()).forEach(TelegramVerticles::remove);
+    }
+
+    @Test
+    void getTest() {
+        TelegramVerticle authorized = new TelegramVerticle(new TelegramRecord(1001, "a", "/tmp/account-aaa", null));
+        TelegramVerticle unauthorized = new TelegramVerticle("/tmp/account-bbb");
+        TelegramVerticles.add(authorized);
+        TelegramVerticles.add(unauthorized);
+
+        Assertions.assertEquals(List.of(authorized, unauthorized), TelegramVerticles.getAll());
+        Assertions.assertSame(authorized, TelegramVerticles.get(1001).orElseThrow());
+        Assertions.assertSame(authorized, TelegramVerticles.get("1001").orElseThrow());
+        Assertions.assertSame(unauthorized, TelegramVerticles.get("bbb").orElseThrow());
+        // authorized accounts are addressed by telegram id only
+        Assertions.assertTrue(TelegramVerticles.get("aaa").isEmpty());
+        Assertions.assertTrue(TelegramVerticles.get(1002).isEmpty());
+        Assertions.assertTrue(TelegramVerticles.get("-").isEmpty());
+        Assertions.assertTrue(TelegramVerticles.get((String) null).isEmpty());
+    }
+
+    @Test
+    void onTelegramRecordUpdatedTest() {
+        TelegramVerticle telegramVerticle = new TelegramVerticle("/tmp/account-ccc");
+        TelegramVerticles.add(telegramVerticle);
+        Assertions.assertTrue(TelegramVerticles.get(1003).isEmpty());
+
+        telegramVerticle.telegramRecord = new TelegramRecord(1003, "c", "/tmp/account-ccc", null);
+        TelegramVerticles.onTelegramRecordUpdated(telegramVerticle);
+        Assertions.assertSame(telegramVerticle, TelegramVerticles.get(1003).orElseThrow());
+        Assertions.assertTrue(TelegramVerticles.get("ccc").isEmpty());
+    }
+
+    @Test
+    void removeTest() {
+        TelegramVerticle telegramVerticle = new TelegramVerticle(new TelegramRecord(1004, "d", "/tmp/account-ddd", null));
+        TelegramVerticles.add(telegramVerticle);
+        List<TelegramVerticle> snapshot = TelegramVerticles.getAll();
+        TelegramVerticles.remove(telegramVerticle);
+
+        Assertions.assertTrue(TelegramVerticles.get(1004).isEmpty());
+        Assertions.assertTrue(TelegramVerticles.getAll().isEmpty());
+        // snapshots taken before are not affected
+        Assertions.assertEquals(List.of(telegramVerticle), snapshot);
+    }
+}
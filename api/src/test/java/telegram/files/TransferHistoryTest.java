@@ -0,0 +1,94 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+import telegram.files.repository.SettingAutoRecords;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferHistoryTest {
+    private static final String KEY = "1:2";
+
+    private final TransferHistory history = new TransferHistory();
+
+    @TempDir
+    Path tempDir;
+
+    private Transfer transfer;
+
+    @BeforeEach
+    void setUp() {
+        SettingAutoRecords.TransferRule transferRule = new SettingAutoRecords.TransferRule();
+        transferRule.destination = tempDir.resolve("destination").toString();
+        transferRule.transferPolicy = Transfer.TransferPolicy.DIRECT;
+        transferRule.duplicationPolicy = Transfer.DuplicationPolicy.SKIP;
+        transfer = Transfer.create(transferRule);
+        transfer.transferStatusUpdated = _ -> {
+        };
+    }
+
+    private FileRecord record(String uniqueId, long messageId, String fileName) {
+        String localPath = tempDir.resolve("downloads").resolve(uniqueId).resolve(fileName).toString();
+        FileUtil.writeUtf8String(uniqueId, localPath);
+        return new FileRecord(
+                (int) messageId, uniqueId, 1, 2, messageId, 0, 1, false, 1, 0, "document", "text/plain", fileName, null, null, null, null, localPath,
+                FileRecord.DownloadStatus.completed.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+        );
+    }
+
+    private void transfer(FileRecord fileRecord) {
+        history.onTransferred(KEY, fileRecord.uniqueId(), transfer.transfer(fileRecord));
+    }
+
+    @Test
+    void testSkippedFilesCompleteTheHistory() {
+        FileRecord a = record("a", 1, "same.txt");
+        FileRecord b = record("b", 2, "same.txt");
+        FileRecord c = record("c", 3, "other.txt");
+
+        assertEquals(List.of(a, b, c), history.accept(KEY, 1, List.of(a, b, c)));
+        assertEquals(FileRepository.FileKey.of(c), history.cursor(KEY));
+        transfer(a);
+        assertEquals(TransferHistory.End.WAIT, history.end(KEY));
+        // b collides with the file a was moved to
+        assertEquals(FileRecord.TransferStatus.idle, transfer.transfer(b));
+        history.onTransferred(KEY, b.uniqueId(), FileRecord.TransferStatus.idle);
+        transfer(c);
+
+        // files were transferred, read again from the start
+        assertEquals(TransferHistory.End.RESCAN, history.end(KEY));
+        assertEquals(FileRepository.FileKey.FIRST, history.cursor(KEY));
+        // b is still idle but not queued again
+        assertTrue(history.accept(KEY, 1, List.of(b)).isEmpty());
+        assertEquals(TransferHistory.End.COMPLETE, history.end(KEY));
+    }
+
+    @Test
+    void testOnlySkippedFiles() {
+        FileUtil.writeUtf8String("existing", Path.of(transfer.destination, "same.txt").toString());
+        FileRecord a = record("a", 1, "same.txt");
+
+        history.accept(KEY, 1, List.of(a));
+        transfer(a);
+        // nothing transferred, no pass again
+        assertEquals(TransferHistory.End.COMPLETE, history.end(KEY));
+    }
+
+    @Test
+    void testFilesOfOtherAccounts() {
+        FileRecord a = record("a", 1, "a.txt");
+        FileRecord other = new FileRecord(
+                2, "other", 3, 2, 2, 0, 1, false, 1, 0, "document", "text/plain", "other.txt", null, null, null, null, "other.txt",
+                FileRecord.DownloadStatus.completed.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+        );
+        assertEquals(List.of(a), history.accept(KEY, 1, List.of(a, other)));
+        assertEquals(FileRepository.FileKey.of(other), history.cursor(KEY));
+    }
+}
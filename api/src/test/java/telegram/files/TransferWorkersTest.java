@@ -0,0 +1,64 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.FileRecord;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferWorkersTest {
+    private TransferWorkers workers;
+
+    @BeforeEach
+    void setUp() {
+        workers = new TransferWorkers(3, 2);
+    }
+
+    @Test
+    void testDestinationLimit() {
+        assertTrue(workers.acquire("1:1", "/nas"));
+        assertTrue(workers.acquire("1:2", "/nas/"));
+        // same destination, normalized
+        assertFalse(workers.acquire("1:1", "/nas"));
+        assertEquals(2, workers.active("/nas"));
+
+        assertTrue(workers.acquire("1:1", "/backup"));
+        assertTrue(workers.isFull());
+        assertFalse(workers.acquire("1:3", "/other"));
+
+        workers.release("1:2", "/nas", FileRecord.TransferStatus.completed, 10);
+        assertFalse(workers.isFull());
+        assertEquals(1, workers.active("/nas"));
+        assertTrue(workers.acquire("1:1", "/nas"));
+    }
+
+    @Test
+    void testProgress() {
+        workers.acquire("1:1", "/nas");
+        workers.acquire("1:1", "/nas");
+        workers.release("1:1", "/nas", FileRecord.TransferStatus.completed, 100);
+        workers.release("1:1", "/nas", FileRecord.TransferStatus.error, 100);
+        workers.acquire("1:1", "/nas");
+        workers.release("1:1", "/nas", FileRecord.TransferStatus.idle, 100);
+
+        JsonObject stats = workers.getStats();
+        assertEquals(0, stats.getInteger("active"));
+        assertTrue(stats.getJsonObject("destinations").isEmpty());
+        JsonObject progress = stats.getJsonObject("automations").getJsonObject("1:1");
+        assertEquals(1, progress.getLong("completed"));
+        assertEquals(1, progress.getLong("failed"));
+        assertEquals(1, progress.getLong("skipped"));
+        assertEquals(100, progress.getLong("bytes"));
+        assertNotNull(progress.getJsonObject("speedStats"));
+    }
+
+    @Test
+    void testRemovedAutomationReleases() {
+        workers.acquire("1:1", "/nas");
+        workers.remove("1:1");
+        workers.release("1:1", "/nas", FileRecord.TransferStatus.completed, 100);
+        assertEquals(0, workers.active());
+        assertTrue(workers.getStats().getJsonObject("automations").isEmpty());
+    }
+}
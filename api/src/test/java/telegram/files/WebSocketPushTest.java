@@ -0,0 +1,183 @@
+package telegram.files;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSocketPushTest {
+    private WebSocketPush webSocketPush;
+
+    private TestSink first;
+
+    private TestSink second;
+
+    static class TestSink implements WebSocketPush.Sink {
+        final List<String> frames = new ArrayList<>();
+
+        final List<Buffer> binaryFrames = new ArrayList<>();
+
+        boolean writable = true;
+
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+
+        @Override
+        public void write(String frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void write(Buffer frame) {
+            binaryFrames.add(frame);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        webSocketPush = new WebSocketPush();
+        first = new TestSink();
+        second = new TestSink();
+        webSocketPush.register("s1", first, false);
+        webSocketPush.register("s2", second, false);
+    }
+
+    private static JsonObject fileEvent(int fileId, long downloadedSize, boolean completed) {
+        return JsonObject.of("type", EventPayload.TYPE_FILE, "timestamp", 1L, "data", JsonObject.of("file", JsonObject.of(
+                "id", fileId,
+                "size", 1000L,
+                "local", JsonObject.of("downloadedSize", downloadedSize, "isDownloadingCompleted", completed))));
+    }
+
+    private static JsonArray progressFiles(String frame) {
+        JsonObject payload = new JsonObject(frame);
+        assertEquals(EventPayload.TYPE_FILE_PROGRESS, payload.getInteger("type"));
+        return payload.getJsonObject("data").getJsonArray("files");
+    }
+
+    @Test
+    void testEncodeOnce() {
+        webSocketPush.publish("1", List.of("s1", "s2", "unknown"), JsonObject.of("type", EventPayload.TYPE_FILE_STATUS, "data", "x"));
+        assertEquals(1, first.frames.size());
+        assertSame(first.frames.getFirst(), second.frames.getFirst());
+    }
+
+    @Test
+    void testCoalesceProgress() {
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 100, false));
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 200, false));
+        webSocketPush.publish("1", List.of("s1"), fileEvent(2, 50, false));
+        assertTrue(first.frames.isEmpty());
+
+        webSocketPush.flush();
+        assertEquals(1, first.frames.size());
+        JsonArray files = progressFiles(first.frames.getFirst());
+        assertEquals(2, files.size());
+        assertEquals(200L, files.getJsonObject(0).getJsonObject("local").getLong("downloadedSize"));
+        assertEquals(1000L, files.getJsonObject(0).getLong("size"));
+        assertTrue(second.frames.isEmpty());
+    }
+
+    @Test
+    void testDeltaOfProgress() {
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 100, false));
+        webSocketPush.flush();
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 300, false));
+        webSocketPush.flush();
+
+        JsonObject delta = progressFiles(first.frames.get(1)).getJsonObject(0);
+        assertEquals(JsonObject.of("id", 1, "local", JsonObject.of("downloadedSize", 300L)), delta);
+
+        // nothing changed, nothing sent
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 300, false));
+        webSocketPush.flush();
+        assertEquals(2, first.frames.size());
+
+        // completed file is sent whole next time
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 1000, true));
+        webSocketPush.flush();
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 1000, true));
+        webSocketPush.flush();
+        assertEquals(1000L, progressFiles(first.frames.get(3)).getJsonObject(0).getLong("size"));
+    }
+
+    @Test
+    void testLatestDownloadStatistics() {
+        webSocketPush.publish("1", List.of("s1"), JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "data", 1));
+        webSocketPush.publish("1", List.of("s1"), JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "data", 2));
+        webSocketPush.publish("2", List.of("s1"), JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "data", 3));
+        webSocketPush.flush();
+        assertEquals(2, first.frames.size());
+        assertEquals(2, new JsonObject(first.frames.get(0)).getInteger("data"));
+        assertEquals(3, new JsonObject(first.frames.get(1)).getInteger("data"));
+    }
+
+    @Test
+    void testDropOldestForSlowClient() {
+        first.writable = false;
+        for (int i = 0; i < WebSocketPush.MAX_PENDING_FRAMES + 10; i++) {
+            webSocketPush.publish("1", List.of("s1", "s2"), JsonObject.of("type", EventPayload.TYPE_FILE_STATUS, "data", i));
+        }
+        assertTrue(first.frames.isEmpty());
+        assertEquals(WebSocketPush.MAX_PENDING_FRAMES + 10, second.frames.size());
+        assertEquals(10, webSocketPush.getStats().getLong("dropped"));
+
+        first.writable = true;
+        webSocketPush.flush();
+        assertEquals(WebSocketPush.MAX_PENDING_FRAMES, first.frames.size());
+        assertEquals(10, new JsonObject(first.frames.getFirst()).getInteger("data"));
+
+        // a lost progress frame is not assumed known by the later deltas
+        first.frames.clear();
+        first.writable = false;
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 100, false));
+        webSocketPush.flush();
+        for (int i = 0; i < WebSocketPush.MAX_PENDING_FRAMES; i++) {
+            webSocketPush.publish("1", List.of("s1"), JsonObject.of("type", EventPayload.TYPE_FILE_STATUS, "data", i));
+        }
+        first.writable = true;
+        webSocketPush.publish("1", List.of("s1"), fileEvent(1, 200, false));
+        webSocketPush.flush();
+        assertEquals(WebSocketPush.MAX_PENDING_FRAMES, first.frames.size());
+        JsonObject file = progressFiles(first.frames.getLast()).getJsonObject(0);
+        assertEquals(1000L, file.getLong("size"));
+        assertEquals(200L, file.getJsonObject("local").getLong("downloadedSize"));
+    }
+
+    @Test
+    void testBinaryFrames() {
+        TestSink binary = new TestSink();
+        webSocketPush.register("s3", binary, true);
+        webSocketPush.publish("1", List.of("s1", "s3"), fileEvent(1, 100, false));
+        webSocketPush.publish("1", List.of("s1", "s3"), JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "timestamp", 1L,
+                "data", JsonObject.of("totalSize", 1000L, "totalCount", 1, "downloadedSize", 100L)));
+        webSocketPush.publish("1", List.of("s1", "s3"), JsonObject.of("type", EventPayload.TYPE_FILE_STATUS, "data", "x"));
+        webSocketPush.flush();
+
+        assertEquals(3, first.frames.size());
+        assertTrue(first.binaryFrames.isEmpty());
+        // status events stay json
+        assertEquals(1, binary.frames.size());
+        assertEquals(2, binary.binaryFrames.size());
+        assertEquals(EventPayload.TYPE_FILE_PROGRESS, binary.binaryFrames.get(0).getByte(0));
+        assertEquals(EventPayload.TYPE_FILE_DOWNLOAD, binary.binaryFrames.get(1).getByte(0));
+    }
+
+    @Test
+    void testUnregisterKeepsNewerConnection() {
+        TestSink reconnected = new TestSink();
+        webSocketPush.register("s1", reconnected, false);
+        webSocketPush.unregister("s1", first);
+        assertTrue(webSocketPush.isConnected("s1"));
+        webSocketPush.unregister("s1", reconnected);
+        assertFalse(webSocketPush.isConnected("s1"));
+    }
+}
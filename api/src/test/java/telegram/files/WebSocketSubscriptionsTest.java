@@ -0,0 +1,77 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSocketSubscriptionsTest {
+    private WebSocketSubscriptions subscriptions;
+
+    private static final List<String> SESSIONS = List.of("s1", "s2", "s3");
+
+    @BeforeEach
+    void setUp() {
+        subscriptions = new WebSocketSubscriptions();
+    }
+
+    private static JsonObject status(String uniqueId, String chatId) {
+        return JsonObject.of("type", EventPayload.TYPE_FILE_STATUS, "data", JsonObject.of("uniqueId", uniqueId, "chatId", chatId));
+    }
+
+    private static JsonObject fileUpdate(String uniqueId) {
+        return JsonObject.of("type", EventPayload.TYPE_FILE, "data", JsonObject.of("file",
+                JsonObject.of("id", 1, "remote", JsonObject.of("uniqueId", uniqueId))));
+    }
+
+    @Test
+    void testUnsubscribedSessionsReceiveAll() {
+        assertEquals(SESSIONS, subscriptions.route(SESSIONS, status("a", "1")));
+    }
+
+    @Test
+    void testRouteBySubscription() {
+        subscriptions.handle("s1", JsonObject.of("type", "subscribe", "uniqueIds", JsonArray.of("a")));
+        subscriptions.handle("s2", JsonObject.of("type", "subscribe", "chatIds", JsonArray.of("-100123")));
+        subscriptions.handle("s3", JsonObject.of("type", "subscribe", "eventTypes", JsonArray.of(EventPayload.TYPE_FILE_DOWNLOAD)));
+
+        assertEquals(List.of("s1"), subscriptions.route(SESSIONS, fileUpdate("a")));
+        // the chat of the file added by the telegram verticle
+        JsonObject fileUpdateOfChat = fileUpdate("b");
+        fileUpdateOfChat.getJsonObject("data").put("chatId", "-100123");
+        assertEquals(List.of("s2"), subscriptions.route(SESSIONS, fileUpdateOfChat));
+        assertEquals(List.of("s1", "s2"), subscriptions.route(SESSIONS, status("a", "-100123")));
+        assertEquals(List.of("s2"), subscriptions.route(SESSIONS, status("b", "-100123")));
+        assertEquals(List.of("s3"), subscriptions.route(SESSIONS, JsonObject.of("type", EventPayload.TYPE_FILE_DOWNLOAD, "data", JsonObject.of())));
+        // not a file event
+        assertEquals(SESSIONS, subscriptions.route(SESSIONS, JsonObject.of("type", EventPayload.TYPE_AUTHORIZATION, "data", JsonObject.of())));
+    }
+
+    @Test
+    void testUnsubscribe() {
+        subscriptions.handle("s1", JsonObject.of("type", "subscribe", "uniqueIds", JsonArray.of("a", "b")));
+        subscriptions.handle("s1", JsonObject.of("type", "unsubscribe", "uniqueIds", JsonArray.of("a")));
+        assertEquals(List.of("s2", "s3"), subscriptions.route(SESSIONS, fileUpdate("a")));
+        assertTrue(subscriptions.isSubscribed("s1"));
+
+        // nothing left, receives all again
+        subscriptions.handle("s1", JsonObject.of("type", "unsubscribe", "uniqueIds", JsonArray.of("b")));
+        assertFalse(subscriptions.isSubscribed("s1"));
+        assertEquals(SESSIONS, subscriptions.route(SESSIONS, fileUpdate("a")));
+    }
+
+    @Test
+    void testClearAndRemove() {
+        subscriptions.handle("s1", JsonObject.of("type", "subscribe", "uniqueIds", JsonArray.of("a")));
+        subscriptions.handle("s2", JsonObject.of("type", "subscribe", "uniqueIds", JsonArray.of("a")));
+        assertTrue(subscriptions.handle("s1", JsonObject.of("type", "clear")));
+        subscriptions.remove("s2");
+        assertFalse(subscriptions.isSubscribed("s1"));
+        assertFalse(subscriptions.isSubscribed("s2"));
+        assertFalse(subscriptions.handle("s1", JsonObject.of("type", "ping")));
+    }
+}
@@ -1,13 +1,16 @@
 import { useWebsocket } from "@/hooks/use-websocket";
 import { useEffect, useMemo, useState } from "react";
-import { WebSocketMessageType } from "@/lib/websocket-types";
+import {
+  type FileProgress,
+  WebSocketMessageType,
+} from "@/lib/websocket-types";
 import type { TDFile, TelegramFile } from "@/lib/types";
 import { env } from "@/env";
 import { useDebounce } from "use-debounce";
 
 export function useFileSpeed(file: TelegramFile) {
   const fileId = file.id;
-  const { lastJsonMessage } = useWebsocket();
+  const { lastJsonMessage, getFile } = useWebsocket();
   const [downloadProgress, setDownloadProgress] = useState(0);
   const [downloadSpeed, setDownloadSpeed] = useState({
     speed: 0,
@@ -40,11 +43,17 @@ export function useFileSpeed(file: TelegramFile) {
   }, [file.downloadStatus, file.downloadedSize, file.size, debounceProgress]);
 
   useEffect(() => {
-    if (
-      lastJsonMessage !== null &&
-      lastJsonMessage.type === WebSocketMessageType.FILE_UPDATE
+    let tdFile: TDFile | undefined;
+    if (lastJsonMessage?.type === WebSocketMessageType.FILE_UPDATE) {
+      tdFile = (lastJsonMessage.data as { file: TDFile }).file;
+    } else if (
+      lastJsonMessage?.type === WebSocketMessageType.FILE_PROGRESS &&
+      (lastJsonMessage.data as FileProgress).files.some((f) => f.id === fileId)
     ) {
-      const { file } = lastJsonMessage.data as { file: TDFile };
+      tdFile = getFile(fileId);
+    }
+    if (lastJsonMessage !== null && tdFile !== undefined) {
+      const file = tdFile;
       if (file.id !== fileId || !file.local) {
         return;
       }
@@ -89,7 +98,7 @@ export function useFileSpeed(file: TelegramFile) {
     return () => {
       clearInterval(interval);
     };
-  }, [fileId, lastJsonMessage]);
+  }, [fileId, getFile, lastJsonMessage]);
 
   useEffect(() => {
     // Mock data
@@ -37,7 +37,7 @@ export function useFiles(
   const url = noAccountSpecified
     ? "/files"
     : `/telegram/${accountId}/chat/${chatId}/files`;
-  const { lastJsonMessage } = useWebsocket();
+  const { lastJsonMessage, subscribe, unsubscribe } = useWebsocket();
   const [latestFilesStatus, setLatestFileStatus] = useState<
     Record<
       string,
@@ -219,6 +219,21 @@ export function useFiles(
     return files;
   }, [pages, latestFilesStatus]);
 
+  // only the events of the listed files and the chat reach this session
+  const subscribedUniqueIds = useMemo(
+    () => files.map((file) => file.uniqueId).join(","),
+    [files],
+  );
+  useEffect(() => {
+    const subscription = {
+      chatIds: noAccountSpecified ? [] : [chatId],
+      uniqueIds: subscribedUniqueIds ? subscribedUniqueIds.split(",") : [],
+      eventTypes: [WebSocketMessageType.FILE_DOWNLOAD],
+    };
+    subscribe(subscription);
+    return () => unsubscribe(subscription);
+  }, [chatId, noAccountSpecified, subscribedUniqueIds, subscribe, unsubscribe]);
+
   const hasMore = useMemo(() => {
     if (!pages || pages.length === 0) return true;
 
@@ -6,17 +6,23 @@ import {
   useCallback,
   useContext,
   useEffect,
+  useRef,
   useState,
 } from "react";
 import useWebSocket, { ReadyState } from "react-use-websocket";
 import {
+  type FileProgress,
+  mergeDelta,
+  type Subscription,
   type TelegramError,
   type WebSocketMessage,
   WebSocketMessageType,
 } from "@/lib/websocket-types";
+import type { TDFile } from "@/lib/types";
 import { useToast } from "./use-toast";
 import { useDebounce } from "use-debounce";
 import { getWsUrl } from "@/lib/api";
+import { decodeBinaryFrame } from "@/lib/websocket-binary";
 import { useSearchParams } from "next/navigation";
 
 const WS_URL = `${getWsUrl()}`;
@@ -27,8 +33,19 @@ interface WebsocketContextType {
   connectionStatus: string;
   isReady: boolean;
   accountDownloadSpeed: number;
+  getFile: (fileId: number) => TDFile | undefined;
+  subscribe: (subscription: Subscription) => void;
+  unsubscribe: (subscription: Subscription) => void;
 }
 
+type SubscriptionKey = keyof Subscription;
+
+const SUBSCRIPTION_KEYS: SubscriptionKey[] = [
+  "chatIds",
+  "uniqueIds",
+  "eventTypes",
+];
+
 const WebSocketContext = createContext<WebsocketContextType | undefined>(
   undefined,
 );
@@ -53,15 +70,112 @@ export const WebSocketProvider: React.FC<WebSocketProviderProps> = ({
     maxWait: 1000,
   });
 
-  const { sendMessage, lastJsonMessage, readyState } =
-    useWebSocket<WebSocketMessage>(
-      `${WS_URL}?telegramId=${searchParams.get("id") ?? ""}`,
-      {
-        shouldReconnect: (closeEvent) => true,
-        reconnectAttempts: 3,
-        reconnectInterval: 3000,
+  // fileId -> file merged from the progress deltas, updated before the message reaches the hooks
+  const filesRef = useRef(new Map<number, TDFile>());
+  // "key:value" -> number of subscribers, sent again when the connection reopens
+  const subscriptionsRef = useRef(new Map<string, number>());
+  const isOpenRef = useRef(false);
+  const [lastJsonMessage, setLastJsonMessage] =
+    useState<WebSocketMessage | null>(null);
+
+  const { sendMessage, readyState } = useWebSocket<WebSocketMessage>(
+    // progress events arrive as binary frames, see decodeBinaryFrame
+    `${WS_URL}?telegramId=${searchParams.get("id") ?? ""}&frames=binary`,
+    {
+      shouldReconnect: (closeEvent) => true,
+      reconnectAttempts: 3,
+      reconnectInterval: 3000,
+      onOpen: (event) => {
+        (event.target as WebSocket).binaryType = "arraybuffer";
+        isOpenRef.current = true;
+        filesRef.current.clear();
+        const subscription: Subscription = {};
+        subscriptionsRef.current.forEach((_, entry) => {
+          const [key, value] = splitSubscriptionEntry(entry);
+          addSubscriptionValue(subscription, key, value);
+        });
+        if (SUBSCRIPTION_KEYS.some((key) => subscription[key]?.length)) {
+          (event.target as WebSocket).send(
+            JSON.stringify({ type: "subscribe", ...subscription }),
+          );
+        }
       },
-    );
+      onClose: () => {
+        isOpenRef.current = false;
+      },
+      // messages are decoded here instead of by the library, json and binary alike
+      filter: () => false,
+      onMessage: (event) => {
+        let message: WebSocketMessage | null;
+        try {
+          message =
+            typeof event.data === "string"
+              ? (JSON.parse(event.data) as WebSocketMessage)
+              : decodeBinaryFrame(event.data as ArrayBuffer);
+        } catch (error) {
+          console.error("Failed to decode WebSocket message:", error);
+          return;
+        }
+        if (!message) return;
+        if (message.type === WebSocketMessageType.FILE_PROGRESS) {
+          const files = filesRef.current;
+          for (const delta of (message.data as FileProgress).files) {
+            files.set(delta.id, mergeDelta(files.get(delta.id), delta));
+          }
+        }
+        setLastJsonMessage(message);
+      },
+    },
+  );
+
+  const getFile = useCallback(
+    (fileId: number) => filesRef.current.get(fileId),
+    [],
+  );
+
+  const updateSubscription = useCallback(
+    (type: "subscribe" | "unsubscribe", subscription: Subscription) => {
+      const counts = subscriptionsRef.current;
+      const changed: Subscription = {};
+      for (const key of SUBSCRIPTION_KEYS) {
+        for (const value of subscription[key] ?? []) {
+          const entry = `${key}:${value}`;
+          const count = counts.get(entry) ?? 0;
+          if (type === "subscribe") {
+            counts.set(entry, count + 1);
+            if (count === 0) addSubscriptionValue(changed, key, String(value));
+          } else if (count > 0) {
+            if (count === 1) {
+              counts.delete(entry);
+              addSubscriptionValue(changed, key, String(value));
+            } else {
+              counts.set(entry, count - 1);
+            }
+          }
+        }
+      }
+      // sent when the connection opens otherwise
+      if (
+        isOpenRef.current &&
+        SUBSCRIPTION_KEYS.some((key) => changed[key]?.length)
+      ) {
+        sendMessage(JSON.stringify({ type, ...changed }));
+      }
+    },
+    [sendMessage],
+  );
+
+  const subscribe = useCallback(
+    (subscription: Subscription) =>
+      updateSubscription("subscribe", subscription),
+    [updateSubscription],
+  );
+
+  const unsubscribe = useCallback(
+    (subscription: Subscription) =>
+      updateSubscription("unsubscribe", subscription),
+    [updateSubscription],
+  );
 
   const connectionStatus = {
     [ReadyState.CONNECTING]: "Connecting",
@@ -153,6 +267,9 @@ export const WebSocketProvider: React.FC<WebSocketProviderProps> = ({
         connectionStatus,
         isReady,
         accountDownloadSpeed: debounceSpeed,
+        getFile,
+        subscribe,
+        unsubscribe,
       }}
     >
       {children}
@@ -160,6 +277,26 @@ export const WebSocketProvider: React.FC<WebSocketProviderProps> = ({
   );
 };
 
+function splitSubscriptionEntry(entry: string): [SubscriptionKey, string] {
+  const index = entry.indexOf(":");
+  return [
+    entry.substring(0, index) as SubscriptionKey,
+    entry.substring(index + 1),
+  ];
+}
+
+function addSubscriptionValue(
+  subscription: Subscription,
+  key: SubscriptionKey,
+  value: string,
+) {
+  if (key === "eventTypes") {
+    (subscription.eventTypes ??= []).push(Number(value));
+  } else {
+    (subscription[key] ??= []).push(value);
+  }
+}
+
 export function useWebsocket() {
   const context = useContext(WebSocketContext);
   if (context === undefined) {
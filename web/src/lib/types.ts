@@ -142,6 +142,8 @@ export const SettingKeys = [
   "showSensitiveContent",
   "autoDownloadLimit",
   "autoDownloadTimeLimited",
+  "autoDownloadAllocation",
+  "downloadBandwidthLimit",
   "proxys",
   "avgSpeedInterval",
   "speedUnits",
@@ -171,6 +173,7 @@ export type Auto = {
   download: {
     enabled: boolean;
     rule: AutoDownloadRule;
+    weight?: number;
   };
   transfer: {
     enabled: boolean;
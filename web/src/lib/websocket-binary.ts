@@ -0,0 +1,57 @@
+import {
+  type FileProgress,
+  type WebSocketMessage,
+  WebSocketMessageType,
+} from "@/lib/websocket-types";
+
+// Layout of the binary frames, see BinaryFrames on the server
+const HEADER_SIZE = 1 + 8;
+const FILE_SIZE = 4 + 8 + 8 + 1;
+const FLAG_ACTIVE = 1;
+const FLAG_COMPLETED = 1 << 1;
+
+/**
+ * Decode a binary websocket frame into the message the json frame would have carried.
+ */
+export function decodeBinaryFrame(buffer: ArrayBuffer): WebSocketMessage | null {
+  if (buffer.byteLength < HEADER_SIZE) return null;
+  const view = new DataView(buffer);
+  const type = view.getUint8(0);
+  const timestamp = Number(view.getBigInt64(1));
+
+  switch (type) {
+    case WebSocketMessageType.FILE_PROGRESS: {
+      const count = view.getUint16(HEADER_SIZE);
+      const files: FileProgress["files"] = [];
+      for (let i = 0; i < count; i++) {
+        const offset = HEADER_SIZE + 2 + i * FILE_SIZE;
+        const size = Number(view.getBigInt64(offset + 4));
+        const flags = view.getUint8(offset + 20);
+        files.push({
+          id: view.getInt32(offset),
+          size,
+          expectedSize: size,
+          local: {
+            downloadedSize: Number(view.getBigInt64(offset + 12)),
+            isDownloadingActive: (flags & FLAG_ACTIVE) !== 0,
+            isDownloadingCompleted: (flags & FLAG_COMPLETED) !== 0,
+          },
+        });
+      }
+      return { type, code: "", data: { files }, timestamp };
+    }
+    case WebSocketMessageType.FILE_DOWNLOAD:
+      return {
+        type,
+        code: "",
+        data: {
+          totalSize: Number(view.getBigInt64(HEADER_SIZE)),
+          totalCount: view.getInt32(HEADER_SIZE + 8),
+          downloadedSize: Number(view.getBigInt64(HEADER_SIZE + 12)),
+        },
+        timestamp,
+      };
+    default:
+      return null;
+  }
+}
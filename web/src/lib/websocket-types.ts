@@ -12,8 +12,56 @@ export const WebSocketMessageType = {
   FILE_UPDATE: 3,
   FILE_DOWNLOAD: 4,
   FILE_STATUS: 5,
+  FILE_PROGRESS: 6,
+  FILE_TRANSFER: 7,
 };
 
+/**
+ * Events a session subscribes to over the websocket, once subscribed file events only arrive for these.
+ */
+export type Subscription = {
+  chatIds?: string[];
+  uniqueIds?: string[];
+  eventTypes?: number[];
+};
+
+/**
+ * Files of a FILE_PROGRESS message, only the fields changed since the file was last sent are present besides the id.
+ */
+export type FileProgress = {
+  files: ({ id: number } & Record<string, any>)[];
+};
+
+/**
+ * Bytes copied of a file transferred to another file system.
+ */
+export type FileTransferProgress = {
+  fileId: number;
+  uniqueId: string;
+  chatId: string;
+  transferredSize: number;
+  totalSize: number;
+};
+
+export function mergeDelta<T>(base: T | undefined, delta: Record<string, any>): T {
+  if (base === undefined || base === null) {
+    return delta as T;
+  }
+  const merged: Record<string, any> = { ...base };
+  for (const [key, value] of Object.entries(delta)) {
+    const previous = merged[key];
+    merged[key] =
+      value !== null &&
+      typeof value === "object" &&
+      !Array.isArray(value) &&
+      previous !== null &&
+      typeof previous === "object"
+        ? mergeDelta(previous, value)
+        : value;
+  }
+  return merged as T;
+}
+
 export type TelegramError = {
   code: string;
   message: string;